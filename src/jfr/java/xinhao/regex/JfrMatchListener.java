@@ -0,0 +1,226 @@
+package xinhao.regex;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Recording;
+import jdk.jfr.Timespan;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author by xinhao  2021/9/7
+ * 把 MatchListener 的回调转成 JFR 事件的监听器，需要 JDK 11 及以上，单独放在 src/jfr/java。
+ * 录制时打开 xinhao.regex.* 事件，例如: java -XX:StartFlightRecording:filename=regex.jfr,settings=profile ...
+ * 事件没有打开时 isEnabled() 返回 false，回调只多一次判断。
+ * 回调在匹配完成之后才被调用，所以事件本身没有持续时间，耗时记录在事件的字段中。
+ */
+public final class JfrMatchListener implements MatchListener {
+
+    private static final String CATEGORY = "Regex";
+
+    @Name("xinhao.regex.Compile")
+    @Label("Regex Compile")
+    @Category(CATEGORY)
+    @Description("编译一个正则表达式")
+    static final class CompileEvent extends Event {
+        @Label("Pattern")
+        String pattern;
+        @Label("Flags")
+        int flags;
+        @Label("Compile Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long compileTime;
+        @Label("NFA States")
+        int nfaStates;
+        @Label("DFA States")
+        int dfaStates;
+    }
+
+    @Name("xinhao.regex.Match")
+    @Label("Regex Match")
+    @Category(CATEGORY)
+    @Description("一次完整输入的匹配")
+    @StackTrace(false)
+    static final class MatchEvent extends Event {
+        @Label("Pattern")
+        String pattern;
+        @Label("Length")
+        long length;
+        @Label("Matched")
+        boolean matched;
+    }
+
+    @Name("xinhao.regex.BatchMatch")
+    @Label("Regex Batch Match")
+    @Category(CATEGORY)
+    @Description("一批输入的完整匹配")
+    @StackTrace(false)
+    static final class BatchMatchEvent extends Event {
+        @Label("Pattern")
+        String pattern;
+        @Label("Inputs")
+        int inputs;
+        @Label("Chars")
+        long chars;
+        @Label("Matched")
+        int matched;
+    }
+
+    @Name("xinhao.regex.Search")
+    @Label("Regex Search")
+    @Category(CATEGORY)
+    @Description("一次查找")
+    @StackTrace(false)
+    static final class SearchEvent extends Event {
+        @Label("Pattern")
+        String pattern;
+        @Label("Chars")
+        long chars;
+        @Label("Matches")
+        long matches;
+    }
+
+    @Name("xinhao.regex.LazyStates")
+    @Label("Regex Lazy DFA States")
+    @Category(CATEGORY)
+    @Description("惰性 DFA 新生成了状态")
+    static final class LazyStatesEvent extends Event {
+        @Label("Pattern")
+        String pattern;
+        @Label("Added States")
+        int addedStates;
+        @Label("Cache Clears")
+        int cacheClears;
+    }
+
+    @Name("xinhao.regex.Backtrack")
+    @Label("Regex Backtrack")
+    @Category(CATEGORY)
+    @Description("一次回溯匹配")
+    static final class BacktrackEvent extends Event {
+        @Label("Pattern")
+        String pattern;
+        @Label("Length")
+        int length;
+        @Label("Steps")
+        long steps;
+        @Label("Backtracks")
+        long backtracks;
+        @Label("Matched")
+        boolean matched;
+    }
+
+    @Override
+    public void compiled(String pattern, int flags, long nanos, int nfaStates, int dfaStates) {
+        CompileEvent event = new CompileEvent();
+        if (event.isEnabled()) {
+            event.pattern = pattern;
+            event.flags = flags;
+            event.compileTime = nanos;
+            event.nfaStates = nfaStates;
+            event.dfaStates = dfaStates;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void matched(String pattern, long length, boolean matched) {
+        MatchEvent event = new MatchEvent();
+        if (event.isEnabled()) {
+            event.pattern = pattern;
+            event.length = length;
+            event.matched = matched;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void batchMatched(String pattern, int inputs, long chars, int matched) {
+        BatchMatchEvent event = new BatchMatchEvent();
+        if (event.isEnabled()) {
+            event.pattern = pattern;
+            event.inputs = inputs;
+            event.chars = chars;
+            event.matched = matched;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void searched(String pattern, long chars, long matches) {
+        SearchEvent event = new SearchEvent();
+        if (event.isEnabled()) {
+            event.pattern = pattern;
+            event.chars = chars;
+            event.matches = matches;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void lazyStatesAdded(String pattern, int addedStates, int cacheClears) {
+        LazyStatesEvent event = new LazyStatesEvent();
+        if (event.isEnabled()) {
+            event.pattern = pattern;
+            event.addedStates = addedStates;
+            event.cacheClears = cacheClears;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void backtracked(String pattern, int length, long steps, long backtracks, boolean matched) {
+        BacktrackEvent event = new BacktrackEvent();
+        if (event.isEnabled()) {
+            event.pattern = pattern;
+            event.length = length;
+            event.steps = steps;
+            event.backtracks = backtracks;
+            event.matched = matched;
+            event.commit();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        JfrMatchListener listener = new JfrMatchListener();
+        Path file = Files.createTempFile("regex", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(CompileEvent.class);
+            recording.enable(MatchEvent.class);
+            recording.enable(SearchEvent.class);
+            recording.enable(BacktrackEvent.class);
+            recording.start();
+
+            Pattern pattern = Pattern.compile("a(b|c)*d", 0, listener);
+            for (int i = 0; i < 10; i++) {
+                pattern.matches("abcbcbd");
+            }
+            pattern.find("xxabdyy");
+            NFAGraph graph = NFARegexUtil.createNFAGraph("(a|aa)*b");
+            graph.getEndState().setEnd(true);
+            NFARegexUtil.isMatch("(a|aa)*b", graph.getStartState(), "aaaaaaaaaa".toCharArray(),
+                    RecordNFAState.create(graph.getStartState()), listener);
+
+            recording.stop();
+            recording.dump(file);
+        }
+        Map<String, Integer> counts = new TreeMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+            String name = event.getEventType().getName();
+            Integer count = counts.get(name);
+            counts.put(name, count == null ? 1 : count + 1);
+        }
+        Files.delete(file);
+        System.out.println(counts);
+    }
+}
@@ -0,0 +1,77 @@
+package xinhao.regex;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author by xinhao  2021/8/31
+ * 基准测试使用的正则表达式和输入。输入都是能匹配的，这样所有引擎都要读取全部字符
+ */
+final class BenchmarkInputs {
+
+    // 名字 ==> 正则表达式
+    static final Map<String, String> PATTERNS = new HashMap<>();
+
+    static {
+        // 简单的正则表达式
+        PATTERNS.put("simple", "a(b|c)*d");
+        // 子集构造之后 DFA 状态数是指数级的
+        PATTERNS.put("exponential", "(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)");
+        // 很多分支，化简时可以提取公共前缀
+        PATTERNS.put("keywords", "(abstract|assert|boolean|break|byte|case|catch|char|class|const|continue|default"
+                + "|do|double|else|enum|extends|final|finally|float|for|goto|if|implements|import|instanceof|int"
+                + "|interface|long|native|new|package|private|protected|public|return|short|static|strictfp|super"
+                + "|switch|synchronized|this|throw|throws|transient|try|void|volatile|while)");
+        // 字符类的重复
+        PATTERNS.put("identifier", "(a|b|c|d|e|f|g|h|i|j|k|l|m|n|o|p|q|r|s|t|u|v|w|x|y|z)"
+                + "(a|b|c|d|e|f|g|h|i|j|k|l|m|n|o|p|q|r|s|t|u|v|w|x|y|z|0|1|2|3|4|5|6|7|8|9)*");
+    }
+
+    private BenchmarkInputs() {
+    }
+
+    static String pattern(String name) {
+        String pattern = PATTERNS.get(name);
+        if (pattern == null) {
+            throw new IllegalArgumentException("没有这个正则表达式: " + name);
+        }
+        return pattern;
+    }
+
+    /**
+     * 长度为 length、能被 name 对应的正则表达式匹配的输入
+     * @param name
+     * @param length
+     * @return
+     */
+    static String matchingInput(String name, int length) {
+        Random random = new Random(length);
+        StringBuilder builder = new StringBuilder(length);
+        switch (name) {
+            case "simple":
+                builder.append('a');
+                while (builder.length() < length - 1) {
+                    builder.append(random.nextBoolean() ? 'b' : 'c');
+                }
+                builder.append('d');
+                break;
+            case "exponential":
+                while (builder.length() < length - 9) {
+                    builder.append(random.nextBoolean() ? 'a' : 'b');
+                }
+                // 倒数第 9 个字符必须是 a
+                builder.append('a').append("abbabbab");
+                break;
+            case "identifier":
+                builder.append('x');
+                while (builder.length() < length) {
+                    builder.append("abcdefghijklmnopqrstuvwxyz0123456789".charAt(random.nextInt(36)));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("不能生成输入: " + name);
+        }
+        return builder.toString();
+    }
+}
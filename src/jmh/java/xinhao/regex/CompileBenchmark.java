@@ -0,0 +1,86 @@
+package xinhao.regex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author by xinhao  2021/8/31
+ * 编译的各个阶段的耗时: 生成 NFAGraph、子集构造 NFAToDFA、完整的 Pattern.compile，
+ * 以 java.util.regex.Pattern.compile 作为对照。
+ * NFAToDFA 得到的 DFA 状态数通过 CompileCounters 输出在结果中
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+
+    @Param({"simple", "exponential", "keywords", "identifier"})
+    public String patternName;
+
+    private String pattern;
+    // Thompson 构造的 NFA，子集构造不会修改它
+    private NFATable nfaTable;
+    // Glushkov 构造的 NFA
+    private NFATable glushkovTable;
+
+    /**
+     * 子集构造得到的 DFA 状态数 (最小化之前)
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class CompileCounters {
+        public int dfaStates;
+    }
+
+    @Setup
+    public void setup() {
+        pattern = BenchmarkInputs.pattern(patternName);
+        NFAGraph nfaGraph = NFARegexUtil.createNFAGraph(pattern);
+        nfaGraph.getEndState().setEnd(true);
+        nfaTable = NFATable.create(nfaGraph);
+        glushkovTable = GlushkovBuilder.build(pattern);
+    }
+
+    @Benchmark
+    public NFAGraph createNFAGraph() {
+        return NFARegexUtil.createNFAGraph(pattern);
+    }
+
+    @Benchmark
+    public NFATable glushkovBuild() {
+        return GlushkovBuilder.build(pattern);
+    }
+
+    @Benchmark
+    public DFAGraph nfaToDFA(CompileCounters counters) {
+        DFAGraph dfaGraph = DFARegexUtil.NFAToDFA(nfaTable);
+        counters.dfaStates = dfaGraph.getStateCount();
+        return dfaGraph;
+    }
+
+    @Benchmark
+    public DFAGraph glushkovToDFA(CompileCounters counters) {
+        DFAGraph dfaGraph = DFARegexUtil.NFAToDFA(glushkovTable);
+        counters.dfaStates = dfaGraph.getStateCount();
+        return dfaGraph;
+    }
+
+    @Benchmark
+    public Pattern compile() {
+        return Pattern.compile(pattern);
+    }
+
+    @Benchmark
+    public Pattern compileLazy() {
+        return Pattern.compile(pattern, Pattern.LAZY_DFA);
+    }
+
+    @Benchmark
+    public java.util.regex.Pattern jdkCompile() {
+        return java.util.regex.Pattern.compile(pattern);
+    }
+}
@@ -0,0 +1,94 @@
+package xinhao.regex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author by xinhao  2021/8/31
+ * 整个输入是否匹配的吞吐量，短输入主要看每次调用的开销，长输入主要看每个字符的开销。
+ * 引擎: DFA 转换表、生成的字节码、惰性 DFA (匹配器重复使用，缓存是热的)、位并行模拟、NFA 模拟 (Pike VM)，
+ * 以 java.util.regex 作为对照
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchBenchmark {
+
+    @Param({"simple", "exponential", "identifier"})
+    public String patternName;
+
+    @Param({"16", "65536"})
+    public int inputLength;
+
+    private String input;
+    private char[] chars;
+    private Pattern dfaPattern;
+    private DFATable dfaTable;
+    // 生成的方法超过 DFACompiler.MAX_CODE_SIZE 时为 null
+    private CompiledDFA compiledDFA;
+    private LazyDFA lazyDFA;
+    private BitParallelMatcher bitParallel;
+    private NFASimulator simulator;
+    private java.util.regex.Pattern jdkPattern;
+
+    @Setup
+    public void setup() {
+        String pattern = BenchmarkInputs.pattern(patternName);
+        input = BenchmarkInputs.matchingInput(patternName, inputLength);
+        chars = input.toCharArray();
+        dfaPattern = Pattern.compile(pattern);
+        dfaTable = dfaPattern.getDFATable();
+        compiledDFA = DFACompiler.compile(dfaTable);
+        NFAGraph nfaGraph = NFARegexUtil.createNFAGraph(pattern);
+        nfaGraph.getEndState().setEnd(true);
+        NFATable nfaTable = NFATable.create(nfaGraph);
+        lazyDFA = LazyDFA.create(nfaTable);
+        bitParallel = BitParallelMatcher.create(GlushkovBuilder.build(pattern));
+        simulator = NFASimulator.create(nfaTable);
+        jdkPattern = java.util.regex.Pattern.compile(pattern);
+        // java.util.regex 匹配 (b|c)* 这样的重复时是递归的，长输入在默认的栈大小下会栈溢出，所以这里只用 DFA 检查
+        if (!dfaPattern.matches(input)) {
+            throw new IllegalStateException("输入不匹配: " + patternName);
+        }
+    }
+
+    @Benchmark
+    public boolean dfa() {
+        return dfaPattern.matches(input);
+    }
+
+    // 比如 exponential 的 513 个状态生成的方法太大，这时和 Pattern.BYTECODE 一样使用转换表
+    @Benchmark
+    public boolean bytecode() {
+        if (compiledDFA == null) {
+            return dfaTable.isMatch(chars, 0, chars.length);
+        }
+        return compiledDFA.matches(chars, 0, chars.length);
+    }
+
+    @Benchmark
+    public boolean lazyDFA() {
+        return lazyDFA.isMatch(chars, 0, chars.length);
+    }
+
+    @Benchmark
+    public boolean bitParallel() {
+        return bitParallel.isMatch(chars, 0, chars.length);
+    }
+
+    @Benchmark
+    public boolean nfaSimulator() {
+        return simulator.isMatch(chars, 0, chars.length, null);
+    }
+
+    // 65536 个字符的输入需要很大的栈，单独使用一个栈更大的 fork
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Xss256m")
+    public boolean jdk() {
+        return jdkPattern.matcher(input).matches();
+    }
+}
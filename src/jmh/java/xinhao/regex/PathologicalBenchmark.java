@@ -0,0 +1,67 @@
+package xinhao.regex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author by xinhao  2021/8/31
+ * 回溯算法的最坏情况: 输入是 n 个 a，没有 b，所以不能匹配，回溯算法要尝试所有的分法。
+ * (a|a)*b 有 2^n 种分法，(a|aa)*b 有 fib(n) 种。
+ * DFA 和 NFA 模拟的时间和 n 成正比；NFARegexUtil 的回溯算法和 java.util.regex 是指数级的。
+ * 注意 (a|a)* 化简之后就是 a*，所以本项目的回溯算法只在 (a|aa)*b 上是指数级的
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PathologicalBenchmark {
+
+    @Param({"(a|a)*b", "(a|aa)*b"})
+    public String pattern;
+
+    @Param({"16", "24"})
+    public int n;
+
+    private String input;
+    private char[] chars;
+    private Pattern dfaPattern;
+    private NFASimulator simulator;
+    private NFAGraph nfaGraph;
+    private java.util.regex.Pattern jdkPattern;
+
+    @Setup
+    public void setup() {
+        chars = new char[n];
+        Arrays.fill(chars, 'a');
+        input = new String(chars);
+        dfaPattern = Pattern.compile(pattern);
+        nfaGraph = NFARegexUtil.createNFAGraph(pattern);
+        nfaGraph.getEndState().setEnd(true);
+        simulator = NFASimulator.create(NFATable.create(nfaGraph));
+        jdkPattern = java.util.regex.Pattern.compile(pattern);
+    }
+
+    @Benchmark
+    public boolean dfa() {
+        return dfaPattern.matches(input);
+    }
+
+    @Benchmark
+    public boolean nfaSimulator() {
+        return simulator.isMatch(chars, 0, chars.length, null);
+    }
+
+    @Benchmark
+    public boolean backtracking() {
+        return NFARegexUtil.isMatch(nfaGraph.getStartState(), chars, 0, RecordNFAState.create(nfaGraph.getStartState()));
+    }
+
+    @Benchmark
+    public boolean jdk() {
+        return jdkPattern.matcher(input).matches();
+    }
+}
@@ -0,0 +1,176 @@
+package xinhao.regex;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * @author by xinhao  2021/8/24
+ * 同一个正则表达式批量匹配很多个输入，结果是 BitSet，第 i 位表示第 i 个输入是否匹配。
+ * 每次同时处理 4 个输入 (见 DFATable.isMatch(char[], int[], ...))，没有每次调用的开销。
+ * 列存储的输入是一个 char[] 加上偏移数组，所有输入的字符是连续的，对缓存更友好。
+ * 创建之后不能被修改，可以被多个线程共享。
+ */
+public final class BatchMatcher {
+
+    // 并行匹配时每个任务处理的输入个数，是 64 的倍数，这样每个任务写的是 long[] 中不同的元素
+    private static final int BLOCK_SIZE = 64 * 64;
+
+    private final Pattern pattern;
+    // 惰性 DFA 模式下为 null，这时每个输入使用 Matcher 匹配
+    private final DFATable dfaTable;
+    // 监听器，没有时为 null。惰性 DFA 模式下每个输入由 Matcher 报告
+    private final MatchListener listener;
+
+    private BatchMatcher(Pattern pattern) {
+        this.pattern = pattern;
+        this.dfaTable = pattern.getDFATable();
+        this.listener = dfaTable != null ? pattern.getListener() : null;
+    }
+
+    public static BatchMatcher create(Pattern pattern) {
+        return new BatchMatcher(pattern);
+    }
+
+    /**
+     * 匹配所有输入
+     * @param inputs
+     * @return 第 i 位表示 inputs[i] 是否匹配
+     */
+    public BitSet matchAll(CharSequence[] inputs) {
+        long[] words = new long[wordCount(inputs.length)];
+        matchRange(inputs, 0, inputs.length, words);
+        return report(inputs, words);
+    }
+
+    public BitSet matchAll(List<? extends CharSequence> inputs) {
+        return matchAll(inputs.toArray(new CharSequence[0]));
+    }
+
+    /**
+     * 匹配列存储的输入: 第 i 个输入是 data 中 [offsets[i], offsets[i + 1]) 的字符，一共 offsets.length - 1 个输入
+     * @param data
+     * @param offsets
+     * @return 第 i 位表示第 i 个输入是否匹配
+     */
+    public BitSet matchAll(char[] data, int[] offsets) {
+        int count = checkOffsets(data, offsets);
+        long[] words = new long[wordCount(count)];
+        matchRange(data, offsets, 0, count, words);
+        return report(count, offsets[count] - offsets[0], words);
+    }
+
+    /**
+     * 并行匹配所有输入，输入分成多块，使用并行流处理
+     * @param inputs
+     * @return
+     */
+    public BitSet parallelMatchAll(final CharSequence[] inputs) {
+        final long[] words = new long[wordCount(inputs.length)];
+        IntStream.range(0, blockCount(inputs.length)).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int block) {
+                int from = block * BLOCK_SIZE;
+                matchRange(inputs, from, Math.min(inputs.length, from + BLOCK_SIZE), words);
+            }
+        });
+        return report(inputs, words);
+    }
+
+    public BitSet parallelMatchAll(List<? extends CharSequence> inputs) {
+        return parallelMatchAll(inputs.toArray(new CharSequence[0]));
+    }
+
+    /**
+     * 并行匹配列存储的输入
+     * @param data
+     * @param offsets
+     * @return
+     */
+    public BitSet parallelMatchAll(final char[] data, final int[] offsets) {
+        final int count = checkOffsets(data, offsets);
+        final long[] words = new long[wordCount(count)];
+        IntStream.range(0, blockCount(count)).parallel().forEach(new IntConsumer() {
+            @Override
+            public void accept(int block) {
+                int from = block * BLOCK_SIZE;
+                matchRange(data, offsets, from, Math.min(count, from + BLOCK_SIZE), words);
+            }
+        });
+        return report(count, offsets[count] - offsets[0], words);
+    }
+
+    private void matchRange(CharSequence[] inputs, int from, int to, long[] words) {
+        if (dfaTable != null) {
+            dfaTable.isMatch(inputs, from, to, words);
+            return;
+        }
+        // Matcher 不是线程安全的，每次调用创建自己的
+        Matcher matcher = pattern.matcher();
+        for (int i = from; i < to; i++) {
+            if (matcher.matches(inputs[i])) {
+                words[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    private void matchRange(char[] data, int[] offsets, int from, int to, long[] words) {
+        if (dfaTable != null) {
+            dfaTable.isMatch(data, offsets, from, to, words);
+            return;
+        }
+        Matcher matcher = pattern.matcher();
+        for (int i = from; i < to; i++) {
+            if (matcher.matches(data, offsets[i], offsets[i + 1])) {
+                words[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    // 有监听器时计算所有输入的字符数之和
+    private BitSet report(CharSequence[] inputs, long[] words) {
+        if (listener == null) {
+            return BitSet.valueOf(words);
+        }
+        long chars = 0;
+        for (CharSequence input : inputs) {
+            chars += input.length();
+        }
+        return report(inputs.length, chars, words);
+    }
+
+    // 整批输入报告一次，结果转换成 BitSet
+    private BitSet report(int count, long chars, long[] words) {
+        BitSet result = BitSet.valueOf(words);
+        if (listener != null) {
+            listener.batchMatched(pattern.pattern(), count, chars, result.cardinality());
+        }
+        return result;
+    }
+
+    // 检查偏移数组，返回输入的个数
+    private static int checkOffsets(char[] data, int[] offsets) {
+        if (offsets.length == 0) {
+            throw new IllegalArgumentException("offsets 至少要有一个元素");
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] < 0 || offsets[i] > data.length || (i > 0 && offsets[i] < offsets[i - 1])) {
+                throw new IllegalArgumentException("offsets[" + i + "] 不合法: " + offsets[i]);
+            }
+        }
+        return offsets.length - 1;
+    }
+
+    private static int wordCount(int count) {
+        return (count + 63) >>> 6;
+    }
+
+    private static int blockCount(int count) {
+        return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+}
@@ -0,0 +1,189 @@
+package xinhao.regex;
+
+import java.util.Arrays;
+
+/**
+ * @author by xinhao  2021/8/30
+ * 位并行的 NFA 模拟 (Shift-And 的推广)，用于状态数不超过 64 的 Glushkov NFA。
+ * 状态集合用一个 long 表示，第 i 位表示状态 i。Glushkov NFA 中到达同一个状态的有向边上的字符都一样
+ * (就是这个位置的字符)，所以读取一个字符 ch 之后的状态集合是:
+ *     follow(D) & charMask[ch]
+ * follow(D) 是 D 中所有状态的有向边能到达的状态，charMask[ch] 是遇到 ch 能到达的状态。
+ * follow(D) 按照每 8 位一块查表: followTable[块][这一块的值]，每个字符最多查 8 次表，状态少时只查 1、2 次。
+ * 不需要子集构造，编译时只需要生成不到 (64 / 8) * 256 个 long 的表；匹配时没有临时数据，
+ * 创建之后不能被修改，可以被多个线程共享。
+ */
+public final class BitParallelMatcher {
+
+    // 最多的状态数
+    public static final int MAX_STATES = 64;
+
+    // 字符类
+    private final CharClassMap classMap;
+    // 每个字符类能到达的状态，字符类 0 不在任何有向边上，是 0
+    private final long[] charMasks;
+    // followTable[(块 << 8) | 值]: 第 块 个 8 位的值是 值 的状态集合的 follow
+    private final long[] followTable;
+    // 开始状态
+    private final long startMask;
+    // 终止状态
+    private final long endMask;
+    private final int stateCount;
+
+    private BitParallelMatcher(CharClassMap classMap, long[] charMasks, long[] followTable,
+                               long startMask, long endMask, int stateCount) {
+        this.classMap = classMap;
+        this.charMasks = charMasks;
+        this.followTable = followTable;
+        this.startMask = startMask;
+        this.endMask = endMask;
+        this.stateCount = stateCount;
+    }
+
+    /**
+     * 能否用位并行模拟: 没有 ε有向边，状态数不超过 64，并且到达同一个状态的有向边上的字符都一样。
+     * Glushkov 构造得到的 NFA 只要状态数不超过 64 都满足
+     * @param nfaTable
+     * @return
+     */
+    public static boolean canCreate(NFATable nfaTable) {
+        if (!nfaTable.isEpsilonFree() || nfaTable.getStateCount() > MAX_STATES) {
+            return false;
+        }
+        return incomingChars(nfaTable) != null;
+    }
+
+    /**
+     * @param nfaTable  必须满足 canCreate
+     * @return
+     */
+    public static BitParallelMatcher create(NFATable nfaTable) {
+        if (!nfaTable.isEpsilonFree() || nfaTable.getStateCount() > MAX_STATES) {
+            throw new IllegalArgumentException("只支持没有 ε有向边 并且不超过 " + MAX_STATES + " 个状态的 NFA: " + nfaTable);
+        }
+        char[][] incoming = incomingChars(nfaTable);
+        if (incoming == null) {
+            throw new IllegalArgumentException("到达同一个状态的有向边上的字符不一样: " + nfaTable);
+        }
+        int stateCount = nfaTable.getStateCount();
+        CharClassMap classMap = nfaTable.getClassMap();
+        long[] charMasks = new long[classMap.getClassCount()];
+        long endMask = 0;
+        long[] follows = new long[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            for (char ch : incoming[state]) {
+                charMasks[classMap.classOf(ch)] |= 1L << state;
+            }
+            if (nfaTable.isEnd(state)) {
+                endMask |= 1L << state;
+            }
+            for (int target : nfaTable.getEdgeTargets(state)) {
+                follows[state] |= 1L << target;
+            }
+        }
+        // 每一块的值从小到大计算: 去掉最低的 1 位之后的值已经计算过了
+        int chunkCount = (stateCount + 7) >>> 3;
+        long[] followTable = new long[chunkCount << 8];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int base = chunk << 8;
+            for (int value = 1; value < 256; value++) {
+                int state = (chunk << 3) + Integer.numberOfTrailingZeros(value);
+                long follow = state < stateCount ? follows[state] : 0;
+                followTable[base | value] = followTable[base | (value & (value - 1))] | follow;
+            }
+        }
+        return new BitParallelMatcher(classMap, charMasks, followTable,
+                1L << nfaTable.getStart(), endMask, stateCount);
+    }
+
+    /**
+     * 每个状态的有向边上的字符，所有到达它的有向边上的字符都一样。不一样时返回 null
+     * @param nfaTable
+     * @return
+     */
+    private static char[][] incomingChars(NFATable nfaTable) {
+        int stateCount = nfaTable.getStateCount();
+        char[][] incoming = new char[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            char[] paths = nfaTable.getEdgePaths(state);
+            int[] targets = nfaTable.getEdgeTargets(state);
+            // 按目标状态收集字符，paths 有序，所以每个目标的字符也是有序的
+            StringBuilder[] byTarget = new StringBuilder[stateCount];
+            for (int edge = 0; edge < paths.length; edge++) {
+                if (byTarget[targets[edge]] == null) {
+                    byTarget[targets[edge]] = new StringBuilder();
+                }
+                byTarget[targets[edge]].append(paths[edge]);
+            }
+            for (int target = 0; target < stateCount; target++) {
+                if (byTarget[target] == null) {
+                    continue;
+                }
+                char[] chars = byTarget[target].toString().toCharArray();
+                if (incoming[target] == null) {
+                    incoming[target] = chars;
+                } else if (!Arrays.equals(incoming[target], chars)) {
+                    return null;
+                }
+            }
+        }
+        for (int state = 0; state < stateCount; state++) {
+            if (incoming[state] == null) {
+                incoming[state] = new char[0];
+            }
+        }
+        return incoming;
+    }
+
+    public boolean isMatch(CharSequence input) {
+        long state = startMask;
+        for (int pos = 0; pos < input.length(); pos++) {
+            state = step(state, input.charAt(pos));
+            if (state == 0) {
+                return false;
+            }
+        }
+        return (state & endMask) != 0;
+    }
+
+    /**
+     * 字符数组 chars 中 [from, to) 的字符是否匹配
+     * @param chars
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean isMatch(char[] chars, int from, int to) {
+        long state = startMask;
+        for (int pos = from; pos < to; pos++) {
+            state = step(state, chars[pos]);
+            if (state == 0) {
+                return false;
+            }
+        }
+        return (state & endMask) != 0;
+    }
+
+    // 读取一个字符之后的状态集合。查表的次数固定，循环次数不随状态集合变化，分支容易预测
+    private long step(long state, char ch) {
+        long follow = followTable[(int) state & 0xFF];
+        for (int base = 256; base < followTable.length; base += 256) {
+            state >>>= 8;
+            follow |= followTable[base | ((int) state & 0xFF)];
+        }
+        return follow & charMasks[classMap.classOf(ch)];
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("BitParallelMatcher{");
+        sb.append("stateCount=").append(stateCount);
+        sb.append(", classCount=").append(charMasks.length);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,417 @@
+package xinhao.regex;
+
+import java.util.*;
+
+/**
+ * @author by xinhao  2021/8/22
+ * 输入是 UTF-8 字节的 DFA 转换表，由字符 DFA 转换表展开得到，匹配时不需要把字节解码成字符。
+ * 字符 DFA 的每个状态仍然是同一个编号的状态；一个多字节字符的前几个字节到达中间状态，
+ * 读完最后一个字节才到达字符 DFA 的下一个状态。
+ * 行为完全相同的中间状态只保留一个，所以正则表达式中没有非 ASCII 字符时，每个状态只多出几个中间状态。
+ * 不合法的 UTF-8 字节和 new String(bytes, UTF_8) 一样替换成 U+FFFD: 每一段不能继续的最长前缀
+ * (包括过长编码、超过 U+10FFFF 的编码) 是一个 U+FFFD，打断前缀的字节重新作为一个字符的开始处理；
+ * ED A0..BF 开始的代理字符编码读完之后是一个 U+FFFD；输入在多字节字符中间结束时，没有读完的字节也是一个 U+FFFD。
+ * 补充平面的字符 (4 字节) 当作两个代理字符处理，所以正则表达式中不能有代理字符。
+ */
+public final class ByteDFA {
+
+    public static final int DEAD = 0;
+    // 不合法的字节对应的字符
+    private static final char REPLACEMENT = '\uFFFD';
+
+    // 转换表 table[(state << 8) | (b & 0xFF)]
+    private final int[] table;
+    // 状态是不是终止状态，中间状态都不是终止状态
+    private final boolean[] ends;
+    // 输入在这个状态结束时，没有读完的多字节字符当作一个 U+FFFD 之后的状态。字符 DFA 的状态就是它自己
+    private final int[] endOfInput;
+    private final int start;
+    // 字符 DFA 的状态个数，编号小于它的状态和字符 DFA 的状态一一对应
+    private final int charStateCount;
+
+    private ByteDFA(int[] table, boolean[] ends, int[] endOfInput, int start, int charStateCount) {
+        this.table = table;
+        this.ends = ends;
+        this.endOfInput = endOfInput;
+        this.start = start;
+        this.charStateCount = charStateCount;
+    }
+
+    /**
+     * 把字符 DFA 转换表展开成 UTF-8 字节的 DFA 转换表
+     * @param dfaTable
+     * @return
+     */
+    public static ByteDFA create(DFATable dfaTable) {
+        return create(dfaTable, false);
+    }
+
+    /**
+     * 查找使用的字节 DFA，dfaTable 是查找用的前向 DFA (FileScanner)。
+     * 被打断的多字节字符是一个 U+FFFD，读到它之后如果到达终止状态，就停在这个终止状态，不再处理打断它的字节，
+     * 否则一次转换中间经过的终止状态会被跳过。所以只能用 isEnd 判断输入中有没有匹配，不能用 isMatch 判断整个输入
+     * @param dfaTable
+     * @return
+     */
+    public static ByteDFA createForSearch(DFATable dfaTable) {
+        return create(dfaTable, true);
+    }
+
+    private static ByteDFA create(DFATable dfaTable, boolean stopAtEnd) {
+        for (char ch : dfaTable.getClassMap().getChars()) {
+            if (Character.isSurrogate(ch)) {
+                throw new IllegalArgumentException("字节 DFA 不支持代理字符: \\u" + Integer.toHexString(ch));
+            }
+        }
+        return new Builder(dfaTable, stopAtEnd).build();
+    }
+
+    /**
+     * 生成中间状态。
+     * 先按 (字符 DFA 状态, 已经读取的前缀) 生成所有中间状态，再把转换表和结束时的状态都相同的中间状态合并
+     */
+    private static final class Builder {
+        private final DFATable dfaTable;
+        // 正则表达式中出现过的字符，从小到大排序。不在这里面的字符都属于字符类 0，行为一样
+        private final char[] chars;
+        private final int charStateCount;
+        // 被打断的多字节字符到达终止状态时停在终止状态
+        private final boolean stopAtEnd;
+        // 中间状态，第 i 个的临时编号是 charStateCount + i
+        private final List<NodeKey> nodes = new ArrayList<>();
+        private final Map<NodeKey, Integer> nodeIndex = new HashMap<>();
+
+        private Builder(DFATable dfaTable, boolean stopAtEnd) {
+            this.dfaTable = dfaTable;
+            this.chars = dfaTable.getClassMap().getChars();
+            this.charStateCount = dfaTable.getStateCount();
+            this.stopAtEnd = stopAtEnd;
+        }
+
+        private ByteDFA build() {
+            List<int[]> rows = new ArrayList<>();
+            for (int state = 0; state < charStateCount; state++) {
+                int[] row = new int[256];
+                for (int b = 0; b < 256; b++) {
+                    row[b] = charMove(state, b);
+                }
+                rows.add(row);
+            }
+            // 计算一行时可能生成新的中间状态，它们排在后面，也会被处理
+            for (int i = 0; i < nodes.size(); i++) {
+                rows.add(nodeRow(nodes.get(i)));
+            }
+            int total = rows.size();
+            int[] flushes = new int[total];
+            for (int state = 0; state < total; state++) {
+                flushes[state] = state < charStateCount ? state
+                        : dfaTable.move(nodes.get(state - charStateCount).state, REPLACEMENT);
+            }
+            int[] merged = merge(rows, flushes);
+
+            // 重新编号: 字符 DFA 的状态不变，留下来的中间状态依次排在后面
+            int[] newIndex = new int[total];
+            int stateCount = charStateCount;
+            for (int state = 0; state < total; state++) {
+                newIndex[state] = state < charStateCount ? state
+                        : merged[state] == state ? stateCount++ : -1;
+            }
+            int[] table = new int[stateCount << 8];
+            boolean[] ends = new boolean[stateCount];
+            int[] endOfInput = new int[stateCount];
+            for (int state = 0; state < total; state++) {
+                int index = newIndex[state];
+                if (index < 0) {
+                    continue;
+                }
+                int[] row = rows.get(state);
+                for (int b = 0; b < 256; b++) {
+                    table[(index << 8) | b] = newIndex[merged[row[b]]];
+                }
+                ends[index] = state < charStateCount && dfaTable.isEnd(state);
+                endOfInput[index] = newIndex[merged[flushes[state]]];
+            }
+            return new ByteDFA(table, ends, endOfInput, dfaTable.getStart(), charStateCount);
+        }
+
+        /**
+         * 合并转换表和结束时的状态都相同的中间状态，和死状态相同的中间状态合并到死状态，直到没有可以合并的为止
+         * @return 每个状态合并到的状态
+         */
+        private int[] merge(List<int[]> rows, int[] flushes) {
+            int total = rows.size();
+            int[] merged = new int[total];
+            for (int state = 0; state < total; state++) {
+                merged[state] = state;
+            }
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                Map<RowKey, Integer> seen = new HashMap<>();
+                // 死状态: 所有字节都到达死状态，结束时也是死状态
+                seen.put(new RowKey(new int[257]), DEAD);
+                for (int state = charStateCount; state < total; state++) {
+                    if (merged[state] != state) {
+                        continue;
+                    }
+                    // 最后一个元素是结束时的状态
+                    int[] key = new int[257];
+                    int[] row = rows.get(state);
+                    for (int b = 0; b < 256; b++) {
+                        key[b] = find(merged, row[b]);
+                    }
+                    key[256] = find(merged, flushes[state]);
+                    Integer same = seen.get(new RowKey(key));
+                    if (same == null) {
+                        seen.put(new RowKey(key), state);
+                    } else {
+                        merged[state] = same;
+                        changed = true;
+                    }
+                }
+            }
+            for (int state = 0; state < total; state++) {
+                merged[state] = find(merged, state);
+            }
+            return merged;
+        }
+
+        private static int find(int[] merged, int state) {
+            while (merged[state] != state) {
+                state = merged[state];
+            }
+            return state;
+        }
+
+        /**
+         * 字符 DFA 状态 state 遇到一个字符的第一个字节 b
+         */
+        private int charMove(int state, int b) {
+            if (state == DEAD) {
+                return DEAD;
+            }
+            if (b < 0x80) {
+                return dfaTable.move(state, (char) b);
+            }
+            if (b >= 0xC2 && b <= 0xDF) {
+                return node(state, b & 0x1F, 1, 0x80, 0xBF);
+            }
+            if (b >= 0xE0 && b <= 0xEF) {
+                // E0 后面是 80..9F 时是过长编码
+                return node(state, b & 0x0F, 2, b == 0xE0 ? 0xA0 : 0x80, 0xBF);
+            }
+            if (b >= 0xF0 && b <= 0xF4) {
+                // F0 后面是 80..8F 时是过长编码，F4 后面是 90..BF 时超过了 U+10FFFF
+                return node(state, b & 0x07, 3, b == 0xF0 ? 0x90 : 0x80, b == 0xF4 ? 0x8F : 0xBF);
+            }
+            // 单独的后续字节、C0 C1 F5..FF
+            return dfaTable.move(state, REPLACEMENT);
+        }
+
+        /**
+         * 字符 DFA 状态 state 中已经读取了字符的高位 bits，还需要读取 remaining 个后续字节，下一个字节的范围是 [low, high]。
+         * 所有可能读到的字符都不在正则表达式中、并且到达同一个状态时，只记录这个状态，不记录 bits，
+         * 这样不同的前缀可以共用一个中间状态
+         */
+        private int node(int state, int bits, int remaining, int low, int high) {
+            int shift = 6 * (remaining - 1);
+            int first = (((bits << 6) | (low & 0x3F)) << shift);
+            int last = (((bits << 6) | (high & 0x3F)) << shift) | ((1 << shift) - 1);
+            NodeKey key;
+            if (isUniform(first, last)) {
+                key = new NodeKey(state, true, target(state, first), remaining, low, high);
+            } else {
+                key = new NodeKey(state, false, bits, remaining, low, high);
+            }
+            Integer index = nodeIndex.get(key);
+            if (index == null) {
+                index = charStateCount + nodes.size();
+                nodes.add(key);
+                nodeIndex.put(key, index);
+            }
+            return index;
+        }
+
+        // 中间状态的一行
+        private int[] nodeRow(NodeKey key) {
+            int[] row = new int[256];
+            // 前缀被打断: 已经读取的字节是一个 U+FFFD，b 重新作为一个字符的开始
+            int replaced = dfaTable.move(key.state, REPLACEMENT);
+            for (int b = 0; b < 256; b++) {
+                if (b < key.low || b > key.high) {
+                    row[b] = stopAtEnd && dfaTable.isEnd(replaced) ? replaced : charMove(replaced, b);
+                } else if (key.uniform) {
+                    row[b] = key.remaining == 1 ? key.value
+                            : nodeOf(new NodeKey(key.state, true, key.value, key.remaining - 1, 0x80, 0xBF));
+                } else {
+                    int nextBits = (key.value << 6) | (b & 0x3F);
+                    row[b] = key.remaining == 1 ? target(key.state, nextBits)
+                            : node(key.state, nextBits, key.remaining - 1, 0x80, 0xBF);
+                }
+            }
+            return row;
+        }
+
+        private int nodeOf(NodeKey key) {
+            Integer index = nodeIndex.get(key);
+            if (index == null) {
+                index = charStateCount + nodes.size();
+                nodes.add(key);
+                nodeIndex.put(key, index);
+            }
+            return index;
+        }
+
+        // 读完字符 codePoint 之后到达的字符 DFA 状态，代理字符的编码是一个 U+FFFD
+        private int target(int state, int codePoint) {
+            if (codePoint >= 0x10000) {
+                // 4 字节的字符是两个代理字符，正则表达式中没有代理字符，所以只需要用任意一对代理字符计算
+                return dfaTable.move(dfaTable.move(state, '\uD800'), '\uDC00');
+            }
+            if (Character.isSurrogate((char) codePoint)) {
+                return dfaTable.move(state, REPLACEMENT);
+            }
+            return dfaTable.move(state, (char) codePoint);
+        }
+
+        // [first, last] 中的字符都到达同一个状态: 都不在正则表达式中，并且要么都是代理字符，要么都不是
+        private boolean isUniform(int first, int last) {
+            if (first >= 0x10000) {
+                return true;
+            }
+            if (first <= Character.MAX_SURROGATE && last >= Character.MIN_SURROGATE
+                    && (first < Character.MIN_SURROGATE || last > Character.MAX_SURROGATE)) {
+                return false;
+            }
+            return !hasPatternChar(first, last);
+        }
+
+        // [low, high] 中有没有正则表达式中出现过的字符
+        private boolean hasPatternChar(int low, int high) {
+            int index = Arrays.binarySearch(chars, (char) low);
+            if (index < 0) {
+                index = -(index + 1);
+            }
+            return index < chars.length && chars[index] <= high;
+        }
+    }
+
+    /**
+     * 中间状态: 字符 DFA 状态 state 中读取了一部分字节。
+     * uniform 为 true 时 value 是读完之后到达的字符 DFA 状态，否则 value 是已经读取的字符的高位
+     */
+    private static final class NodeKey {
+        private final int state;
+        private final boolean uniform;
+        private final int value;
+        private final int remaining;
+        private final int low;
+        private final int high;
+
+        private NodeKey(int state, boolean uniform, int value, int remaining, int low, int high) {
+            this.state = state;
+            this.uniform = uniform;
+            this.value = value;
+            this.remaining = remaining;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof NodeKey)) {
+                return false;
+            }
+            NodeKey key = (NodeKey) o;
+            return state == key.state && uniform == key.uniform && value == key.value
+                    && remaining == key.remaining && low == key.low && high == key.high;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(state, uniform, value, remaining, low, high);
+        }
+    }
+
+    // 转换表的一行，用来判断两个中间状态的行为是否相同
+    private static final class RowKey {
+        private final int[] row;
+        private final int hash;
+
+        private RowKey(int[] row) {
+            this.row = row;
+            this.hash = Arrays.hashCode(row);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof RowKey && hash == ((RowKey) o).hash && Arrays.equals(row, ((RowKey) o).row);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * 获取当前状态遇到字节 b 之后的下一个状态
+     * @param state
+     * @param b
+     * @return
+     */
+    public int move(int state, byte b) {
+        return table[(state << 8) | (b & 0xFF)];
+    }
+
+    /**
+     * 从开始状态出发，能否匹配字节数组 bytes 中 [from, to) 的字节
+     * @param bytes
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean isMatch(byte[] bytes, int from, int to) {
+        int state = start;
+        for (int pos = from; pos < to && state != DEAD; pos++) {
+            state = table[(state << 8) | (bytes[pos] & 0xFF)];
+        }
+        return ends[endOfInput[state]];
+    }
+
+    /**
+     * 输入在状态 state 结束: 没有读完的多字节字符当作一个 U+FFFD，返回之后的状态
+     * @param state
+     * @return 字符 DFA 的状态
+     */
+    public int endOfInput(int state) {
+        return endOfInput[state];
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public boolean isEnd(int state) {
+        return ends[state];
+    }
+
+    public int getStateCount() {
+        return ends.length;
+    }
+
+    // 转换表，FileScanner 直接使用，不能修改
+    int[] getTable() {
+        return table;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ByteDFA{");
+        sb.append("start=").append(start);
+        sb.append(", stateCount=").append(ends.length);
+        sb.append(", charStateCount=").append(charStateCount);
+        sb.append('}');
+        return sb.toString();
+    }
+}
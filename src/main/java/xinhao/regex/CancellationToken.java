@@ -0,0 +1,31 @@
+package xinhao.regex;
+
+/**
+ * @author by xinhao  2021/9/3
+ * 取消正在进行的匹配。一个线程调用 cancel() 之后，使用这个令牌的 MatchBudget 的匹配
+ * 会在下一次检查时抛出 MatchBudgetExceededException。取消之后不能恢复，可以被多个线程共享。
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    private CancellationToken() {
+    }
+
+    public static CancellationToken create() {
+        return new CancellationToken();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public String toString() {
+        return "CancellationToken{cancelled=" + cancelled + '}';
+    }
+}
@@ -0,0 +1,123 @@
+package xinhao.regex;
+
+import java.util.Arrays;
+
+/**
+ * @author by xinhao  2021/8/12
+ * 字符到字符类(等价类)的映射表，转换表的列就是字符类，而不是单个字符。
+ * 约定字符类 0 表示 "其他" 字符，即没有在正则表达式中出现过的字符。
+ */
+public final class CharClassMap {
+
+    // 小于 LOW_SIZE 的字符直接查表
+    private static final int LOW_SIZE = 256;
+
+    // 字符 ch < 256 时对应的字符类
+    private final int[] lowClasses;
+    // 大于等于 256 的字符，从小到大排序
+    private final char[] highChars;
+    // highChars[i] 对应的字符类
+    private final int[] highClasses;
+    // 字符类的个数，包括 "其他" 字符类 0
+    private final int classCount;
+    // 所有出现过的字符，从小到大排序，以及对应的字符类
+    private final char[] chars;
+    private final int[] classes;
+
+    private CharClassMap(int[] lowClasses, char[] highChars, int[] highClasses, int classCount,
+                         char[] chars, int[] classes) {
+        this.lowClasses = lowClasses;
+        this.highChars = highChars;
+        this.highClasses = highClasses;
+        this.classCount = classCount;
+        this.chars = chars;
+        this.classes = classes;
+    }
+
+    /**
+     * 通过字符和对应的字符类生成映射表，没有出现在 chars 中的字符都属于字符类 0
+     * @param chars  出现过的字符，不能重复
+     * @param classes  chars[i] 对应的字符类，取值范围 [1, classCount)
+     * @param classCount  字符类的个数
+     * @return
+     */
+    public static CharClassMap create(char[] chars, int[] classes, int classCount) {
+        int[] lowClasses = new int[LOW_SIZE];
+        int highCount = 0;
+        for (char ch : chars) {
+            if (ch >= LOW_SIZE) {
+                highCount++;
+            }
+        }
+        // 先按字符排序，方便之后二分查找
+        long[] sorted = new long[chars.length];
+        for (int i = 0; i < chars.length; i++) {
+            sorted[i] = ((long) chars[i] << 32) | classes[i];
+        }
+        Arrays.sort(sorted);
+        char[] sortedChars = new char[chars.length];
+        int[] sortedClasses = new int[chars.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sortedChars[i] = (char) (sorted[i] >>> 32);
+            sortedClasses[i] = (int) sorted[i];
+            if (sortedChars[i] < LOW_SIZE) {
+                lowClasses[sortedChars[i]] = sortedClasses[i];
+            }
+        }
+        // 大于等于 256 的字符排在最后面
+        int lowCount = chars.length - highCount;
+        char[] highChars = Arrays.copyOfRange(sortedChars, lowCount, chars.length);
+        int[] highClasses = Arrays.copyOfRange(sortedClasses, lowCount, chars.length);
+        return new CharClassMap(lowClasses, highChars, highClasses, classCount, sortedChars, sortedClasses);
+    }
+
+    /**
+     * 合并字符类，得到新的映射表
+     * @param newClasses  newClasses[oldClass] 就是原来的字符类 oldClass 对应的新字符类，newClasses[0] 必须是 0
+     * @param newClassCount  新的字符类个数
+     * @return
+     */
+    public CharClassMap remap(int[] newClasses, int newClassCount) {
+        int[] remapped = new int[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            remapped[i] = newClasses[classes[i]];
+        }
+        return create(chars, remapped, newClassCount);
+    }
+
+    /**
+     * 得到字符 ch 对应的字符类，不会创建任何对象
+     * @param ch
+     * @return
+     */
+    public int classOf(char ch) {
+        if (ch < LOW_SIZE) {
+            return lowClasses[ch];
+        }
+        int index = Arrays.binarySearch(highChars, ch);
+        return index < 0 ? 0 : highClasses[index];
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    // 所有出现过的字符，从小到大排序
+    public char[] getChars() {
+        return chars;
+    }
+
+    // getChars()[i] 对应的字符类
+    public int[] getClasses() {
+        return classes;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("CharClassMap{");
+        sb.append("classCount=").append(classCount);
+        sb.append(", chars=").append(chars.length);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package xinhao.regex;
+
+/**
+ * @author by xinhao  2021/9/1
+ * 由 DFACompiler 把 DFA 转换表生成的 JVM 字节码。子类是运行时生成的，通过单独的类加载器加载，
+ * 所以这个类和构造方法必须是 public 的。
+ * 生成的类没有字段，创建之后不能被修改，可以被多个线程共享。
+ */
+public abstract class CompiledDFA {
+
+    protected CompiledDFA() {
+    }
+
+    /**
+     * 字符数组 chars 中 [from, to) 的字符是否匹配
+     * @param chars
+     * @param from
+     * @param to
+     * @return
+     */
+    public abstract boolean matches(char[] chars, int from, int to);
+
+    /**
+     * 字符序列 input 中 [from, to) 的字符是否匹配，不会复制 input
+     * @param input
+     * @param from
+     * @param to
+     * @return
+     */
+    public abstract boolean matches(CharSequence input, int from, int to);
+
+    /**
+     * 整个输入字符序列是否匹配
+     * @param input
+     * @return
+     */
+    public boolean matches(CharSequence input) {
+        return matches(input, 0, input.length());
+    }
+}
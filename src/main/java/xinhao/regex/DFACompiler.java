@@ -0,0 +1,355 @@
+package xinhao.regex;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author by xinhao  2021/9/1
+ * 把 DFA 转换表生成 JVM 字节码，匹配时不再查表，而是执行专门为这个 DFA 生成的代码:
+ *     state = start;
+ *     for (pos = from; pos < to; pos++) {
+ *         ch = chars[pos];
+ *         switch (state) {
+ *             case 1: if ('a' <= ch && ch <= 'c') { state = 2; continue; } ... return false;
+ *             ...
+ *         }
+ *     }
+ *     return state 是终止状态;
+ * 每个状态的转换是按字符区间比较的常量，不需要访问字符类映射表和转换表，JIT 可以把 state 放在寄存器中。
+ * 只有一个循环，不会生成 JIT 不能优化的不可归约的控制流。
+ * 使用 ASM 生成 class 文件，版本号是 49 (Java 5)，不需要 StackMapTable，
+ * 较新的 JVM 都使用类型推导的验证器验证它。
+ * 每个生成的类使用单独的类加载器，不再使用时可以被垃圾回收。
+ */
+public final class DFACompiler {
+
+    // HotSpot 默认不编译超过 8000 字节的方法 (HugeMethodLimit)，超过时解释执行比查表还慢
+    public static final int MAX_CODE_SIZE = 8000;
+
+    // 一个状态的字符区间不超过这个数时逐个比较，否则二分查找
+    private static final int LINEAR_RANGES = 4;
+
+    private static final String SUPER_CLASS = "xinhao/regex/CompiledDFA";
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    // 生成的方法中局部变量的位置
+    private static final int INPUT = 1;
+    private static final int FROM = 2;
+    private static final int TO = 3;
+    private static final int STATE = 4;
+    private static final int POS = 5;
+    private static final int CH = 6;
+
+    private DFACompiler() {
+    }
+
+    /**
+     * 生成 DFA 转换表对应的类
+     * @param dfaTable
+     * @return 生成的方法太大时返回 null，这时应该直接使用 DFA 转换表
+     */
+    public static CompiledDFA compile(DFATable dfaTable) {
+        String className = "xinhao/regex/GeneratedDFA" + CLASS_COUNTER.incrementAndGet();
+        byte[] bytes = generate(dfaTable, className);
+        if (bytes == null) {
+            return null;
+        }
+        Class<?> clazz = new DFAClassLoader().define(className.replace('/', '.'), bytes);
+        try {
+            return (CompiledDFA) clazz.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("生成的类不能创建: " + className, e);
+        }
+    }
+
+    /**
+     * 生成 class 文件
+     * @param dfaTable
+     * @param className  内部形式的类名，比如 xinhao/regex/GeneratedDFA1
+     * @return 生成的方法超过 MAX_CODE_SIZE 时返回 null
+     */
+    static byte[] generate(DFATable dfaTable, String className) {
+        // 只有 int 局部变量，不需要计算 StackMapTable，只计算操作数栈和局部变量的大小
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+                className, null, SUPER_CLASS, null);
+
+        // 1. 构造方法: super()
+        MethodVisitor init = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, SUPER_CLASS, "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        // 2. 两个 matches 方法只有读取字符的指令不一样
+        List<Range[]> transitions = transitions(dfaTable);
+        int arrayLength = matchesCode(writer, "([CII)Z", dfaTable, transitions, false);
+        int sequenceLength = matchesCode(writer, "(Ljava/lang/CharSequence;II)Z", dfaTable, transitions, true);
+        if (arrayLength > MAX_CODE_SIZE || sequenceLength > MAX_CODE_SIZE) {
+            return null;
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * 一个状态遇到 [low, high] 中的字符时转换到 target
+     */
+    private static final class Range {
+        private final char low;
+        private final char high;
+        private final int target;
+
+        private Range(char low, char high, int target) {
+            this.low = low;
+            this.high = high;
+            this.target = target;
+        }
+    }
+
+    /**
+     * 每个状态的转换，按字符区间表示，从小到大排序。
+     * 最后一个元素是没有出现过的字符 (字符类 0) 的转换，它的区间没有意义；其他区间中不包括转换相同的字符
+     * @param dfaTable
+     * @return
+     */
+    private static List<Range[]> transitions(DFATable dfaTable) {
+        CharClassMap classMap = dfaTable.getClassMap();
+        char[] chars = classMap.getChars();
+        int[] classes = classMap.getClasses();
+        List<Range[]> transitions = new ArrayList<>(dfaTable.getStateCount());
+        transitions.add(null);
+        for (int state = 1; state < dfaTable.getStateCount(); state++) {
+            int other = dfaTable.moveByClass(state, 0);
+            List<Range> ranges = new ArrayList<>();
+            for (int i = 0; i < chars.length; i++) {
+                int target = dfaTable.moveByClass(state, classes[i]);
+                if (target == other) {
+                    continue;
+                }
+                Range last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && last.target == target && last.high + 1 == chars[i]) {
+                    // 相邻的字符转换相同，合并成一个区间
+                    ranges.set(ranges.size() - 1, new Range(last.low, chars[i], target));
+                } else {
+                    ranges.add(new Range(chars[i], chars[i], target));
+                }
+            }
+            ranges.add(new Range((char) 0, (char) 0, other));
+            transitions.add(ranges.toArray(new Range[0]));
+        }
+        return transitions;
+    }
+
+    /**
+     * 生成 matches 方法
+     * @param writer
+     * @param descriptor  方法的描述符
+     * @param dfaTable
+     * @param transitions
+     * @param charSequence  读取 CharSequence 时为 true，读取 char[] 时为 false
+     * @return 方法的字节码长度
+     */
+    private static int matchesCode(ClassWriter writer, String descriptor, DFATable dfaTable,
+                                   List<Range[]> transitions, boolean charSequence) {
+        MethodVisitor code = writer.visitMethod(Opcodes.ACC_PUBLIC, "matches", descriptor, null, null);
+        code.visitCode();
+        int stateCount = dfaTable.getStateCount();
+        Label loop = new Label();
+        Label end = new Label();
+        Label returnTrue = new Label();
+        Label returnFalse = new Label();
+        Label[] stateLabels = new Label[stateCount - 1];
+        Label[] selfLabels = new Label[stateCount];
+        for (int state = 1; state < stateCount; state++) {
+            stateLabels[state - 1] = new Label();
+            selfLabels[state] = new Label();
+        }
+
+        // pos = from; state = start;
+        code.visitVarInsn(Opcodes.ILOAD, FROM);
+        code.visitVarInsn(Opcodes.ISTORE, POS);
+        pushInt(code, dfaTable.getStart());
+        code.visitVarInsn(Opcodes.ISTORE, STATE);
+
+        // while (pos < to) { ch = input[pos++]; switch (state) ... }
+        code.visitLabel(loop);
+        emitNextChar(code, end, charSequence);
+        code.visitVarInsn(Opcodes.ILOAD, STATE);
+        code.visitTableSwitchInsn(1, stateCount - 1, returnFalse, stateLabels);
+
+        // 每个状态的字符区间比较。转换到自己时直接读取下一个字符，不经过 switch，
+        // 这个内层循环只有一个入口，仍然是可归约的
+        for (int state = 1; state < stateCount; state++) {
+            code.visitLabel(selfLabels[state]);
+            emitNextChar(code, end, charSequence);
+            code.visitLabel(stateLabels[state - 1]);
+            Range[] ranges = transitions.get(state);
+            Label other = new Label();
+            emitRanges(code, ranges, 0, ranges.length - 1, state, other, loop, selfLabels[state], returnFalse);
+            code.visitLabel(other);
+            emitMove(code, state, ranges[ranges.length - 1].target, loop, selfLabels[state], returnFalse);
+        }
+
+        // 读完了: 当前状态是不是终止状态
+        code.visitLabel(end);
+        code.visitVarInsn(Opcodes.ILOAD, STATE);
+        Label[] endLabels = new Label[stateCount - 1];
+        for (int state = 1; state < stateCount; state++) {
+            endLabels[state - 1] = dfaTable.isEnd(state) ? returnTrue : returnFalse;
+        }
+        code.visitTableSwitchInsn(1, stateCount - 1, returnFalse, endLabels);
+        code.visitLabel(returnTrue);
+        code.visitInsn(Opcodes.ICONST_1);
+        code.visitInsn(Opcodes.IRETURN);
+        code.visitLabel(returnFalse);
+        code.visitInsn(Opcodes.ICONST_0);
+        code.visitInsn(Opcodes.IRETURN);
+        // 方法结束的位置就是字节码的长度
+        Label codeEnd = new Label();
+        code.visitLabel(codeEnd);
+        code.visitMaxs(0, 0);
+        code.visitEnd();
+        return codeEnd.getOffset();
+    }
+
+    // pos >= to 时跳转到 end，否则 ch = input[pos++]
+    private static void emitNextChar(MethodVisitor code, Label end, boolean charSequence) {
+        code.visitVarInsn(Opcodes.ILOAD, POS);
+        code.visitVarInsn(Opcodes.ILOAD, TO);
+        code.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        code.visitVarInsn(Opcodes.ALOAD, INPUT);
+        code.visitVarInsn(Opcodes.ILOAD, POS);
+        if (charSequence) {
+            code.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/lang/CharSequence", "charAt", "(I)C", true);
+        } else {
+            code.visitInsn(Opcodes.CALOAD);
+        }
+        code.visitVarInsn(Opcodes.ISTORE, CH);
+        code.visitIincInsn(POS, 1);
+    }
+
+    /**
+     * 比较 ranges 中 [from, to) 的区间，区间少时逐个比较，否则二分。都不在这些区间中时跳转到 other
+     */
+    private static void emitRanges(MethodVisitor code, Range[] ranges, int from, int to,
+                                   int state, Label other, Label loop, Label self, Label returnFalse) {
+        if (to - from > LINEAR_RANGES) {
+            // ch < ranges[mid].low 时在左半部分
+            int mid = (from + to) >>> 1;
+            Label left = new Label();
+            code.visitVarInsn(Opcodes.ILOAD, CH);
+            pushInt(code, ranges[mid].low);
+            code.visitJumpInsn(Opcodes.IF_ICMPLT, left);
+            emitRanges(code, ranges, mid, to, state, other, loop, self, returnFalse);
+            code.visitLabel(left);
+            emitRanges(code, ranges, from, mid, state, other, loop, self, returnFalse);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            Range range = ranges[i];
+            Label next = new Label();
+            // 区间是有序的，比这个区间小就不会在后面的区间中
+            code.visitVarInsn(Opcodes.ILOAD, CH);
+            pushInt(code, range.low);
+            if (range.low == range.high) {
+                code.visitJumpInsn(Opcodes.IF_ICMPNE, i + 1 < to ? next : other);
+            } else {
+                code.visitJumpInsn(Opcodes.IF_ICMPLT, other);
+                code.visitVarInsn(Opcodes.ILOAD, CH);
+                pushInt(code, range.high);
+                code.visitJumpInsn(Opcodes.IF_ICMPGT, i + 1 < to ? next : other);
+            }
+            emitMove(code, state, range.target, loop, self, returnFalse);
+            code.visitLabel(next);
+        }
+        code.visitJumpInsn(Opcodes.GOTO, other);
+    }
+
+    // 转换到 target 之后继续循环，死状态直接返回 false，转换到自己时跳转到 self 读取下一个字符
+    private static void emitMove(MethodVisitor code, int state, int target, Label loop, Label self,
+                                 Label returnFalse) {
+        if (target == DFATable.DEAD) {
+            code.visitJumpInsn(Opcodes.GOTO, returnFalse);
+        } else if (target == state) {
+            code.visitJumpInsn(Opcodes.GOTO, self);
+        } else {
+            pushInt(code, target);
+            code.visitVarInsn(Opcodes.ISTORE, STATE);
+            code.visitJumpInsn(Opcodes.GOTO, loop);
+        }
+    }
+
+    // 把 int 常量压栈，选择最短的指令
+    private static void pushInt(MethodVisitor code, int value) {
+        if (value >= -1 && value <= 5) {
+            code.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            code.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            code.visitLdcInsn(value);
+        }
+    }
+
+    /**
+     * 每个生成的类使用单独的类加载器，类不再使用时可以和类加载器一起被回收
+     */
+    private static final class DFAClassLoader extends ClassLoader {
+
+        private DFAClassLoader() {
+            super(CompiledDFA.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] patterns = {"a(b|c)*d", "(a|b)*a(a|b)(a|b)(a|b)(a|b)",
+                "(a|b|c|d|e|f|g|h|i|j|k|l|m|n|o|p|q|r|s|t|u|v|w|x|y|z)(a|b|c|d|e|f|g|h|i|j|k|l|m|n|o|p|q|r|s|t|u|v|w|x|y|z|0|1|2|3|4|5|6|7|8|9)*"};
+        Random random = new Random(1);
+        for (String pattern : patterns) {
+            DFATable dfaTable = Pattern.compile(pattern).getDFATable();
+            CompiledDFA compiled = compile(dfaTable);
+            // 能匹配的输入，整个输入都要读取
+            char[] text = new char[1 << 20];
+            String alphabet = pattern.startsWith("a(") ? "bc" : pattern.startsWith("(a|b)*") ? "ab" : "abcxyz019";
+            text[0] = 'a';
+            for (int i = 1; i < text.length; i++) {
+                text[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+            }
+            text[text.length - 1] = pattern.startsWith("a(") ? 'd' : 'a';
+            System.out.println(pattern + " " + dfaTable + ", 生成的类: " + (compiled == null ? "太大" : "有"));
+            if (compiled == null) {
+                continue;
+            }
+            for (int round = 0; round < 5; round++) {
+                long begin = System.nanoTime();
+                boolean tableMatch = false;
+                for (int k = 0; k < 10; k++) {
+                    tableMatch = dfaTable.isMatch(text, 0, text.length);
+                }
+                long tableTime = System.nanoTime() - begin;
+                begin = System.nanoTime();
+                boolean compiledMatch = false;
+                for (int k = 0; k < 10; k++) {
+                    compiledMatch = compiled.matches(text, 0, text.length);
+                }
+                long compiledTime = System.nanoTime() - begin;
+                System.out.println("\t转换表: " + tableTime / 10 / text.length + "." + tableTime / text.length % 10
+                        + " ns/字符 " + tableMatch + ", 字节码: " + compiledTime / 10 / text.length + "."
+                        + compiledTime / text.length % 10 + " ns/字符 " + compiledMatch);
+            }
+        }
+    }
+}
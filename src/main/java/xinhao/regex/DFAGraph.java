@@ -7,20 +7,23 @@ import java.util.Map;
  * @author by xinhao  2021/8/8
  */
 public class DFAGraph {
-    public static final String[] PATHS = {"0","1","2","3","4","5","6","7","8","9",".","a", "b", "c"};
 
-    public static final Map<String, DFAState> EMPTY = new HashMap<>();
     // DFA 开始状态节点
     private DFAState start;
-    // DFA 对应的转换表。采用 Map<DFAState, Map<String, DFAState>> 表明它是一个二维数组，可以转换成 DFAState[][] 的格式
-    private Map<DFAState, Map<String, DFAState>> stateTable;
+    // 字符到字符类的映射，由正则表达式中出现过的字符决定，没有出现过的字符都属于字符类 0
+    private CharClassMap classMap;
+    // DFA 对应的转换表。每个 DFA 状态对应一行，行中第 i 个元素就是遇到字符类 i 中的字符得到的下一个状态
+    private Map<DFAState, DFAState[]> stateTable;
+    // 编译之后的转换表，转换表有变化时需要重新生成
+    private DFATable dfaTable;
 
     public DFAGraph(DFAState start) {
         this.start = start;
     }
 
-    public static DFAGraph create(DFAState start) {
+    public static DFAGraph create(DFAState start, CharClassMap classMap) {
         DFAGraph dfaGraph = new DFAGraph(start);
+        dfaGraph.classMap = classMap;
         dfaGraph.stateTable = new HashMap<>();
         return dfaGraph;
     }
@@ -28,33 +31,69 @@ public class DFAGraph {
     /**
      * 向转换表中添加数据
      * @param currentState
-     * @param path
+     * @param charClass  字符类
      * @param state
      */
-    public void addStateTable(DFAState currentState, String path, DFAState state) {
-        Map<String, DFAState> pathMap = stateTable.get(currentState);
-        if (pathMap == null) {
-            pathMap = new HashMap<>();
-            stateTable.put(currentState, pathMap);
+    public void addStateTable(DFAState currentState, int charClass, DFAState state) {
+        DFAState[] classStates = stateTable.get(currentState);
+        if (classStates == null) {
+            classStates = new DFAState[classMap.getClassCount()];
+            stateTable.put(currentState, classStates);
         }
-        pathMap.put(path, state);
+        classStates[charClass] = state;
+        dfaTable = null;
     }
 
     /**
-     * 获取对应的下一个状态节点
+     * 获取对应的下一个状态节点，任何输入字符都有对应的字符类
      * @param currentState
      * @param path
      * @return
      */
-    public DFAState getStateByMove(DFAState currentState, String path) {
-        return stateTable.getOrDefault(currentState, EMPTY).get(path);
+    public DFAState getStateByMove(DFAState currentState, char path) {
+        return getStateByClass(currentState, classMap.classOf(path));
+    }
+
+    /**
+     * 获取遇到字符类 charClass 中的字符之后的下一个状态节点
+     * @param currentState
+     * @param charClass
+     * @return
+     */
+    public DFAState getStateByClass(DFAState currentState, int charClass) {
+        DFAState[] classStates = stateTable.get(currentState);
+        return classStates == null ? null : classStates[charClass];
+    }
+
+    /**
+     * 得到编译之后的 DFA 转换表，只在第一次调用时生成
+     * @return
+     */
+    public DFATable toTable() {
+        if (dfaTable == null) {
+            dfaTable = DFATable.create(this);
+        }
+        return dfaTable;
+    }
+
+    // DFA 状态的个数
+    public int getStateCount() {
+        return stateTable.size();
+    }
+
+    public CharClassMap getClassMap() {
+        return classMap;
+    }
+
+    public int getClassCount() {
+        return classMap.getClassCount();
     }
 
     public DFAState getStart() {
         return start;
     }
 
-    public Map<DFAState, Map<String, DFAState>> getStateTable() {
+    public Map<DFAState, DFAState[]> getStateTable() {
         return stateTable;
     }
 
@@ -62,7 +101,7 @@ public class DFAGraph {
     public String toString() {
         final StringBuilder sb = new StringBuilder("DFAGraph{");
         sb.append("start=").append(start);
-        sb.append(", stateTable=").append(stateTable);
+        sb.append(", stateCount=").append(stateTable.size());
         sb.append('}');
         return sb.toString();
     }
@@ -0,0 +1,212 @@
+package xinhao.regex;
+
+import java.util.*;
+
+/**
+ * @author by xinhao  2021/8/16
+ * DFA 最小化，采用 Hopcroft 划分细化算法。
+ * 先把状态分成 终止状态 和 非终止状态 两组，然后不断用某一组作为分割者，
+ * 把 "遇到同一个输入字符后，一部分进入分割者、一部分不进入" 的组拆开，直到不能再拆为止。
+ * 最后同一组的状态是等价的，合并成最小 DFA 中的一个状态。
+ */
+public class DFAMinimizer {
+
+    /**
+     * 得到和 dfaGraph 等价的最小 DFA
+     * @param dfaGraph
+     * @return
+     */
+    public static DFAGraph minimize(DFAGraph dfaGraph) {
+        // 1. 给 DFA 状态编号，得到转换表 delta[state][path]，path 是字符类
+        Map<DFAState, Integer> indexMap = new HashMap<>();
+        List<DFAState> states = new ArrayList<>();
+        Queue<DFAState> queue = new LinkedList<>();
+        indexMap.put(dfaGraph.getStart(), 0);
+        states.add(dfaGraph.getStart());
+        queue.add(dfaGraph.getStart());
+        int pathCount = dfaGraph.getClassCount();
+        List<int[]> deltaList = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            DFAState state = queue.poll();
+            int[] row = new int[pathCount];
+            for (int i = 0; i < pathCount; i++) {
+                DFAState nextState = dfaGraph.getStateByClass(state, i);
+                Integer index = indexMap.get(nextState);
+                if (index == null) {
+                    index = states.size();
+                    indexMap.put(nextState, index);
+                    states.add(nextState);
+                    queue.add(nextState);
+                }
+                row[i] = index;
+            }
+            deltaList.add(row);
+        }
+        int n = states.size();
+        int[][] delta = deltaList.toArray(new int[n][]);
+
+        // 2. 反向转换表，predecessors[path] 中 [predStart[path][t], predStart[path][t + 1]) 是遇到 path 进入 t 的状态
+        int[][] predStart = new int[pathCount][n + 1];
+        int[][] predecessors = new int[pathCount][n];
+        for (int path = 0; path < pathCount; path++) {
+            for (int state = 0; state < n; state++) {
+                predStart[path][delta[state][path] + 1]++;
+            }
+            for (int state = 0; state < n; state++) {
+                predStart[path][state + 1] += predStart[path][state];
+            }
+            int[] fill = Arrays.copyOf(predStart[path], n);
+            for (int state = 0; state < n; state++) {
+                predecessors[path][fill[delta[state][path]]++] = state;
+            }
+        }
+
+        // 3. 初始划分: 终止状态和非终止状态；多个正则表达式合并的 DFA 中，匹配的正则表达式编号不同的终止状态也要分开
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int state = 0; state < n; state++) {
+            DFAState dfaState = states.get(state);
+            String groupKey = dfaState.isEnd() + Arrays.toString(dfaState.getMatchIds());
+            List<Integer> group = groups.get(groupKey);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(groupKey, group);
+            }
+            group.add(state);
+        }
+        Partition partition = new Partition(n);
+        Deque<Integer> workList = new ArrayDeque<>();
+        // 第一组留在原来的组中，其他组依次拆分出来。只有一组时不会拆分，workList 为空，已经是最小的了
+        boolean first = true;
+        for (List<Integer> group : groups.values()) {
+            if (first) {
+                first = false;
+                continue;
+            }
+            for (int state : group) {
+                partition.mark(state);
+            }
+            partition.split(workList);
+        }
+
+        // 4. 不断用分割者细化划分
+        while (!workList.isEmpty()) {
+            int splitter = workList.poll();
+            int[] members = partition.members(splitter);
+            for (int path = 0; path < pathCount; path++) {
+                for (int target : members) {
+                    for (int i = predStart[path][target]; i < predStart[path][target + 1]; i++) {
+                        partition.mark(predecessors[path][i]);
+                    }
+                }
+                partition.split(workList);
+            }
+        }
+
+        // 5. 每一组生成一个 DFA 状态。选一个代表状态，死状态所在的组就用死状态做代表，保证死状态仍然是死状态
+        DFAState[] blockStates = new DFAState[partition.blockCount];
+        for (int state = 0; state < n; state++) {
+            int block = partition.blockOf[state];
+            DFAState dfaState = states.get(state);
+            if (blockStates[block] == null || dfaState.getNFAStateSet().isEmpty()) {
+                blockStates[block] = dfaState;
+            }
+        }
+        DFAGraph minGraph = DFAGraph.create(blockStates[partition.blockOf[0]], dfaGraph.getClassMap());
+        for (int block = 0; block < partition.blockCount; block++) {
+            int state = partition.members(block)[0];
+            for (int path = 0; path < pathCount; path++) {
+                minGraph.addStateTable(blockStates[block], path,
+                        blockStates[partition.blockOf[delta[state][path]]]);
+            }
+        }
+        return minGraph;
+    }
+
+    /**
+     * 可细化的划分。每一组的状态在 elements 中是连续的一段 [first[block], end[block])，
+     * 被标记的状态移动到这一段的前面 [first[block], mid[block])。
+     */
+    private static final class Partition {
+        private final int[] elements;
+        private final int[] location;
+        private final int[] blockOf;
+        private final int[] first;
+        private final int[] end;
+        private final int[] mid;
+        private int blockCount;
+        // 有状态被标记的组
+        private final int[] touched;
+        private int touchedCount;
+
+        private Partition(int n) {
+            elements = new int[n];
+            location = new int[n];
+            blockOf = new int[n];
+            first = new int[n];
+            end = new int[n];
+            mid = new int[n];
+            touched = new int[n];
+            for (int i = 0; i < n; i++) {
+                elements[i] = i;
+                location[i] = i;
+            }
+            end[0] = n;
+            blockCount = 1;
+        }
+
+        private void mark(int state) {
+            int block = blockOf[state];
+            int i = location[state];
+            int j = mid[block];
+            // 已经标记过了
+            if (i < j) {
+                return;
+            }
+            if (j == first[block]) {
+                touched[touchedCount++] = block;
+            }
+            // 交换到标记区域的末尾
+            elements[i] = elements[j];
+            location[elements[i]] = i;
+            elements[j] = state;
+            location[state] = j;
+            mid[block]++;
+        }
+
+        /**
+         * 把有标记的组拆成 标记的 和 没标记的 两组，新的一组总是较小的那一组，并加入 workList
+         */
+        private void split(Deque<Integer> workList) {
+            for (int t = 0; t < touchedCount; t++) {
+                int block = touched[t];
+                if (mid[block] == end[block]) {
+                    // 全部被标记，不需要拆分
+                    mid[block] = first[block];
+                    continue;
+                }
+                int newBlock = blockCount++;
+                if (mid[block] - first[block] <= end[block] - mid[block]) {
+                    first[newBlock] = first[block];
+                    end[newBlock] = mid[block];
+                    first[block] = mid[block];
+                } else {
+                    first[newBlock] = mid[block];
+                    end[newBlock] = end[block];
+                    end[block] = mid[block];
+                }
+                mid[block] = first[block];
+                mid[newBlock] = first[newBlock];
+                for (int i = first[newBlock]; i < end[newBlock]; i++) {
+                    blockOf[elements[i]] = newBlock;
+                }
+                // 原来的组在 workList 中时，两组都要在 workList 中；否则只需要加入较小的一组
+                workList.add(newBlock);
+            }
+            touchedCount = 0;
+        }
+
+        private int[] members(int block) {
+            return Arrays.copyOfRange(elements, first[block], end[block]);
+        }
+    }
+}
@@ -1,29 +1,23 @@
 package xinhao.regex;
 
-import java.util.HashSet;
-import java.util.Set;
-import java.util.Stack;
+import java.util.*;
 
 /**
  * @author by xinhao  2021/8/10
  */
 public class DFARegexUtil {
 
-    public static final Set<NFAState> EMPTY = new HashSet<>();
-
     /**
      * 得到 DFA 状态节点 经过 path 后得到的所有 NFA 状态节点集合。
      * @param tState
      * @param path
      * @return
      */
-    public static Set<NFAState> edge(DFAState tState, String path) {
+    public static Set<NFAState> edge(DFAState tState, char path) {
         Set<NFAState> resultSet = new HashSet<>();
         // 当前 DFA 状态对应的 NFA 状态集合
         for (NFAState state : tState.getNFAStateSet()) {
-            if (state.getEdges().containsKey(path)) {
-                resultSet.addAll(state.getEdges().get(path));
-            }
+            Collections.addAll(resultSet, state.getStatesByPath(path));
         }
         return resultSet;
     }
@@ -51,8 +45,7 @@ public class DFARegexUtil {
         while (!stack.isEmpty()) {
             NFAState state = stack.pop();
             // 得到状态 state 对应的空边 状态集合
-            Set<NFAState> epsilonSet = state.getEdges().getOrDefault(NFAState.EPSILON, EMPTY);
-            for (NFAState epsilonState : epsilonSet) {
+            for (NFAState epsilonState : state.getEpsilonStates()) {
                 // 如果不存在，就是新发现的状态，添加到 closureSet 和 stack 中
                 if (!closureSet.contains(epsilonState)) {
                     closureSet.add(epsilonState);
@@ -64,68 +57,169 @@ public class DFARegexUtil {
     }
 
     /**
-     * 从 dfaStates 集合中寻找一个未标记的 DFA 状态节点
-     * @param dfaStates
+     * NFA 转换成 DFA，也就是子集构造法。
+     * 输入字符不是固定的，而是按照正则表达式中出现过的字符划分的字符类，没有出现过的字符都属于字符类 0，
+     * 所以 DFA 的大小只和正则表达式有关，而和字符集的大小无关，任何输入字符都能安全地匹配。
+     * 新生成的 DFA 状态放到工作队列中，每次从队列中取出一个状态处理，不需要扫描所有 DFA 状态寻找未标记的状态；
+     * NFA 状态集合用排序之后的状态编号 StateSetKey 表示，判断集合是否已经存在只需要一次 HashMap 查找。
+     * @param nfaGraph
      * @return
      */
-    public static DFAState getNoTagState(Set<DFAState> dfaStates) {
-        for (DFAState state : dfaStates) {
-            if (!state.isTag()) {
-                return state;
-            }
-        }
-        return null;
+    public static DFAGraph NFAToDFA(NFAGraph nfaGraph) {
+        return NFAToDFA(NFATable.create(nfaGraph));
     }
 
     /**
-     * NFA 转换成 DFA
-     * @param nfaGraph
+     * NFA 转换表转换成 DFA
+     * @param nfaTable
      * @return
      */
-    public static DFAGraph NFAToDFA(NFAGraph nfaGraph) {
+    public static DFAGraph NFAToDFA(NFATable nfaTable) {
+        return NFAToDFA(nfaTable, false);
+    }
+
+    /**
+     * NFA 转换表转换成 DFA。
+     * unanchored 为 true 时，开始状态的 ε-closure 会加入到每一个 DFA 状态中，相当于在正则表达式前面加上 .*，
+     * 得到的 DFA 从任何位置开始的匹配都能识别，用来在一段文本中查找匹配。
+     * @param nfaTable
+     * @param unanchored
+     * @return
+     */
+    public static DFAGraph NFAToDFA(NFATable nfaTable, boolean unanchored) {
+        CharClassMap classMap = nfaTable.getClassMap();
+        SparseSet set = new SparseSet(nfaTable.getStateCount());
+        int[] stack = new int[nfaTable.getStateCount()];
 
         // 创建开始的 DFA 状态
-        DFAState startDFAState = DFAState.create(closure(nfaGraph.getStartState()));
+        nfaTable.closure(set, nfaTable.getStart(), stack);
+        StateSetKey startKey = StateSetKey.create(set);
+        DFAState startDFAState = DFAState.create(nfaTable, startKey);
         // 创建 DFAGraph 图
-        DFAGraph dfaGraph = DFAGraph.create(startDFAState);
-        // 这个集合记录所有生成的 DFA 状态节点
-        Set<DFAState> dfaStates = new HashSet<>();
-        // 将开始状态节点添加到 dfaStates 中
-        dfaStates.add(startDFAState);
-
-        DFAState TState;
-        // 从 dfaStates 集合中寻找一个未标记的 DFA 状态节点
-        while ((TState = getNoTagState(dfaStates)) != null) {
-            // 进行标记，防止重复遍历
-            TState.setTag(true);
-
-            // 遍历输入字符
-            for (String path : DFAGraph.PATHS) {
-                // 创建新的 DFA 状态节点
-                DFAState UState = DFAState.create(closure(edge(TState, path)));
-                // 不包含就添加
-                if (!dfaStates.contains(UState)) {
-                    dfaStates.add(UState);
+        DFAGraph dfaGraph = DFAGraph.create(startDFAState, classMap);
+        // 这个 Map 记录所有生成的 DFA 状态节点
+        Map<StateSetKey, DFAState> dfaStates = new HashMap<>();
+        dfaStates.put(startKey, startDFAState);
+        // 还没有处理的 DFA 状态节点
+        Deque<StateSetKey> workList = new ArrayDeque<>();
+        workList.add(startKey);
+
+        StateSetKey TKey;
+        while ((TKey = workList.poll()) != null) {
+            DFAState TState = dfaStates.get(TKey);
+            // 遍历字符类，同一个字符类中的字符得到的状态是一样的
+            for (int charClass = 0; charClass < classMap.getClassCount(); charClass++) {
+                // 得到 closure(edge(T, charClass))
+                set.clear();
+                nfaTable.move(TKey.getStates(), charClass, set, stack);
+                if (unanchored) {
+                    // 每一个位置都可能是匹配的开始位置
+                    nfaTable.closure(set, nfaTable.getStart(), stack);
+                }
+                StateSetKey UKey = StateSetKey.create(set);
+                DFAState UState = dfaStates.get(UKey);
+                // 不包含就添加，并放到工作队列中
+                if (UState == null) {
+                    UState = DFAState.create(nfaTable, UKey);
+                    dfaStates.put(UKey, UState);
+                    workList.add(UKey);
                 }
                 // 添加转换表
-                dfaGraph.addStateTable(TState, path, UState);
+                dfaGraph.addStateTable(TState, charClass, UState);
             }
+        }
+        return dfaGraph;
+    }
 
+    /**
+     * NFA 转换表转换成查找最靠左的匹配使用的 DFA。
+     * 和 unanchored 的 DFA 一样，开始时每一个位置都可能是匹配的开始位置；但是到达终止状态 (已经有匹配结束) 之后，
+     * 之后的位置就不再作为开始位置，只继续运行已经开始的那些匹配，它们都结束之后到达死状态。
+     * 所以从 from 开始运行，最后一次到达终止状态的位置，不小于最靠左的开始位置上最长的匹配的结束位置。
+     * 不再添加开始位置的 DFA 状态用一个额外的 NFA 状态编号 (nfaTable.getStateCount()) 标记，
+     * 和 NFA 状态集合相同、但是还会添加开始位置的状态区分开。
+     * @param nfaTable
+     * @return
+     */
+    public static DFAGraph NFAToLeftmostDFA(NFATable nfaTable) {
+        CharClassMap classMap = nfaTable.getClassMap();
+        final int stopped = nfaTable.getStateCount();
+        SparseSet set = new SparseSet(stopped + 1);
+        int[] stack = new int[stopped];
+        // 标记状态对应的 NFA 状态，它不是终止状态，也没有任何有向边
+        NFAState stoppedState = NFAState.create();
+
+        nfaTable.closure(set, nfaTable.getStart(), stack);
+        StateSetKey startKey = StateSetKey.create(set);
+        DFAState startDFAState = DFAState.create(nfaTable, startKey);
+        DFAGraph dfaGraph = DFAGraph.create(startDFAState, classMap);
+        Map<StateSetKey, DFAState> dfaStates = new HashMap<>();
+        dfaStates.put(startKey, startDFAState);
+        Deque<StateSetKey> workList = new ArrayDeque<>();
+        workList.add(startKey);
+
+        StateSetKey TKey;
+        while ((TKey = workList.poll()) != null) {
+            DFAState TState = dfaStates.get(TKey);
+            int[] states = TKey.getStates();
+            // 排序之后标记一定在最后
+            boolean isStopped = states.length > 0 && states[states.length - 1] == stopped;
+            if (isStopped) {
+                states = Arrays.copyOf(states, states.length - 1);
+            }
+            // 已经有匹配结束，之后不再添加开始位置
+            isStopped |= TState.isEnd();
+            for (int charClass = 0; charClass < classMap.getClassCount(); charClass++) {
+                set.clear();
+                nfaTable.move(states, charClass, set, stack);
+                if (!isStopped) {
+                    nfaTable.closure(set, nfaTable.getStart(), stack);
+                } else if (!set.isEmpty()) {
+                    set.add(stopped);
+                }
+                StateSetKey UKey = StateSetKey.create(set);
+                DFAState UState = dfaStates.get(UKey);
+                if (UState == null) {
+                    Set<NFAState> stateSet = new HashSet<>();
+                    for (int state : UKey.getStates()) {
+                        stateSet.add(state == stopped ? stoppedState : nfaTable.getState(state));
+                    }
+                    UState = DFAState.create(stateSet);
+                    dfaStates.put(UKey, UState);
+                    workList.add(UKey);
+                }
+                dfaGraph.addStateTable(TState, charClass, UState);
+            }
         }
         return dfaGraph;
     }
 
+    /**
+     * NFA 转换成惰性 DFA，不进行子集构造，匹配时才计算用到的 DFA 状态。
+     * 适合只使用一次的正则表达式，或者完整的 DFA 状态数太多的正则表达式。
+     * @param nfaGraph
+     * @return
+     */
+    public static LazyDFA NFAToLazyDFA(NFAGraph nfaGraph) {
+        return LazyDFA.create(NFATable.create(nfaGraph));
+    }
+
+    public static boolean isMatch(LazyDFA lazyDFA, String regex) {
+        return lazyDFA.isMatch(regex);
+    }
 
+    /**
+     * 使用编译之后的 DFA 转换表进行匹配，每个输入字符只需要一次数组下标访问
+     * @param dfaGraph
+     * @param regex
+     * @return
+     */
     public static boolean isMatch(DFAGraph dfaGraph, String regex) {
-        char[] chars = regex.toCharArray();
-        int pos = 0;
-        DFAState dfaState = dfaGraph.getStart();
-        while (pos < chars.length) {
-            String path = "" + chars[pos++];
-            // 从转换表中获取当前状态 dfaState 遇到字符 path，得到下一个状态 dfaState
-            dfaState = dfaGraph.getStateByMove(dfaState, path);
-        }
-        return dfaState.isEnd();
+        return isMatch(dfaGraph.toTable(), regex);
+    }
+
+    public static boolean isMatch(DFATable dfaTable, String regex) {
+        return dfaTable.isMatch(regex);
     }
     
     public static void main(String[] args) {
@@ -135,9 +229,50 @@ public class DFARegexUtil {
         nfaGraph.getEndState().setEnd(true);
 
         DFAGraph dfaGraph = NFAToDFA(nfaGraph);
+        // 最小化之后的 DFA 和原来的 DFA 是等价的
+        DFAGraph minGraph = DFAMinimizer.minimize(dfaGraph);
+        System.out.println("minimize: " + dfaGraph.getStateCount() + " -> " + minGraph.getStateCount() + " states");
+        dfaGraph = minGraph;
 
         String regex = "abbccb";
         boolean isMatch = isMatch(dfaGraph, regex);
         System.out.println("isMatch(" + regex + "):" + isMatch);
+
+        Matcher matcher = Matcher.create(dfaGraph);
+        System.out.println(matcher.getDFATable());
+        System.out.println("matches(abx):" + matcher.matches("abx"));
+        System.out.println("matches(a中文):" + matcher.matches("a中文"));
+
+        LazyDFA lazyDFA = NFAToLazyDFA(nfaGraph);
+        System.out.println("lazy isMatch(" + regex + "):" + isMatch(lazyDFA, regex));
+        System.out.println(lazyDFA);
+
+        // 编译之后的 Pattern 可以被多个线程共享，每个线程使用自己的 Matcher
+        Pattern compiled = Pattern.compile(pattern);
+        Pattern lazyCompiled = Pattern.compile(pattern, Pattern.LAZY_DFA);
+        System.out.println("Pattern matches(" + regex + "):" + compiled.matches(regex)
+                + ", lazy:" + lazyCompiled.matcher().matches(regex));
+
+        // 在文本中查找所有匹配
+        Pattern searchPattern = Pattern.compile("a(b|c)*d");
+        String text = "xxabcdyyadzzabd";
+        for (Iterator<MatchRange> it = searchPattern.findAll(text); it.hasNext(); ) {
+            MatchRange range = it.next();
+            System.out.println("find " + range + ":" + range.group(text));
+        }
+
+        // 子集构造的耗时: (a|b)*a(a|b){n} 的 DFA 状态数是 2^(n+1) 级别的
+        StringBuilder builder = new StringBuilder("(a|b)*a");
+        for (int n = 0; n < 12; n++) {
+            builder.append("(a|b)");
+            if (n == 7 || n == 9 || n == 11) {
+                NFAGraph graph = NFARegexUtil.createNFAGraph(builder.toString());
+                graph.getEndState().setEnd(true);
+                long startTime = System.nanoTime();
+                DFAGraph graphDFA = NFAToDFA(graph);
+                long costTime = System.nanoTime() - startTime;
+                System.out.println("NFAToDFA " + graphDFA.getStateCount() + " states: " + costTime / 1000000.0 + "ms");
+            }
+        }
     }
 }
@@ -0,0 +1,195 @@
+package xinhao.regex;
+
+import java.util.Iterator;
+
+/**
+ * @author by xinhao  2021/8/20
+ * 在一段文本中查找匹配，不需要在每个位置都重新调用 isMatch。
+ * 和 POSIX 一样，开始位置最靠左的匹配优先，开始位置相同时最长的匹配优先 (java.util.regex 找到的开始位置和这里一样，
+ * 但是它的结束位置取决于分支的顺序，比如 a|ab 在 ab 中只匹配 a)。使用这些 DFA 转换表:
+ * 1. 最靠左的前向 DFA: 从 from 向后读取，在第一次到达终止状态之前每个位置都可能是匹配的开始位置，之后不再添加开始位置，
+ *    只继续运行已经开始的匹配，最后一次到达终止状态的位置 e 不小于最靠左的匹配的结束位置；
+ * 2. 反向查找 DFA: 反向 NFA 前面加上 .*，从 e 向前读取，最靠前的终止位置就是结束位置不超过 e 的匹配中最靠左的开始位置 s；
+ * 3. 原来的 DFA: 从 s 向后读取，得到从 s 开始的最长匹配。
+ * 另外还有相当于在正则表达式前面加上 .* 的前向 DFA 和反向 NFA 得到的反向 DFA，
+ * 分别用来判断一行中有没有匹配 (FileScanner)、确认某个位置是不是匹配的结束位置。
+ * 运行 DFA 之前先用 LiteralPrefilter 查找必须出现的字面量，跳过不可能有匹配的字符。
+ * 创建之后不能被修改，可以被多个线程共享。
+ */
+public final class DFASearcher {
+
+    // 前向 DFA，开始状态的 ε-closure 加入到每个状态中
+    private final DFATable forwardTable;
+    // 反向 DFA
+    private final DFATable reverseTable;
+    // 最靠左的前向 DFA，第一次到达终止状态之后不再添加开始位置
+    private final DFATable leftmostTable;
+    // 反向查找 DFA，反向 NFA 的开始状态的 ε-closure 加入到每个状态中
+    private final DFATable reverseSearchTable;
+    // 原来的 DFA
+    private final DFATable dfaTable;
+    // 字面量预过滤
+    private final LiteralPrefilter prefilter;
+
+    private DFASearcher(DFATable forwardTable, DFATable reverseTable, DFATable leftmostTable,
+                        DFATable reverseSearchTable, DFATable dfaTable) {
+        this.forwardTable = forwardTable;
+        this.reverseTable = reverseTable;
+        this.leftmostTable = leftmostTable;
+        this.reverseSearchTable = reverseSearchTable;
+        this.dfaTable = dfaTable;
+        this.prefilter = LiteralPrefilter.create(dfaTable, reverseTable);
+    }
+
+    /**
+     * 通过 NFA 转换表创建
+     * @param nfaTable
+     * @param dfaTable  已经编译好的 DFA 转换表，为 null 时重新生成
+     * @return
+     */
+    public static DFASearcher create(NFATable nfaTable, DFATable dfaTable) {
+        DFATable forwardTable = DFAMinimizer.minimize(DFARegexUtil.NFAToDFA(nfaTable, true)).toTable();
+        NFATable reverseNFATable = nfaTable.reverse();
+        DFATable reverseTable = DFAMinimizer.minimize(DFARegexUtil.NFAToDFA(reverseNFATable)).toTable();
+        DFATable leftmostTable = DFAMinimizer.minimize(DFARegexUtil.NFAToLeftmostDFA(nfaTable)).toTable();
+        DFATable reverseSearchTable = DFAMinimizer.minimize(DFARegexUtil.NFAToDFA(reverseNFATable, true)).toTable();
+        if (dfaTable == null) {
+            dfaTable = DFAMinimizer.minimize(DFARegexUtil.NFAToDFA(nfaTable)).toTable();
+        }
+        return new DFASearcher(forwardTable, reverseTable, leftmostTable, reverseSearchTable, dfaTable);
+    }
+
+    /**
+     * 通过已经生成好的 DFA 转换表创建，用于加载序列化的正则表达式
+     * @param forwardTable
+     * @param reverseTable
+     * @param leftmostTable
+     * @param reverseSearchTable
+     * @param dfaTable
+     * @return
+     */
+    static DFASearcher create(DFATable forwardTable, DFATable reverseTable, DFATable leftmostTable,
+                              DFATable reverseSearchTable, DFATable dfaTable) {
+        return new DFASearcher(forwardTable, reverseTable, leftmostTable, reverseSearchTable, dfaTable);
+    }
+
+    /**
+     * 从位置 from 开始查找第一个匹配。
+     * 开始位置最靠左的匹配优先；确定开始位置之后尽量匹配更多的字符
+     * @param input
+     * @param from
+     * @return 没有找到返回 null
+     */
+    public MatchRange find(CharSequence input, int from) {
+        if (from < 0 || from > input.length()) {
+            throw new IndexOutOfBoundsException("from: " + from + ", length: " + input.length());
+        }
+        // 0. 跳过不可能是匹配开始位置的字符
+        from = prefilter.skipTo(input, from);
+        if (from < 0) {
+            return null;
+        }
+        // 1. 最靠左的匹配的结束位置的上限
+        int end = leftmostTable.lastEnd(input, from);
+        if (end < 0) {
+            return null;
+        }
+        // 2. 结束位置不超过 end 的匹配中最靠左的开始位置
+        int start = reverseSearchTable.lastStartReverse(input, end, from);
+        if (start < 0) {
+            throw new IllegalStateException("前向 DFA 和反向 DFA 不一致");
+        }
+        // 3. 从 start 开始的最长匹配
+        return MatchRange.create(start, dfaTable.lastEnd(input, start));
+    }
+
+    /**
+     * 查找之后把经过的字符数和找到的匹配个数报告给监听器
+     * @param input
+     * @param from
+     * @param pattern  报告使用的正则表达式
+     * @param listener  为 null 时不报告
+     * @return
+     */
+    MatchRange find(CharSequence input, int from, String pattern, MatchListener listener) {
+        MatchRange range = find(input, from);
+        if (listener != null) {
+            report(listener, pattern, input, from, range);
+        }
+        return range;
+    }
+
+    // 报告一次查找经过的字符数和找到的匹配个数
+    static void report(MatchListener listener, String pattern, CharSequence input, int from, MatchRange range) {
+        listener.searched(pattern, (range != null ? range.getEnd() : input.length()) - from, range != null ? 1 : 0);
+    }
+
+    /**
+     * 已经知道 end 是一个匹配的结束位置，找到以 end 结束、开始位置不小于 from 的最靠前的开始位置，
+     * 再从开始位置尽量向后匹配
+     * @param input
+     * @param from
+     * @param end
+     * @return 没有开始位置不小于 from 的匹配返回 null
+     */
+    public MatchRange matchEndingAt(CharSequence input, int from, int end) {
+        // 2. 以 end 结束的匹配中最靠前的开始位置
+        int start = reverseTable.lastStartReverse(input, end, from);
+        if (start < 0) {
+            return null;
+        }
+        // 3. 从 start 开始的最长匹配，至少能到达 end
+        return MatchRange.create(start, dfaTable.lastEnd(input, start));
+    }
+
+    /**
+     * 所有不重叠的匹配，下一次查找从上一个匹配的结束位置开始；空匹配之后跳过一个字符
+     * @param input
+     * @return
+     */
+    public Iterator<MatchRange> findAll(final CharSequence input) {
+        return new MatchIterator(input) {
+            @Override
+            MatchRange find(int from) {
+                return DFASearcher.this.find(input, from);
+            }
+        };
+    }
+
+    public DFATable getForwardTable() {
+        return forwardTable;
+    }
+
+    public DFATable getReverseTable() {
+        return reverseTable;
+    }
+
+    public DFATable getLeftmostTable() {
+        return leftmostTable;
+    }
+
+    public DFATable getReverseSearchTable() {
+        return reverseSearchTable;
+    }
+
+    public DFATable getDFATable() {
+        return dfaTable;
+    }
+
+    public LiteralPrefilter getPrefilter() {
+        return prefilter;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("DFASearcher{");
+        sb.append("forward=").append(forwardTable);
+        sb.append(", reverse=").append(reverseTable);
+        sb.append(", leftmost=").append(leftmostTable);
+        sb.append(", reverseSearch=").append(reverseSearchTable);
+        sb.append(", dfa=").append(dfaTable);
+        sb.append(", prefilter=").append(prefilter);
+        sb.append('}');
+        return sb.toString();
+    }
+}
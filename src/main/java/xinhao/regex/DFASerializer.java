@@ -0,0 +1,497 @@
+package xinhao.regex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * @author by xinhao  2021/8/31
+ * 编译好的 DFA 的二进制格式，用于在构建时预先编译正则表达式，启动时直接加载，不需要再进行子集构造和最小化。
+ * 所有整数都是大端序，每一段都按 4 字节对齐:
+ * 1. DFA 转换表: magic "DFAT"、版本、状态数、字符类个数、开始状态、出现过的字符个数 n、标志，
+ *    n 个字符 (补齐到 4 字节)、n 个字符类、转换表 (状态数 * 字符类个数 个 int)、终止状态 (每个状态一位)，
+ *    标志中有 HAS_MATCH_IDS 时后面是每个状态匹配的正则表达式编号 (个数 + 编号)；
+ * 2. 正则表达式: magic "RGXP"、版本、flags、标志、正则表达式的长度和字符 (补齐到 4 字节)、DFA 转换表，
+ *    标志中有 HAS_SEARCHER 时后面是查找使用的前向 DFA、反向 DFA、最靠左的前向 DFA 和反向查找 DFA 的转换表；
+ * 3. 规则集: magic "RGXS"、版本、正则表达式个数，后面是每个正则表达式。
+ * DFA 转换表和正则表达式的头部 (到正则表达式的字符为止) 后面各有一个 CRC32 校验和，
+ * 转换表的内容损坏之后仍然可能是合法的转换表，只有校验和才能发现。
+ * 读取的 ByteBuffer 可以是 FileChannel.map 映射的文件，转换表通过 IntBuffer 一次批量复制到数组中，
+ * 不逐个解析状态，也不创建中间对象；匹配时访问的仍然是 int[]，和编译得到的 DFATable 一样快。
+ * 读取时检查所有的状态和字符类编号以及校验和，损坏的数据抛出 IllegalArgumentException，不会得到不合法的 DFATable。
+ */
+public final class DFASerializer {
+
+    // 格式的版本，格式改变时加一，不能读取其他版本的数据
+    public static final int VERSION = 3;
+
+    private static final int TABLE_MAGIC = 0x44464154;
+    private static final int PATTERN_MAGIC = 0x52475850;
+    private static final int RULESET_MAGIC = 0x52475853;
+    // DFA 转换表的标志: 有每个状态匹配的正则表达式编号
+    private static final int HAS_MATCH_IDS = 1;
+    // 正则表达式的标志: 有查找使用的 DFA
+    private static final int HAS_SEARCHER = 1;
+
+    private DFASerializer() {
+    }
+
+    /**
+     * DFA 转换表序列化之后的字节数
+     * @param dfaTable
+     * @return
+     */
+    public static int sizeOf(DFATable dfaTable) {
+        long stateCount = dfaTable.getStateCount();
+        long charCount = dfaTable.getClassMap().getChars().length;
+        long size = 7 * 4 + align(charCount * 2) + charCount * 4
+                + stateCount * dfaTable.getClassCount() * 4 + ((stateCount + 31) >>> 5) * 4 + 4;
+        if (dfaTable.getMatchIds(DFATable.DEAD) != null) {
+            for (int state = 0; state < stateCount; state++) {
+                size += 4 + dfaTable.getMatchIds(state).length * 4L;
+            }
+        }
+        return checkSize(size);
+    }
+
+    /**
+     * 把 DFA 转换表写入 buffer 的 position 处，写入之后 position 移动到数据之后
+     * @param dfaTable
+     * @param buffer  剩余空间至少是 sizeOf(dfaTable)
+     */
+    public static void write(DFATable dfaTable, ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            writeTable(dfaTable, buffer);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    public static byte[] toBytes(DFATable dfaTable) {
+        ByteBuffer buffer = ByteBuffer.allocate(sizeOf(dfaTable));
+        writeTable(dfaTable, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * 从 buffer 的 position 处读取 DFA 转换表，读取之后 position 移动到数据之后
+     * @param buffer
+     * @return
+     */
+    public static DFATable readTable(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            return read(buffer);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * 正则表达式序列化之后的字节数。查找使用的 DFA 已经生成时也会写入
+     * @param pattern
+     * @return
+     */
+    public static int sizeOf(Pattern pattern) {
+        checkSavable(pattern);
+        long size = 5 * 4 + align(pattern.pattern().length() * 2L) + 4 + sizeOf(pattern.getDFATable());
+        DFASearcher searcher = pattern.getCreatedSearcher();
+        if (searcher != null) {
+            size += sizeOf(searcher.getForwardTable()) + (long) sizeOf(searcher.getReverseTable())
+                    + sizeOf(searcher.getLeftmostTable()) + sizeOf(searcher.getReverseSearchTable());
+        }
+        return checkSize(size);
+    }
+
+    /**
+     * 把编译好的正则表达式写入 buffer 的 position 处。
+     * 查找使用的 DFA 已经生成时 (调用过 getSearcher 或者 find) 也会写入，加载之后第一次查找不需要再生成
+     * @param pattern  不能是惰性 DFA 模式
+     * @param buffer  剩余空间至少是 sizeOf(pattern)
+     */
+    public static void write(Pattern pattern, ByteBuffer buffer) {
+        checkSavable(pattern);
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            writePattern(pattern, buffer);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    public static byte[] toBytes(Pattern pattern) {
+        ByteBuffer buffer = ByteBuffer.allocate(sizeOf(pattern));
+        writePattern(pattern, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * 从 buffer 的 position 处读取正则表达式。
+     * DFA 转换表直接读取，不需要解析、子集构造和最小化；NFA 转换表在第一次使用时才生成
+     * @param buffer
+     * @return
+     */
+    public static Pattern readPattern(ByteBuffer buffer) {
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            return readPatternRecord(buffer);
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * 把一组编译好的正则表达式保存到文件中，文件已经存在时覆盖
+     * @param patterns
+     * @param file
+     * @throws IOException
+     */
+    public static void save(List<Pattern> patterns, Path file) throws IOException {
+        long size = 3 * 4;
+        for (Pattern pattern : patterns) {
+            size += sizeOf(pattern);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(checkSize(size));
+        buffer.putInt(RULESET_MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(patterns.size());
+        for (Pattern pattern : patterns) {
+            writePattern(pattern, buffer);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * 加载 save 保存的正则表达式，文件通过 FileChannel.map 映射到内存后直接读取
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static List<Pattern> load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("文件太大: " + size + " 字节");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            require(buffer, 3 * 4);
+            checkHeader(buffer, RULESET_MAGIC, "规则集");
+            int count = buffer.getInt();
+            if (count < 0) {
+                throw new IllegalArgumentException("正则表达式个数不合法: " + count);
+            }
+            List<Pattern> patterns = new ArrayList<>(Math.min(count, buffer.remaining() / 4));
+            for (int i = 0; i < count; i++) {
+                patterns.add(readPatternRecord(buffer));
+            }
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException("规则集后面还有 " + buffer.remaining() + " 字节");
+            }
+            return patterns;
+        }
+    }
+
+    private static void writeTable(DFATable dfaTable, ByteBuffer buffer) {
+        int stateCount = dfaTable.getStateCount();
+        int classCount = dfaTable.getClassCount();
+        CharClassMap classMap = dfaTable.getClassMap();
+        char[] chars = classMap.getChars();
+        boolean hasMatchIds = dfaTable.getMatchIds(DFATable.DEAD) != null;
+        int begin = buffer.position();
+        buffer.putInt(TABLE_MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(stateCount);
+        buffer.putInt(classCount);
+        buffer.putInt(dfaTable.getStart());
+        buffer.putInt(chars.length);
+        buffer.putInt(hasMatchIds ? HAS_MATCH_IDS : 0);
+        putChars(buffer, chars);
+        putInts(buffer, classMap.getClasses());
+        int[] row = new int[classCount];
+        for (int state = 0; state < stateCount; state++) {
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                row[charClass] = dfaTable.moveByClass(state, charClass);
+            }
+            putInts(buffer, row);
+        }
+        int[] endWords = new int[(stateCount + 31) >>> 5];
+        for (int state = 0; state < stateCount; state++) {
+            if (dfaTable.isEnd(state)) {
+                endWords[state >>> 5] |= 1 << state;
+            }
+        }
+        putInts(buffer, endWords);
+        if (hasMatchIds) {
+            for (int state = 0; state < stateCount; state++) {
+                int[] ids = dfaTable.getMatchIds(state);
+                buffer.putInt(ids.length);
+                putInts(buffer, ids);
+            }
+        }
+        buffer.putInt(checksum(buffer, begin));
+    }
+
+    private static DFATable read(ByteBuffer buffer) {
+        int begin = buffer.position();
+        require(buffer, 7 * 4);
+        checkHeader(buffer, TABLE_MAGIC, "DFA 转换表");
+        int stateCount = buffer.getInt();
+        int classCount = buffer.getInt();
+        int start = buffer.getInt();
+        int charCount = buffer.getInt();
+        int tableFlags = buffer.getInt();
+        if (stateCount < 1 || classCount < 1 || charCount < 0 || start < 0 || start >= stateCount) {
+            throw new IllegalArgumentException("DFA 转换表的头部不合法: stateCount=" + stateCount
+                    + ", classCount=" + classCount + ", start=" + start + ", charCount=" + charCount);
+        }
+        long tableLength = (long) stateCount * classCount;
+        require(buffer, align(charCount * 2L) + charCount * 4L + tableLength * 4 + ((stateCount + 31L) >>> 5) * 4);
+
+        // 1. 字符类，字符必须从小到大排序。合并列之后出现过的字符也可能属于字符类 0
+        char[] chars = new char[charCount];
+        getChars(buffer, chars);
+        int[] classes = new int[charCount];
+        getInts(buffer, classes);
+        for (int i = 0; i < charCount; i++) {
+            if (i > 0 && chars[i] <= chars[i - 1]) {
+                throw new IllegalArgumentException("字符没有从小到大排序: " + (int) chars[i]);
+            }
+            if (classes[i] < 0 || classes[i] >= classCount) {
+                throw new IllegalArgumentException("字符类不合法: " + classes[i]);
+            }
+        }
+
+        // 2. 转换表，死状态的一行必须全部转换到自己
+        int[] table = new int[(int) tableLength];
+        getInts(buffer, table);
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] < 0 || table[i] >= stateCount || (i < classCount && table[i] != DFATable.DEAD)) {
+                throw new IllegalArgumentException("第 " + i / classCount + " 个状态的转换不合法: " + table[i]);
+            }
+        }
+
+        // 3. 终止状态，死状态不能是终止状态
+        int[] endWords = new int[(stateCount + 31) >>> 5];
+        getInts(buffer, endWords);
+        boolean[] ends = new boolean[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            ends[state] = (endWords[state >>> 5] & (1 << state)) != 0;
+        }
+        if (ends[DFATable.DEAD]) {
+            throw new IllegalArgumentException("死状态不能是终止状态");
+        }
+
+        // 4. 每个状态匹配的正则表达式编号，从小到大排序
+        int[][] matchIds = null;
+        if ((tableFlags & HAS_MATCH_IDS) != 0) {
+            matchIds = new int[stateCount][];
+            for (int state = 0; state < stateCount; state++) {
+                require(buffer, 4);
+                int count = buffer.getInt();
+                if (count < 0) {
+                    throw new IllegalArgumentException("正则表达式编号的个数不合法: " + count);
+                }
+                require(buffer, count * 4L);
+                matchIds[state] = new int[count];
+                getInts(buffer, matchIds[state]);
+                for (int i = 0; i < count; i++) {
+                    if (matchIds[state][i] < 0 || (i > 0 && matchIds[state][i] <= matchIds[state][i - 1])) {
+                        throw new IllegalArgumentException("正则表达式编号不合法: " + matchIds[state][i]);
+                    }
+                }
+            }
+        }
+        checkChecksum(buffer, begin, "DFA 转换表");
+        return DFATable.create(CharClassMap.create(chars, classes, classCount), table, ends, matchIds, start);
+    }
+
+    private static void writePattern(Pattern pattern, ByteBuffer buffer) {
+        DFASearcher searcher = pattern.getCreatedSearcher();
+        int begin = buffer.position();
+        buffer.putInt(PATTERN_MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(pattern.flags());
+        buffer.putInt(searcher != null ? HAS_SEARCHER : 0);
+        buffer.putInt(pattern.pattern().length());
+        putChars(buffer, pattern.pattern().toCharArray());
+        buffer.putInt(checksum(buffer, begin));
+        writeTable(pattern.getDFATable(), buffer);
+        if (searcher != null) {
+            writeTable(searcher.getForwardTable(), buffer);
+            writeTable(searcher.getReverseTable(), buffer);
+            writeTable(searcher.getLeftmostTable(), buffer);
+            writeTable(searcher.getReverseSearchTable(), buffer);
+        }
+    }
+
+    private static Pattern readPatternRecord(ByteBuffer buffer) {
+        int begin = buffer.position();
+        require(buffer, 5 * 4);
+        checkHeader(buffer, PATTERN_MAGIC, "正则表达式");
+        int flags = buffer.getInt();
+        int patternFlags = buffer.getInt();
+        int length = buffer.getInt();
+        if (length < 0) {
+            throw new IllegalArgumentException("正则表达式的长度不合法: " + length);
+        }
+        require(buffer, align(length * 2L));
+        char[] chars = new char[length];
+        getChars(buffer, chars);
+        checkChecksum(buffer, begin, "正则表达式");
+        DFATable dfaTable = read(buffer);
+        DFASearcher searcher = null;
+        if ((patternFlags & HAS_SEARCHER) != 0) {
+            DFATable forwardTable = read(buffer);
+            DFATable reverseTable = read(buffer);
+            DFATable leftmostTable = read(buffer);
+            DFATable reverseSearchTable = read(buffer);
+            searcher = DFASearcher.create(forwardTable, reverseTable, leftmostTable, reverseSearchTable, dfaTable);
+        }
+        return Pattern.create(new String(chars), flags, dfaTable, searcher);
+    }
+
+    private static void checkSavable(Pattern pattern) {
+        if (pattern.getDFATable() == null) {
+            throw new IllegalArgumentException("惰性 DFA 模式没有 DFA 转换表，不能保存: " + pattern);
+        }
+    }
+
+    private static void checkHeader(ByteBuffer buffer, int magic, String name) {
+        int actualMagic = buffer.getInt();
+        if (actualMagic != magic) {
+            throw new IllegalArgumentException("不是" + name + "的数据: magic=" + Integer.toHexString(actualMagic));
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException(name + "的版本是 " + version + "，只能读取版本 " + VERSION);
+        }
+    }
+
+    // 剩余的字节数至少是 size，先检查再分配数组，损坏的数据不会导致分配很大的数组
+    private static void require(ByteBuffer buffer, long size) {
+        if (buffer.remaining() < size) {
+            throw new IllegalArgumentException("数据不完整: 需要 " + size + " 字节，只剩 " + buffer.remaining() + " 字节");
+        }
+    }
+
+    // buffer 中 [begin, position) 的 CRC32
+    private static int checksum(ByteBuffer buffer, int begin) {
+        ByteBuffer data = buffer.duplicate();
+        data.limit(buffer.position());
+        data.position(begin);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    // 读取 [begin, position) 后面的校验和并检查
+    private static void checkChecksum(ByteBuffer buffer, int begin, String name) {
+        int expected = checksum(buffer, begin);
+        require(buffer, 4);
+        int actual = buffer.getInt();
+        if (actual != expected) {
+            throw new IllegalArgumentException(name + "的校验和不一致: " + Integer.toHexString(actual)
+                    + " != " + Integer.toHexString(expected));
+        }
+    }
+
+    private static int checkSize(long size) {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("序列化之后超过 2G: " + size + " 字节");
+        }
+        return (int) size;
+    }
+
+    private static long align(long size) {
+        return (size + 3) & ~3L;
+    }
+
+    // 批量写入，写入之后补齐到 4 字节
+    private static void putChars(ByteBuffer buffer, char[] chars) {
+        buffer.asCharBuffer().put(chars);
+        buffer.position(buffer.position() + (int) align(chars.length * 2L));
+    }
+
+    private static void getChars(ByteBuffer buffer, char[] chars) {
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + (int) align(chars.length * 2L));
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] ints) {
+        buffer.asIntBuffer().put(ints);
+        buffer.position(buffer.position() + ints.length * 4);
+    }
+
+    private static void getInts(ByteBuffer buffer, int[] ints) {
+        buffer.asIntBuffer().get(ints);
+        buffer.position(buffer.position() + ints.length * 4);
+    }
+
+    public static void main(String[] args) throws IOException {
+        // 一组随机生成的规则: (w1|w2|...|w20)-(0|1|...|9)+
+        Random random = new Random(1);
+        List<String> regexes = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder builder = new StringBuilder("(");
+            for (int word = 0; word < 20; word++) {
+                if (word > 0) {
+                    builder.append('|');
+                }
+                for (int k = 0; k < 5; k++) {
+                    builder.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            builder.append(")-(0|1|2|3|4|5|6|7|8|9)+");
+            regexes.add(builder.toString());
+        }
+
+        long begin = System.nanoTime();
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        long compileTime = System.nanoTime() - begin;
+
+        Path file = Files.createTempFile("ruleset", ".dfa");
+        file.toFile().deleteOnExit();
+        save(patterns, file);
+
+        begin = System.nanoTime();
+        List<Pattern> loaded = load(file);
+        long loadTime = System.nanoTime() - begin;
+
+        int mismatches = 0;
+        for (int i = 0; i < patterns.size(); i++) {
+            String input = regexes.get(i).substring(1, 6) + "-" + random.nextInt(1000);
+            String other = regexes.get(i).substring(1, 5) + "-1";
+            if (patterns.get(i).matches(input) != loaded.get(i).matches(input)
+                    || patterns.get(i).matches(other) != loaded.get(i).matches(other)
+                    || !loaded.get(i).matches(input)) {
+                mismatches++;
+            }
+        }
+        System.out.println(regexes.size() + " 个正则表达式，文件 " + Files.size(file) / 1024 + "KB");
+        System.out.println("编译: " + compileTime / 1000000 + "ms，加载: " + loadTime / 1000000
+                + "ms，结果不一致: " + mismatches);
+    }
+}
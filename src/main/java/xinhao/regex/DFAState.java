@@ -1,7 +1,6 @@
 package xinhao.regex;
 
-import java.util.Objects;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author by xinhao  2021/8/8
@@ -11,17 +10,20 @@ public class DFAState {
 
     // 对应的 NFA 转换图中的状态集合
     private final Set<NFAState> stateSet;
-    // NFA 转换图中的状态集合对应的唯一标志，用来两个 DFA 是否相等
-    private final String statesId;
+    // NFA 转换图中的状态集合对应的唯一标志，也就是从小到大排序的状态 id，用来两个 DFA 是否相等
+    private final int[] stateIds;
+    private final int hash;
     // 表示当前状态是不是终止状态
     private final boolean isEnd;
-    // 这个 tag 只是辅助作用，
-    private boolean isTag;
+    // 多个正则表达式合并成一个 DFA 时，当前状态匹配的正则表达式编号，从小到大排序
+    private final int[] matchIds;
 
-    private DFAState(Set<NFAState> stateSet, String statesId, boolean isEnd) {
+    private DFAState(Set<NFAState> stateSet, int[] stateIds, boolean isEnd, int[] matchIds) {
         this.stateSet = stateSet;
-        this.statesId = statesId;
+        this.stateIds = stateIds;
+        this.hash = Arrays.hashCode(stateIds);
         this.isEnd = isEnd;
+        this.matchIds = matchIds;
     }
 
     /**
@@ -30,19 +32,43 @@ public class DFAState {
      * @return
      */
     public static DFAState create(Set<NFAState> stateSet) {
-        StringBuilder idBuilder = new StringBuilder();
         // 生成对应 DFA 状态的 id 标志
-        stateSet.stream().sorted().forEach(state -> idBuilder.append(state.getId()+","));
+        int[] stateIds = new int[stateSet.size()];
+        int index = 0;
         boolean isEnd = false;
+        Set<Integer> matchIdSet = new TreeSet<>();
         for (NFAState state : stateSet) {
+            stateIds[index++] = state.getId();
             // 如果 stateSet 集合中有一个状态节点是终止状态节点，
             // 那么这个新生成的 DFA 状态节点也是终止状态节点
             if (state.isEnd()) {
                 isEnd = true;
-                break;
+                if (state.getMatchId() >= 0) {
+                    matchIdSet.add(state.getMatchId());
+                }
             }
         }
-        return new DFAState(stateSet, idBuilder.toString(), isEnd);
+        Arrays.sort(stateIds);
+        int[] matchIds = new int[matchIdSet.size()];
+        index = 0;
+        for (int matchId : matchIdSet) {
+            matchIds[index++] = matchId;
+        }
+        return new DFAState(stateSet, stateIds, isEnd, matchIds);
+    }
+
+    /**
+     * 通过 NFATable 中的状态集合生成对应的 DFA 状态
+     * @param nfaTable
+     * @param key  NFATable 中的状态编号集合
+     * @return
+     */
+    public static DFAState create(NFATable nfaTable, StateSetKey key) {
+        Set<NFAState> stateSet = new HashSet<>();
+        for (int state : key.getStates()) {
+            stateSet.add(nfaTable.getState(state));
+        }
+        return create(stateSet);
     }
 
     @Override
@@ -50,16 +76,12 @@ public class DFAState {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         DFAState dfaNFAState = (DFAState) o;
-        return statesId.equals(dfaNFAState.statesId);
+        return hash == dfaNFAState.hash && Arrays.equals(stateIds, dfaNFAState.stateIds);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(statesId);
-    }
-
-    public void setTag(boolean tag) {
-        isTag = tag;
+        return hash;
     }
 
     public Set<NFAState> getNFAStateSet() {
@@ -67,21 +89,25 @@ public class DFAState {
     }
 
     public String getNFAStatesId() {
-        return statesId;
-    }
-
-    public boolean isTag() {
-        return isTag;
+        StringBuilder idBuilder = new StringBuilder();
+        for (int id : stateIds) {
+            idBuilder.append(id).append(',');
+        }
+        return idBuilder.toString();
     }
 
     public boolean isEnd() {
         return isEnd;
     }
 
+    public int[] getMatchIds() {
+        return matchIds;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("DFANFAState{");
-        sb.append("statesId='").append(statesId).append('\'');
+        sb.append("statesId='").append(getNFAStatesId()).append('\'');
         sb.append(", isEnd=").append(isEnd);
         sb.append('}');
         return sb.toString();
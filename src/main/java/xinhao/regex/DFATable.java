@@ -0,0 +1,385 @@
+package xinhao.regex;
+
+import java.util.*;
+
+/**
+ * @author by xinhao  2021/8/12
+ * 编译之后的 DFA 转换表，创建之后就不能修改。
+ * 状态用 0..n-1 的整数表示，其中状态 0 固定是死状态 (对应空的 NFA 状态集合，再也不可能匹配)；
+ * 转换表是一个一维数组 table[state * classCount + charClass]，匹配时每个输入字符只需要一次数组下标访问。
+ */
+public final class DFATable {
+
+    // 死状态，所有输入字符都转换到自己，并且不是终止状态
+    public static final int DEAD = 0;
+
+    // 字符到字符类的映射
+    private final CharClassMap classMap;
+    // 字符类的个数，也就是转换表一行的长度
+    private final int classCount;
+    // 转换表
+    private final int[] table;
+    // 状态是不是终止状态
+    private final boolean[] ends;
+    // 多个正则表达式合并成一个 DFA 时，每个状态匹配的正则表达式编号；只有一个正则表达式时为 null
+    private final int[][] matchIds;
+    // 开始状态
+    private final int start;
+
+    private DFATable(CharClassMap classMap, int[] table, boolean[] ends, int[][] matchIds, int start) {
+        this.classMap = classMap;
+        this.classCount = classMap.getClassCount();
+        this.table = table;
+        this.ends = ends;
+        this.matchIds = matchIds;
+        this.start = start;
+    }
+
+    /**
+     * 通过 NFAToDFA 生成的 DFAGraph 转换图创建转换表
+     * @param dfaGraph
+     * @return
+     */
+    public static DFATable create(DFAGraph dfaGraph) {
+        int graphClassCount = dfaGraph.getClassCount();
+        // 1. 给 DFA 状态编号。采用广度优先遍历，状态 0 留给死状态
+        Map<DFAState, Integer> indexMap = new HashMap<>();
+        List<DFAState> states = new ArrayList<>();
+        states.add(null);
+        Queue<DFAState> queue = new LinkedList<>();
+        queue.add(dfaGraph.getStart());
+        indexOf(dfaGraph.getStart(), indexMap, states);
+        while (!queue.isEmpty()) {
+            DFAState state = queue.poll();
+            for (int charClass = 0; charClass < graphClassCount; charClass++) {
+                DFAState nextState = dfaGraph.getStateByClass(state, charClass);
+                int size = states.size();
+                // 分配了新的编号，说明是第一次遇到这个状态
+                if (indexOf(nextState, indexMap, states) == size) {
+                    queue.add(nextState);
+                }
+            }
+        }
+
+        // 2. 得到每个字符类对应的那一列，列完全相同的字符类合并成同一个字符类
+        Map<String, Integer> columnClasses = new HashMap<>();
+        List<int[]> columns = new ArrayList<>();
+        // 字符类 0 (没有出现过的字符) 最先处理，合并之后仍然是字符类 0。
+        // 一般它对应的列全部转换到死状态，查找使用的前向 DFA 中它会回到开始状态
+        int[] newClasses = new int[graphClassCount];
+        for (int graphClass = 0; graphClass < graphClassCount; graphClass++) {
+            int[] column = new int[states.size()];
+            for (int state = 1; state < states.size(); state++) {
+                column[state] = indexOf(dfaGraph.getStateByClass(states.get(state), graphClass), indexMap, states);
+            }
+            String columnKey = Arrays.toString(column);
+            Integer charClass = columnClasses.get(columnKey);
+            if (charClass == null) {
+                charClass = columns.size();
+                columnClasses.put(columnKey, charClass);
+                columns.add(column);
+            }
+            newClasses[graphClass] = charClass;
+        }
+
+        // 3. 填充转换表
+        int classCount = columns.size();
+        int[] table = new int[states.size() * classCount];
+        boolean[] ends = new boolean[states.size()];
+        int[][] matchIds = new int[states.size()][];
+        matchIds[DEAD] = new int[0];
+        boolean hasMatchIds = false;
+        for (int state = 1; state < states.size(); state++) {
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                table[state * classCount + charClass] = columns.get(charClass)[state];
+            }
+            ends[state] = states.get(state).isEnd();
+            matchIds[state] = states.get(state).getMatchIds();
+            hasMatchIds |= matchIds[state].length > 0;
+        }
+        return new DFATable(dfaGraph.getClassMap().remap(newClasses, classCount), table, ends,
+                hasMatchIds ? matchIds : null, indexOf(dfaGraph.getStart(), indexMap, states));
+    }
+
+    /**
+     * 通过已经生成好的转换表创建，用于 DFASerializer 读取序列化的数据，调用者保证数据合法
+     * @param classMap
+     * @param table  table[state * classCount + charClass]
+     * @param ends
+     * @param matchIds  只有一个正则表达式时为 null
+     * @param start
+     * @return
+     */
+    static DFATable create(CharClassMap classMap, int[] table, boolean[] ends, int[][] matchIds, int start) {
+        return new DFATable(classMap, table, ends, matchIds, start);
+    }
+
+    /**
+     * 得到 DFA 状态对应的编号，没有编号就分配一个新的。
+     * 不对应任何 NFA 状态的 DFA 状态就是死状态 0
+     */
+    private static int indexOf(DFAState state, Map<DFAState, Integer> indexMap, List<DFAState> states) {
+        if (state == null || state.getNFAStateSet().isEmpty()) {
+            return DEAD;
+        }
+        Integer index = indexMap.get(state);
+        if (index == null) {
+            index = states.size();
+            indexMap.put(state, index);
+            states.add(state);
+        }
+        return index;
+    }
+
+    /**
+     * 获取当前状态遇到输入字符 ch 之后的下一个状态
+     * @param state
+     * @param ch
+     * @return
+     */
+    public int move(int state, char ch) {
+        return table[state * classCount + classMap.classOf(ch)];
+    }
+
+    /**
+     * 获取当前状态遇到字符类 charClass 中的字符之后的下一个状态
+     * @param state
+     * @param charClass
+     * @return
+     */
+    public int moveByClass(int state, int charClass) {
+        return table[state * classCount + charClass];
+    }
+
+    /**
+     * 从开始状态出发，能否匹配字符数组 chars 中 [from, to) 的字符
+     * @param chars
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean isMatch(char[] chars, int from, int to) {
+        return ends[run(start, chars, from, to)];
+    }
+
+    /**
+     * 批量匹配: data 中第 i 个输入是 [offsets[i], offsets[i + 1]) 的字符，匹配第 from 到 to - 1 个输入，
+     * 第 i 个输入匹配时设置 words 中的第 i 位 (和 BitSet 的格式一样)。
+     * 每次同时处理 4 个输入，4 个状态的转换表访问互相独立，CPU 可以同时等待它们的内存访问
+     * @param data
+     * @param offsets
+     * @param from
+     * @param to
+     * @param words
+     */
+    public void isMatch(char[] data, int[] offsets, int from, int to, long[] words) {
+        int i = from;
+        for (; i + 4 <= to; i += 4) {
+            int p0 = offsets[i], p1 = offsets[i + 1], p2 = offsets[i + 2], p3 = offsets[i + 3];
+            int e0 = p1, e1 = p2, e2 = p3, e3 = offsets[i + 4];
+            int s0 = start, s1 = start, s2 = start, s3 = start;
+            // 4 个输入都还有字符时同时转换
+            int common = Math.min(Math.min(e0 - p0, e1 - p1), Math.min(e2 - p2, e3 - p3));
+            for (int k = 0; k < common; k++) {
+                s0 = table[s0 * classCount + classMap.classOf(data[p0 + k])];
+                s1 = table[s1 * classCount + classMap.classOf(data[p1 + k])];
+                s2 = table[s2 * classCount + classMap.classOf(data[p2 + k])];
+                s3 = table[s3 * classCount + classMap.classOf(data[p3 + k])];
+            }
+            setMatch(words, i, run(s0, data, p0 + common, e0));
+            setMatch(words, i + 1, run(s1, data, p1 + common, e1));
+            setMatch(words, i + 2, run(s2, data, p2 + common, e2));
+            setMatch(words, i + 3, run(s3, data, p3 + common, e3));
+        }
+        for (; i < to; i++) {
+            setMatch(words, i, run(start, data, offsets[i], offsets[i + 1]));
+        }
+    }
+
+    /**
+     * 批量匹配 inputs 中第 from 到 to - 1 个输入，第 i 个输入匹配时设置 words 中的第 i 位
+     * @param inputs
+     * @param from
+     * @param to
+     * @param words
+     */
+    public void isMatch(CharSequence[] inputs, int from, int to, long[] words) {
+        int i = from;
+        for (; i + 4 <= to; i += 4) {
+            CharSequence c0 = inputs[i], c1 = inputs[i + 1], c2 = inputs[i + 2], c3 = inputs[i + 3];
+            int s0 = start, s1 = start, s2 = start, s3 = start;
+            int common = Math.min(Math.min(c0.length(), c1.length()), Math.min(c2.length(), c3.length()));
+            for (int k = 0; k < common; k++) {
+                s0 = table[s0 * classCount + classMap.classOf(c0.charAt(k))];
+                s1 = table[s1 * classCount + classMap.classOf(c1.charAt(k))];
+                s2 = table[s2 * classCount + classMap.classOf(c2.charAt(k))];
+                s3 = table[s3 * classCount + classMap.classOf(c3.charAt(k))];
+            }
+            setMatch(words, i, run(s0, c0, common, c0.length()));
+            setMatch(words, i + 1, run(s1, c1, common, c1.length()));
+            setMatch(words, i + 2, run(s2, c2, common, c2.length()));
+            setMatch(words, i + 3, run(s3, c3, common, c3.length()));
+        }
+        for (; i < to; i++) {
+            setMatch(words, i, run(start, inputs[i], 0, inputs[i].length()));
+        }
+    }
+
+    private void setMatch(long[] words, int index, int state) {
+        if (ends[state]) {
+            words[index >>> 6] |= 1L << index;
+        }
+    }
+
+    /**
+     * 从开始状态出发，能否匹配整个字符序列 input，不会复制 input
+     * @param input
+     * @return
+     */
+    public boolean isMatch(CharSequence input) {
+        return ends[run(input)];
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public boolean isEnd(int state) {
+        return ends[state];
+    }
+
+    /**
+     * 状态 state 匹配的正则表达式编号，从小到大排序。返回的数组不能修改
+     * @param state
+     * @return 只有一个正则表达式时为 null
+     */
+    public int[] getMatchIds(int state) {
+        return matchIds == null ? null : matchIds[state];
+    }
+
+    /**
+     * 从开始状态出发，读取整个字符序列 input 之后的状态
+     * @param input
+     * @return
+     */
+    public int run(CharSequence input) {
+        return run(start, input, 0, input.length());
+    }
+
+    /**
+     * 从状态 state 出发，读取字符数组 chars 中 [from, to) 的字符之后的状态。
+     * 分段读取输入时，上一段的结果作为下一段的 state 就可以了
+     * @param state
+     * @param chars
+     * @param from
+     * @param to
+     * @return
+     */
+    public int run(int state, char[] chars, int from, int to) {
+        for (int pos = from; pos < to && state != DEAD; pos++) {
+            state = table[state * classCount + classMap.classOf(chars[pos])];
+        }
+        return state;
+    }
+
+    /**
+     * 从状态 state 出发，读取字符序列 input 中 [from, to) 的字符之后的状态
+     * @param state
+     * @param input
+     * @param from
+     * @param to
+     * @return
+     */
+    public int run(int state, CharSequence input, int from, int to) {
+        for (int pos = from; pos < to && state != DEAD; pos++) {
+            state = table[state * classCount + classMap.classOf(input.charAt(pos))];
+        }
+        return state;
+    }
+
+    /**
+     * 从开始状态出发，从位置 from 开始向后读取字符，第一次到达终止状态时的位置，也就是最早的匹配结束位置
+     * @param input
+     * @param from
+     * @return 没有到达过终止状态返回 -1
+     */
+    public int firstEnd(CharSequence input, int from) {
+        int state = start;
+        if (ends[state]) {
+            return from;
+        }
+        int length = input.length();
+        for (int pos = from; pos < length; pos++) {
+            state = table[state * classCount + classMap.classOf(input.charAt(pos))];
+            if (ends[state]) {
+                return pos + 1;
+            }
+            if (state == DEAD) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 从开始状态出发，从位置 from 开始向后读取字符，最后一次到达终止状态时的位置，也就是最长的匹配结束位置。
+     * 到达死状态之后就不可能再匹配了，直接结束
+     * @param input
+     * @param from
+     * @return 没有到达过终止状态返回 -1
+     */
+    public int lastEnd(CharSequence input, int from) {
+        int state = start;
+        int end = ends[state] ? from : -1;
+        int length = input.length();
+        for (int pos = from; pos < length && state != DEAD; pos++) {
+            state = table[state * classCount + classMap.classOf(input.charAt(pos))];
+            if (ends[state]) {
+                end = pos + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 反向 DFA 使用: 从开始状态出发，从位置 to 开始向前读取字符，不会读取 limit 之前的字符，
+     * 最后一次到达终止状态时的位置，也就是最靠前的匹配开始位置
+     * @param input
+     * @param to
+     * @param limit
+     * @return 没有到达过终止状态返回 -1
+     */
+    public int lastStartReverse(CharSequence input, int to, int limit) {
+        int state = start;
+        int begin = ends[state] ? to : -1;
+        for (int pos = to - 1; pos >= limit && state != DEAD; pos--) {
+            state = table[state * classCount + classMap.classOf(input.charAt(pos))];
+            if (ends[state]) {
+                begin = pos;
+            }
+        }
+        return begin;
+    }
+
+    public int getStateCount() {
+        return ends.length;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    public CharClassMap getClassMap() {
+        return classMap;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("DFATable{");
+        sb.append("start=").append(start);
+        sb.append(", stateCount=").append(ends.length);
+        sb.append(", classCount=").append(classCount);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package xinhao.regex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @author by xinhao  2021/8/22
+ * 在 UTF-8 文件中查找包含匹配的行，类似 grep。
+ * 文件通过 FileChannel.map 映射到内存，字节 DFA 直接读取映射的字节，不需要解码成字符，也不需要创建 String。
+ * 使用的是查找用的前向 DFA (相当于在正则表达式前面加上 .*)，一行中任何位置有匹配，这一行就匹配。
+ * '\n' 是行分隔符，不会交给 DFA 处理，所以正则表达式中的 '\n' 不会匹配。
+ * 创建之后不能被修改，可以被多个线程共享。
+ */
+public final class FileScanner {
+
+    // 每次映射的最大字节数，MappedByteBuffer 最多只能映射 2G
+    private static final long MAP_SIZE = 1L << 30;
+
+    private final ByteDFA byteDFA;
+
+    private FileScanner(ByteDFA byteDFA) {
+        this.byteDFA = byteDFA;
+    }
+
+    public static FileScanner create(Pattern pattern) {
+        return new FileScanner(ByteDFA.createForSearch(pattern.getSearcher().getForwardTable()));
+    }
+
+    /**
+     * 包含匹配的行的开始位置 (字节偏移)，从小到大排序
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public long[] scanLines(Path file) throws IOException {
+        LineCollector collector = new LineCollector(byteDFA, true);
+        scan(file, collector);
+        return Arrays.copyOf(collector.lines, collector.count);
+    }
+
+    /**
+     * 包含匹配的行的个数
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public long countLines(Path file) throws IOException {
+        LineCollector collector = new LineCollector(byteDFA, false);
+        scan(file, collector);
+        return collector.count;
+    }
+
+    /**
+     * 在 buffer 中 [position, limit) 的字节中查找包含匹配的行，行的开始位置是相对于 position 的字节偏移
+     * @param buffer
+     * @return
+     */
+    public long[] scanLines(ByteBuffer buffer) {
+        LineCollector collector = new LineCollector(byteDFA, true);
+        collector.scan(buffer, buffer.position(), buffer.limit(), -buffer.position());
+        collector.finish();
+        return Arrays.copyOf(collector.lines, collector.count);
+    }
+
+    private static void scan(Path file, LineCollector collector) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // 分段映射，DFA 状态保留到下一段，所以跨段的行不需要特殊处理
+            for (long offset = 0; offset < size; offset += MAP_SIZE) {
+                long length = Math.min(MAP_SIZE, size - offset);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                collector.scan(buffer, 0, (int) length, offset);
+            }
+            collector.finish();
+        }
+    }
+
+    /**
+     * 扫描时的状态，可以跨多个 buffer
+     */
+    private static final class LineCollector {
+        private final int[] table;
+        private final ByteDFA byteDFA;
+        // 是否需要记录行的开始位置，只计数时不需要
+        private final boolean record;
+        private long[] lines = new long[16];
+        private int count;
+        // 当前行的开始位置
+        private long lineStart;
+        // 当前 DFA 状态
+        private int state;
+        // 当前行已经有匹配了，剩下的字节只需要找行分隔符
+        private boolean matched;
+        // 当前行有没有字节，文件最后的空行不算一行
+        private boolean lineEmpty = true;
+
+        private LineCollector(ByteDFA byteDFA, boolean record) {
+            this.byteDFA = byteDFA;
+            this.table = byteDFA.getTable();
+            this.record = record;
+            newLine(0);
+        }
+
+        /**
+         * @param buffer
+         * @param from
+         * @param to
+         * @param base  buffer 下标对应的文件偏移是 base + 下标
+         */
+        private void scan(ByteBuffer buffer, int from, int to, long base) {
+            int state = this.state;
+            boolean matched = this.matched;
+            for (int pos = from; pos < to; pos++) {
+                byte b = buffer.get(pos);
+                if (b == '\n') {
+                    // 行末没有读完的多字节字符是一个 U+FFFD
+                    this.matched = matched || byteDFA.isEnd(byteDFA.endOfInput(state));
+                    endLine();
+                    newLine(base + pos + 1);
+                    state = this.state;
+                    matched = this.matched;
+                } else if (!matched) {
+                    state = table[(state << 8) | (b & 0xFF)];
+                    matched = byteDFA.isEnd(state);
+                }
+            }
+            if (to > from) {
+                lineEmpty = lineEmpty && buffer.get(to - 1) == '\n';
+            }
+            this.state = state;
+            this.matched = matched;
+        }
+
+        private void newLine(long start) {
+            lineStart = start;
+            state = byteDFA.getStart();
+            matched = byteDFA.isEnd(state);
+            lineEmpty = true;
+        }
+
+        private void endLine() {
+            if (!matched) {
+                return;
+            }
+            if (record) {
+                if (count == lines.length) {
+                    lines = Arrays.copyOf(lines, count * 2);
+                }
+                lines[count] = lineStart;
+            }
+            count++;
+        }
+
+        // 最后一行没有行分隔符
+        private void finish() {
+            if (!lineEmpty) {
+                matched = matched || byteDFA.isEnd(byteDFA.endOfInput(state));
+                endLine();
+            }
+        }
+    }
+
+    public ByteDFA getByteDFA() {
+        return byteDFA;
+    }
+}
@@ -0,0 +1,206 @@
+package xinhao.regex;
+
+import java.util.*;
+
+/**
+ * @author by xinhao  2021/8/29
+ * Glushkov 构造 (位置自动机): 和 Thompson 构造一样从语法树生成 NFA，但是得到的 NFA 没有 ε有向边。
+ * 语法树中每个字符 (或者字符类) 叫做一个位置，NFA 的状态就是开始状态加上每个位置一个状态，
+ * 到达位置 p 的状态表示刚刚读取了位置 p 的字符。对每个节点计算:
+ * 1. nullable: 能否匹配空串；
+ * 2. first: 匹配的第一个字符可能是哪些位置；
+ * 3. last: 匹配的最后一个字符可能是哪些位置；
+ * 4. follow(q): 位置 q 后面可能紧跟着哪些位置，在连接和重复节点上计算。
+ * 开始状态遇到 first 中位置的字符到达这个位置；位置 q 遇到 follow(q) 中位置的字符到达这个位置；
+ * last 中的位置是终止状态，nullable 时开始状态也是终止状态。
+ * 没有 ε有向边，计算 ε-closure 就只是把状态本身加进去，子集构造和 NFA 模拟都更快；
+ * 状态数是位置数加一，适合用位运算模拟。代价是有向边可能更多 (最坏是位置数的平方)。
+ */
+public class GlushkovBuilder {
+
+    /**
+     * 节点的 nullable first last
+     */
+    private static final class NodeInfo {
+        private final boolean nullable;
+        private final BitSet first;
+        private final BitSet last;
+
+        private NodeInfo(boolean nullable, BitSet first, BitSet last) {
+            this.nullable = nullable;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * 通过正则表达式生成 NFA 转换表，语法树先化简，位置更少
+     * @param pattern
+     * @return
+     */
+    public static NFATable build(String pattern) {
+        return build(RegexSimplifier.simplify(RegexParser.parse(pattern)));
+    }
+
+    /**
+     * 通过语法树生成没有 ε有向边 的 NFA 转换表。后序遍历，不使用递归
+     * @param root
+     * @return
+     */
+    public static NFATable build(RegexNode root) {
+        // 每个位置的字符
+        List<char[]> positions = new ArrayList<>();
+        // 每个位置的 follow
+        List<BitSet> follows = new ArrayList<>();
+        Map<RegexNode, NodeInfo> infos = new IdentityHashMap<>();
+        for (RegexNode node : root.postOrder()) {
+            NodeInfo info;
+            switch (node.getType()) {
+                case EMPTY:
+                    info = new NodeInfo(true, new BitSet(), new BitSet());
+                    break;
+                case CHAR:
+                case CHAR_CLASS:
+                    int position = positions.size();
+                    positions.add(node.getType() == RegexNode.Type.CHAR ? new char[]{node.getChar()} : node.getChars());
+                    follows.add(new BitSet());
+                    BitSet single = new BitSet();
+                    single.set(position);
+                    info = new NodeInfo(false, single, single);
+                    break;
+                case CONCAT:
+                    info = concat(node, infos, follows);
+                    break;
+                case ALTERNATE:
+                    boolean nullable = false;
+                    BitSet first = new BitSet();
+                    BitSet last = new BitSet();
+                    for (RegexNode child : node.getChildren()) {
+                        NodeInfo childInfo = infos.remove(child);
+                        nullable |= childInfo.nullable;
+                        first.or(childInfo.first);
+                        last.or(childInfo.last);
+                    }
+                    info = new NodeInfo(nullable, first, last);
+                    break;
+                default:
+                    NodeInfo childInfo = infos.remove(node.getChild());
+                    if (node.getType() != RegexNode.Type.OPTIONAL) {
+                        // 重复时，最后一个位置后面可以紧跟着第一个位置
+                        addFollows(follows, childInfo.last, childInfo.first);
+                    }
+                    info = new NodeInfo(childInfo.nullable || node.getType() != RegexNode.Type.PLUS,
+                            childInfo.first, childInfo.last);
+                    break;
+            }
+            infos.put(node, info);
+        }
+        return createTable(infos.get(root), positions, follows);
+    }
+
+    /**
+     * Glushkov NFA 的状态数，也就是位置数加一，不需要生成 NFA
+     * @param root
+     * @return
+     */
+    public static int stateCount(RegexNode root) {
+        int count = 1;
+        for (RegexNode node : root.postOrder()) {
+            if (node.getType() == RegexNode.Type.CHAR || node.getType() == RegexNode.Type.CHAR_CLASS) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // 连接: 前面的部分的 last 后面可以紧跟着下一个子节点的 first
+    private static NodeInfo concat(RegexNode node, Map<RegexNode, NodeInfo> infos, List<BitSet> follows) {
+        boolean nullable = true;
+        BitSet first = new BitSet();
+        BitSet last = new BitSet();
+        for (RegexNode child : node.getChildren()) {
+            NodeInfo childInfo = infos.remove(child);
+            addFollows(follows, last, childInfo.first);
+            if (nullable) {
+                // 前面的子节点都能匹配空串，这个子节点的第一个字符也可能是整个连接的第一个字符
+                first.or(childInfo.first);
+            }
+            if (childInfo.nullable) {
+                last.or(childInfo.last);
+            } else {
+                last = (BitSet) childInfo.last.clone();
+            }
+            nullable &= childInfo.nullable;
+        }
+        return new NodeInfo(nullable, first, last);
+    }
+
+    // last 中的每个位置后面都可以紧跟着 first 中的位置
+    private static void addFollows(List<BitSet> follows, BitSet last, BitSet first) {
+        for (int position = last.nextSetBit(0); position >= 0; position = last.nextSetBit(position + 1)) {
+            follows.get(position).or(first);
+        }
+    }
+
+    // 开始状态加上每个位置一个状态
+    private static NFATable createTable(NodeInfo rootInfo, List<char[]> positions, List<BitSet> follows) {
+        NFAState startState = NFAState.create();
+        NFAState[] positionStates = new NFAState[positions.size()];
+        for (int position = 0; position < positionStates.length; position++) {
+            positionStates[position] = NFAState.create();
+        }
+        addEdges(startState, rootInfo.first, positions, positionStates);
+        for (int position = 0; position < positionStates.length; position++) {
+            addEdges(positionStates[position], follows.get(position), positions, positionStates);
+        }
+        startState.setEnd(rootInfo.nullable);
+        BitSet last = rootInfo.last;
+        for (int position = last.nextSetBit(0); position >= 0; position = last.nextSetBit(position + 1)) {
+            positionStates[position].setEnd(true);
+        }
+        return NFATable.create(startState);
+    }
+
+    // 从 state 出发，遇到 targets 中位置的字符到达这个位置
+    private static void addEdges(NFAState state, BitSet targets, List<char[]> positions, NFAState[] positionStates) {
+        for (int position = targets.nextSetBit(0); position >= 0; position = targets.nextSetBit(position + 1)) {
+            for (char ch : positions.get(position)) {
+                state.addEdge(ch, positionStates[position]);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        String[] patterns = {"a(b|c)*d", "(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)", "((a|b)*|c)*d", "(ab|cd)*ef"};
+        for (String pattern : patterns) {
+            NFAGraph graph = NFARegexUtil.createNFAGraph(pattern);
+            graph.getEndState().setEnd(true);
+            NFATable thompson = NFATable.create(graph);
+            NFATable glushkov = build(pattern);
+            System.out.println(pattern + " Thompson: " + thompson.getStateCount() + " states, Glushkov: "
+                    + glushkov.getStateCount() + " states, ε-free: " + glushkov.isEpsilonFree());
+        }
+
+        // NFA 模拟的速度
+        char[] text = new char[1 << 20];
+        Random random = new Random(1);
+        for (int i = 0; i < text.length; i++) {
+            text[i] = random.nextBoolean() ? 'a' : 'b';
+        }
+        String pattern = "(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)";
+        NFAGraph thompsonGraph = NFARegexUtil.createNFAGraph(pattern);
+        thompsonGraph.getEndState().setEnd(true);
+        NFATable thompsonTable = NFATable.create(thompsonGraph);
+        NFATable glushkovTable = build(pattern);
+        for (int round = 0; round < 5; round++) {
+            long begin = System.nanoTime();
+            boolean thompsonMatch = NFASimulator.create(thompsonTable).isMatch(text, 0, text.length, null);
+            long thompsonTime = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            boolean glushkovMatch = NFASimulator.create(glushkovTable).isMatch(text, 0, text.length, null);
+            long glushkovTime = System.nanoTime() - begin;
+            System.out.println("NFA 模拟 Thompson: " + thompsonTime / 1000000 + "ms " + thompsonMatch
+                    + ", Glushkov: " + glushkovTime / 1000000 + "ms " + glushkovMatch);
+        }
+    }
+}
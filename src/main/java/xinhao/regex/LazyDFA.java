@@ -0,0 +1,346 @@
+package xinhao.regex;
+
+import java.util.*;
+
+/**
+ * @author by xinhao  2021/8/15
+ * 惰性 DFA: 不预先进行完整的子集构造，只有第一次遇到某个转换时，才计算 closure(edge(T, c))。
+ * 已经计算过的 DFA 状态和转换保存在缓存中，缓存占用的内存超过上限时，清空缓存重新开始；
+ * 如果一次匹配中缓存被清空太多次 (缓存颠簸)，就退回到 NFA 状态集合模拟。
+ * 除了普通的 (锚定的) DFA，还可以生成和 DFARegexUtil.NFAToDFA(nfaTable, true)、NFAToLeftmostDFA 对应的
+ * 不锚定的 DFA 和最靠左的 DFA，用于惰性 DFA 模式下的查找 (LazySearcher)。
+ * 缓存是可变的，所以一个 LazyDFA 不能被多个线程同时使用。
+ */
+public class LazyDFA {
+
+    // 默认的缓存内存上限
+    public static final int DEFAULT_MAX_CACHE_BYTES = 1 << 20;
+    // 默认一次匹配中最多清空缓存的次数，超过就退回到 NFA 模拟
+    public static final int DEFAULT_MAX_CLEARS = 3;
+    // 死状态，对应空的 NFA 状态集合
+    public static final int DEAD = 0;
+    // 还没有计算过的转换
+    private static final int UNKNOWN = -1;
+    // 估算内存时，每个 DFA 状态除了转换表和状态集合以外的固定开销 (HashMap 节点、key 对象、数组头)
+    private static final int STATE_OVERHEAD = 96;
+    // 锚定: 只从开始位置匹配
+    private static final int ANCHORED = 0;
+    // 不锚定: 开始状态的 ε-closure 加入到每一个状态中
+    private static final int UNANCHORED = 1;
+    // 最靠左: 和不锚定一样，但是到达终止状态之后不再添加开始状态
+    private static final int LEFTMOST = 2;
+
+    private final NFATable nfaTable;
+    private final int mode;
+    // 最靠左模式下，不再添加开始状态的 DFA 状态用这个额外的 NFA 状态编号标记
+    private final int stoppedMark;
+    private final CharClassMap classMap;
+    private final int classCount;
+    private final int maxCacheBytes;
+    private final int maxClears;
+
+    // NFA 状态集合 => DFA 状态
+    private final Map<StateSetKey, Integer> stateIndex = new HashMap<>();
+    // DFA 状态 => NFA 状态集合
+    private int[][] stateSets;
+    // 转换表，还没有计算的转换是 UNKNOWN
+    private int[] table;
+    private boolean[] ends;
+    private int stateCount;
+    // 开始状态，缓存清空之后需要重新计算
+    private int start = UNKNOWN;
+    // 缓存估算占用的内存
+    private long cacheBytes;
+    // 一共清空缓存的次数
+    private int clearCount;
+    // 一共生成过的 DFA 状态数，包括被清空的
+    private long addedStateCount;
+
+    // 计算状态集合用的临时数据
+    private final SparseSet scratch;
+    private final int[] stack;
+    // 缓存颠簸时使用的 NFA 模拟
+    private NFASimulator simulator;
+
+    private LazyDFA(NFATable nfaTable, int mode, int maxCacheBytes, int maxClears) {
+        this.nfaTable = nfaTable;
+        this.mode = mode;
+        this.stoppedMark = nfaTable.getStateCount();
+        this.classMap = nfaTable.getClassMap();
+        this.classCount = classMap.getClassCount();
+        this.maxCacheBytes = maxCacheBytes;
+        this.maxClears = maxClears;
+        this.scratch = new SparseSet(nfaTable.getStateCount() + 1);
+        this.stack = new int[nfaTable.getStateCount()];
+        clearCache();
+    }
+
+    public static LazyDFA create(NFATable nfaTable) {
+        return new LazyDFA(nfaTable, ANCHORED, DEFAULT_MAX_CACHE_BYTES, DEFAULT_MAX_CLEARS);
+    }
+
+    /**
+     * 不锚定的惰性 DFA，相当于在正则表达式前面加上 .*，和 DFARegexUtil.NFAToDFA(nfaTable, true) 对应
+     * @param nfaTable
+     * @return
+     */
+    public static LazyDFA createUnanchored(NFATable nfaTable) {
+        return new LazyDFA(nfaTable, UNANCHORED, DEFAULT_MAX_CACHE_BYTES, DEFAULT_MAX_CLEARS);
+    }
+
+    /**
+     * 查找最靠左的匹配使用的惰性 DFA，和 DFARegexUtil.NFAToLeftmostDFA 对应
+     * @param nfaTable
+     * @return
+     */
+    public static LazyDFA createLeftmost(NFATable nfaTable) {
+        return new LazyDFA(nfaTable, LEFTMOST, DEFAULT_MAX_CACHE_BYTES, DEFAULT_MAX_CLEARS);
+    }
+
+    /**
+     * @param nfaTable
+     * @param maxCacheBytes  缓存的内存上限，单位字节
+     * @param maxClears  一次匹配中最多清空缓存的次数，超过就退回到 NFA 模拟
+     * @return
+     */
+    public static LazyDFA create(NFATable nfaTable, int maxCacheBytes, int maxClears) {
+        return new LazyDFA(nfaTable, ANCHORED, maxCacheBytes, maxClears);
+    }
+
+    /**
+     * 字符数组 chars 中 [from, to) 的字符能否匹配
+     * @param chars
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean isMatch(char[] chars, int from, int to) {
+        int clears = clearCount;
+        int state = startState();
+        for (int pos = from; pos < to && state != DEAD; pos++) {
+            int charClass = classMap.classOf(chars[pos]);
+            int nextState = table[state * classCount + charClass];
+            if (nextState == UNKNOWN) {
+                nextState = computeNext(state, charClass);
+                if (mode == ANCHORED && clearCount - clears > maxClears) {
+                    // 缓存颠簸，DFA 已经没有优势了。NFA 模拟只能代替锚定的 DFA
+                    return getSimulator().isMatch(chars, from, to, null);
+                }
+            }
+            state = nextState;
+        }
+        return ends[state];
+    }
+
+    /**
+     * 整个字符序列 input 能否匹配，不会复制 input
+     * @param input
+     * @return
+     */
+    public boolean isMatch(CharSequence input) {
+        int clears = clearCount;
+        int state = startState();
+        int length = input.length();
+        for (int pos = 0; pos < length && state != DEAD; pos++) {
+            int charClass = classMap.classOf(input.charAt(pos));
+            int nextState = table[state * classCount + charClass];
+            if (nextState == UNKNOWN) {
+                nextState = computeNext(state, charClass);
+                if (mode == ANCHORED && clearCount - clears > maxClears) {
+                    return getSimulator().isMatch(input);
+                }
+            }
+            state = nextState;
+        }
+        return ends[state];
+    }
+
+    /**
+     * 从开始状态出发，从位置 from 开始向后读取字符，最后一次到达终止状态时的位置，和 DFATable.lastEnd 一样。
+     * 缓存颠簸时继续逐个计算状态，每个字符的代价和 NFA 模拟相当
+     * @param input
+     * @param from
+     * @return 没有到达过终止状态返回 -1
+     */
+    public int lastEnd(CharSequence input, int from) {
+        int state = startState();
+        int end = ends[state] ? from : -1;
+        int length = input.length();
+        for (int pos = from; pos < length && state != DEAD; pos++) {
+            int charClass = classMap.classOf(input.charAt(pos));
+            int nextState = table[state * classCount + charClass];
+            if (nextState == UNKNOWN) {
+                nextState = computeNext(state, charClass);
+            }
+            state = nextState;
+            if (ends[state]) {
+                end = pos + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 反向 NFA 使用: 从开始状态出发，从位置 to 开始向前读取字符，不会读取 limit 之前的字符，
+     * 最后一次到达终止状态时的位置，和 DFATable.lastStartReverse 一样
+     * @param input
+     * @param to
+     * @param limit
+     * @return 没有到达过终止状态返回 -1
+     */
+    public int lastStartReverse(CharSequence input, int to, int limit) {
+        int state = startState();
+        int begin = ends[state] ? to : -1;
+        for (int pos = to - 1; pos >= limit && state != DEAD; pos--) {
+            int charClass = classMap.classOf(input.charAt(pos));
+            int nextState = table[state * classCount + charClass];
+            if (nextState == UNKNOWN) {
+                nextState = computeNext(state, charClass);
+            }
+            state = nextState;
+            if (ends[state]) {
+                begin = pos;
+            }
+        }
+        return begin;
+    }
+
+    private int startState() {
+        if (start == UNKNOWN) {
+            scratch.clear();
+            nfaTable.closure(scratch, nfaTable.getStart(), stack);
+            start = addState(StateSetKey.create(scratch));
+        }
+        return start;
+    }
+
+    /**
+     * 计算 closure(edge(state, charClass))，并添加到缓存中
+     * @param state
+     * @param charClass
+     * @return 下一个 DFA 状态
+     */
+    private int computeNext(int state, int charClass) {
+        int[] states = stateSets[state];
+        scratch.clear();
+        if (mode == ANCHORED) {
+            nfaTable.move(states, charClass, scratch, stack);
+        } else if (mode == UNANCHORED) {
+            nfaTable.move(states, charClass, scratch, stack);
+            // 每一个位置都可能是匹配的开始位置
+            nfaTable.closure(scratch, nfaTable.getStart(), stack);
+        } else {
+            // 排序之后标记一定在最后
+            boolean stopped = isStopped(states);
+            if (stopped) {
+                states = Arrays.copyOf(states, states.length - 1);
+            }
+            nfaTable.move(states, charClass, scratch, stack);
+            // 已经有匹配结束，之后不再添加开始位置
+            if (!stopped && !ends[state]) {
+                nfaTable.closure(scratch, nfaTable.getStart(), stack);
+            } else if (!scratch.isEmpty()) {
+                scratch.add(stoppedMark);
+            }
+        }
+        StateSetKey key = StateSetKey.create(scratch);
+        Integer index = stateIndex.get(key);
+        if (index != null) {
+            table[state * classCount + charClass] = index;
+            return index;
+        }
+        int clears = clearCount;
+        int nextState = addState(key);
+        // 如果缓存被清空了，state 已经不存在了，不能再记录这个转换
+        if (clears == clearCount) {
+            table[state * classCount + charClass] = nextState;
+        }
+        return nextState;
+    }
+
+    // 添加一个新的 DFA 状态，缓存满了就先清空
+    private int addState(StateSetKey key) {
+        int[] states = key.getStates();
+        if (states.length == 0) {
+            return DEAD;
+        }
+        long bytes = stateBytes(states.length);
+        if (cacheBytes + bytes > maxCacheBytes) {
+            clearCache();
+            clearCount++;
+        }
+        if (stateCount == ends.length) {
+            int capacity = stateCount * 2;
+            stateSets = Arrays.copyOf(stateSets, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            table = Arrays.copyOf(table, capacity * classCount);
+            Arrays.fill(table, stateCount * classCount, table.length, UNKNOWN);
+        }
+        int index = stateCount++;
+        addedStateCount++;
+        stateSets[index] = states;
+        ends[index] = nfaTable.hasEnd(isStopped(states) ? Arrays.copyOf(states, states.length - 1) : states);
+        stateIndex.put(key, index);
+        cacheBytes += bytes;
+        return index;
+    }
+
+    // 清空缓存，只保留死状态
+    private void clearCache() {
+        stateIndex.clear();
+        int capacity = 16;
+        stateSets = new int[capacity][];
+        ends = new boolean[capacity];
+        table = new int[capacity * classCount];
+        Arrays.fill(table, classCount, table.length, UNKNOWN);
+        // 死状态的转换都指向自己，也就是 0
+        stateSets[DEAD] = new int[0];
+        stateCount = 1;
+        start = UNKNOWN;
+        cacheBytes = stateBytes(0);
+    }
+
+    // 最靠左模式下，状态集合中有不再添加开始状态的标记
+    private boolean isStopped(int[] states) {
+        return mode == LEFTMOST && states.length > 0 && states[states.length - 1] == stoppedMark;
+    }
+
+    // 估算一个 DFA 状态占用的内存
+    private long stateBytes(int setSize) {
+        return STATE_OVERHEAD + 4L * classCount + 4L * setSize;
+    }
+
+    private NFASimulator getSimulator() {
+        if (simulator == null) {
+            simulator = NFASimulator.create(nfaTable);
+        }
+        return simulator;
+    }
+
+    // 当前缓存中的 DFA 状态个数，包括死状态
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    public long getAddedStateCount() {
+        return addedStateCount;
+    }
+
+    public int getClearCount() {
+        return clearCount;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LazyDFA{");
+        sb.append("stateCount=").append(stateCount);
+        sb.append(", cacheBytes=").append(cacheBytes);
+        sb.append(", clearCount=").append(clearCount);
+        sb.append('}');
+        return sb.toString();
+    }
+}
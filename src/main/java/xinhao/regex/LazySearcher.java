@@ -0,0 +1,95 @@
+package xinhao.regex;
+
+import java.util.Iterator;
+
+/**
+ * @author by xinhao  2021/9/7
+ * 惰性 DFA 模式下的查找，步骤和 DFASearcher 一样，只是每一个 DFA 都换成了惰性 DFA:
+ * 最靠左的前向惰性 DFA 得到结束位置的上限，反向 NFA 的不锚定惰性 DFA 得到最靠左的开始位置，
+ * 原来的惰性 DFA 从开始位置得到最长的匹配。
+ * 不进行完整的子集构造，DFA 状态数是指数级别的正则表达式也不会在第一次查找时卡住，
+ * 每个字符的代价最多和 NFA 模拟相当。
+ * 惰性 DFA 的缓存是可变的，所以不是线程安全的，每个线程使用自己的 LazySearcher。
+ */
+public final class LazySearcher {
+
+    // 最靠左的前向惰性 DFA
+    private final LazyDFA leftmostDFA;
+    // 反向 NFA 的不锚定惰性 DFA
+    private final LazyDFA reverseSearchDFA;
+    // 原来的惰性 DFA
+    private final LazyDFA lazyDFA;
+
+    private LazySearcher(NFATable nfaTable, NFATable reverseNFATable) {
+        this.leftmostDFA = LazyDFA.createLeftmost(nfaTable);
+        this.reverseSearchDFA = LazyDFA.createUnanchored(reverseNFATable);
+        this.lazyDFA = LazyDFA.create(nfaTable);
+    }
+
+    public static LazySearcher create(NFATable nfaTable) {
+        return new LazySearcher(nfaTable, nfaTable.reverse());
+    }
+
+    /**
+     * @param nfaTable
+     * @param reverseNFATable  nfaTable.reverse() 的结果，多个 LazySearcher 可以共用
+     * @return
+     */
+    public static LazySearcher create(NFATable nfaTable, NFATable reverseNFATable) {
+        return new LazySearcher(nfaTable, reverseNFATable);
+    }
+
+    /**
+     * 从位置 from 开始查找第一个匹配，结果和 DFASearcher.find 一样
+     * @param input
+     * @param from
+     * @return 没有找到返回 null
+     */
+    public MatchRange find(CharSequence input, int from) {
+        if (from < 0 || from > input.length()) {
+            throw new IndexOutOfBoundsException("from: " + from + ", length: " + input.length());
+        }
+        // 1. 最靠左的匹配的结束位置的上限
+        int end = leftmostDFA.lastEnd(input, from);
+        if (end < 0) {
+            return null;
+        }
+        // 2. 结束位置不超过 end 的匹配中最靠左的开始位置
+        int start = reverseSearchDFA.lastStartReverse(input, end, from);
+        if (start < 0) {
+            throw new IllegalStateException("前向 DFA 和反向 DFA 不一致");
+        }
+        // 3. 从 start 开始的最长匹配
+        return MatchRange.create(start, lazyDFA.lastEnd(input, start));
+    }
+
+    /**
+     * 所有不重叠的匹配，和 DFASearcher.findAll 一样
+     * @param input
+     * @return
+     */
+    public Iterator<MatchRange> findAll(final CharSequence input) {
+        return new MatchIterator(input) {
+            @Override
+            MatchRange find(int from) {
+                return LazySearcher.this.find(input, from);
+            }
+        };
+    }
+
+    // 三个惰性 DFA 一共生成过的 DFA 状态数
+    public long getAddedStateCount() {
+        return leftmostDFA.getAddedStateCount() + reverseSearchDFA.getAddedStateCount()
+                + lazyDFA.getAddedStateCount();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LazySearcher{");
+        sb.append("leftmost=").append(leftmostDFA);
+        sb.append(", reverseSearch=").append(reverseSearchDFA);
+        sb.append(", lazy=").append(lazyDFA);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,368 @@
+package xinhao.regex;
+
+import java.util.*;
+
+/**
+ * @author by xinhao  2021/8/25
+ * 正则表达式中必须出现的字符串 (字面量)，以及使用它的预过滤。
+ * 比如 ERROR(c|d)ode 的每个匹配都以 ERROR 开头、以 ode 结尾。
+ * 查找时先用 String.indexOf 找到字面量 (JDK 对它有专门的优化，比逐个字符运行 DFA 快很多)，
+ * 找不到就一定没有匹配；找到了就可以跳过前面不可能有匹配的字符，只在候选位置附近运行 DFA。
+ * 分析在最小化的 DFA 上进行:
+ * 1. 前缀: 从开始状态出发，只要当前状态不是终止状态，并且只有一个字符能到达活状态，这个字符就是必须的；
+ * 2. 后缀: 在反向 DFA 上用同样的方法得到；
+ * 3. 中间的字面量: 所有匹配都要经过的状态 (必经节点) 出发，用同样的方法得到一个必须的字符串，前缀就是从开始状态出发的那一个。
+ * 创建之后不能被修改，可以被多个线程共享。
+ */
+public final class LiteralPrefilter {
+
+    // 字面量的最大长度
+    private static final int MAX_LITERAL_LENGTH = 64;
+    // DFA 状态数超过这个值时，不计算必经节点，只使用前缀
+    private static final int MAX_DOMINATOR_STATES = 512;
+
+    // 每个匹配都以 prefix 开头
+    private final String prefix;
+    // 每个匹配都以 suffix 结尾
+    private final String suffix;
+    // 每个匹配中都有的最长的字面量，可能就是 prefix
+    private final String factor;
+    // 匹配的开始位置到 factor 第一次出现的位置的最大距离，-1 表示没有上限
+    private final int factorOffset;
+
+    private LiteralPrefilter(String prefix, String suffix, String factor, int factorOffset) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.factor = factor;
+        this.factorOffset = factorOffset;
+    }
+
+    /**
+     * 分析正则表达式的字面量
+     * @param dfaTable  正则表达式的 DFA
+     * @param reverseTable  反向 NFA 得到的 DFA
+     * @return
+     */
+    public static LiteralPrefilter create(DFATable dfaTable, DFATable reverseTable) {
+        Analyzer analyzer = new Analyzer(dfaTable);
+        String prefix = analyzer.forcedLiteral(dfaTable.getStart());
+        String suffix = new StringBuilder(new Analyzer(reverseTable).forcedLiteral(reverseTable.getStart()))
+                .reverse().toString();
+        String factor = prefix;
+        int factorOffset = 0;
+        if (dfaTable.getStateCount() <= MAX_DOMINATOR_STATES) {
+            for (int state : analyzer.dominators()) {
+                String literal = analyzer.forcedLiteral(state);
+                if (literal.length() > factor.length()) {
+                    factor = literal;
+                    factorOffset = analyzer.maxDistance(state);
+                }
+            }
+        }
+        if (suffix.length() > factor.length()) {
+            // 后缀只能用来判断有没有匹配，不能跳过字符
+            factor = suffix;
+            factorOffset = -1;
+        }
+        return new LiteralPrefilter(prefix, suffix, factor, factorOffset);
+    }
+
+    /**
+     * 从位置 from 开始查找时，可以直接从返回的位置开始运行 DFA，前面的字符不可能是匹配的开始位置
+     * @param input
+     * @param from
+     * @return -1 表示 from 之后一定没有匹配
+     */
+    public int skipTo(CharSequence input, int from) {
+        if (factor.isEmpty()) {
+            return from;
+        }
+        int index = indexOf(input, factor, from);
+        if (index < 0) {
+            return -1;
+        }
+        return factorOffset < 0 ? from : Math.max(from, index - factorOffset);
+    }
+
+    /**
+     * 在 input 中从 from 开始查找 literal。String 和 StringBuilder 直接使用 JDK 的 indexOf
+     * @param input
+     * @param literal
+     * @param from
+     * @return
+     */
+    static int indexOf(CharSequence input, String literal, int from) {
+        if (input instanceof String) {
+            return ((String) input).indexOf(literal, from);
+        }
+        if (input instanceof StringBuilder) {
+            return ((StringBuilder) input).indexOf(literal, from);
+        }
+        char first = literal.charAt(0);
+        int max = input.length() - literal.length();
+        for (int pos = from; pos <= max; pos++) {
+            if (input.charAt(pos) != first) {
+                continue;
+            }
+            int k = 1;
+            while (k < literal.length() && input.charAt(pos + k) == literal.charAt(k)) {
+                k++;
+            }
+            if (k == literal.length()) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 在一个 DFA 上进行分析
+     */
+    private static final class Analyzer {
+        private final DFATable dfaTable;
+        private final int stateCount;
+        private final int classCount;
+        // 只包含一个字符的字符类对应的字符，其他字符类为 -1。字符类 0 包含所有没有出现过的字符
+        private final int[] singleChars;
+        // 能到达终止状态的状态
+        private final boolean[] live;
+        // 每个状态的前驱状态
+        private final List<List<Integer>> preds;
+
+        private Analyzer(DFATable dfaTable) {
+            this.dfaTable = dfaTable;
+            this.stateCount = dfaTable.getStateCount();
+            this.classCount = dfaTable.getClassCount();
+            this.singleChars = new int[classCount];
+            Arrays.fill(singleChars, -1);
+            int[] charCounts = new int[classCount];
+            CharClassMap classMap = dfaTable.getClassMap();
+            char[] chars = classMap.getChars();
+            for (char ch : chars) {
+                int charClass = classMap.classOf(ch);
+                if (charCounts[charClass]++ == 0) {
+                    singleChars[charClass] = ch;
+                }
+            }
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                if (charClass == 0 || charCounts[charClass] != 1) {
+                    singleChars[charClass] = -1;
+                }
+            }
+            this.preds = new ArrayList<>(stateCount);
+            for (int state = 0; state < stateCount; state++) {
+                preds.add(new ArrayList<Integer>());
+            }
+            for (int state = 1; state < stateCount; state++) {
+                for (int charClass = 0; charClass < classCount; charClass++) {
+                    int next = dfaTable.moveByClass(state, charClass);
+                    if (next != DFATable.DEAD) {
+                        preds.get(next).add(state);
+                    }
+                }
+            }
+            // 从终止状态反向遍历得到活状态
+            this.live = new boolean[stateCount];
+            Deque<Integer> stack = new ArrayDeque<>();
+            for (int state = 1; state < stateCount; state++) {
+                if (dfaTable.isEnd(state)) {
+                    live[state] = true;
+                    stack.push(state);
+                }
+            }
+            while (!stack.isEmpty()) {
+                for (int pred : preds.get(stack.pop())) {
+                    if (!live[pred]) {
+                        live[pred] = true;
+                        stack.push(pred);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 从状态 state 出发必须读取的字符串: 当前状态不是终止状态，并且只有一个字符能到达活状态
+         * @param state
+         * @return
+         */
+        private String forcedLiteral(int state) {
+            StringBuilder builder = new StringBuilder();
+            boolean[] visited = new boolean[stateCount];
+            while (live[state] && !dfaTable.isEnd(state) && !visited[state]
+                    && builder.length() < MAX_LITERAL_LENGTH) {
+                visited[state] = true;
+                int onlyClass = -1;
+                for (int charClass = 0; charClass < classCount; charClass++) {
+                    if (live[dfaTable.moveByClass(state, charClass)]) {
+                        if (onlyClass >= 0) {
+                            return builder.toString();
+                        }
+                        onlyClass = charClass;
+                    }
+                }
+                if (onlyClass < 0 || singleChars[onlyClass] < 0) {
+                    break;
+                }
+                builder.append((char) singleChars[onlyClass]);
+                state = dfaTable.moveByClass(state, onlyClass);
+            }
+            return builder.toString();
+        }
+
+        /**
+         * 所有匹配都要经过的状态 (到所有终止状态的必经节点)，按照广度优先的顺序
+         * @return
+         */
+        private List<Integer> dominators() {
+            int start = dfaTable.getStart();
+            if (!live[start]) {
+                return Collections.emptyList();
+            }
+            // 从开始状态能到达的活状态，广度优先的顺序
+            List<Integer> order = new ArrayList<>();
+            boolean[] reached = new boolean[stateCount];
+            reached[start] = true;
+            order.add(start);
+            for (int i = 0; i < order.size(); i++) {
+                int state = order.get(i);
+                for (int charClass = 0; charClass < classCount; charClass++) {
+                    int next = dfaTable.moveByClass(state, charClass);
+                    if (live[next] && !reached[next]) {
+                        reached[next] = true;
+                        order.add(next);
+                    }
+                }
+            }
+            // 迭代计算必经节点集合: dom(n) = {n} ∪ (所有前驱的 dom 的交集)
+            BitSet[] doms = new BitSet[stateCount];
+            for (int state : order) {
+                doms[state] = new BitSet(stateCount);
+                if (state == start) {
+                    doms[state].set(start);
+                } else {
+                    doms[state].set(0, stateCount);
+                }
+            }
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int state : order) {
+                    if (state == start) {
+                        continue;
+                    }
+                    BitSet dom = null;
+                    for (int pred : preds.get(state)) {
+                        if (!reached[pred]) {
+                            continue;
+                        }
+                        if (dom == null) {
+                            dom = (BitSet) doms[pred].clone();
+                        } else {
+                            dom.and(doms[pred]);
+                        }
+                    }
+                    dom.set(state);
+                    if (!dom.equals(doms[state])) {
+                        doms[state] = dom;
+                        changed = true;
+                    }
+                }
+            }
+            // 所有终止状态的必经节点的交集
+            BitSet result = null;
+            for (int state : order) {
+                if (dfaTable.isEnd(state)) {
+                    if (result == null) {
+                        result = (BitSet) doms[state].clone();
+                    } else {
+                        result.and(doms[state]);
+                    }
+                }
+            }
+            List<Integer> dominators = new ArrayList<>();
+            for (int state : order) {
+                if (result.get(state)) {
+                    dominators.add(state);
+                }
+            }
+            return dominators;
+        }
+
+        /**
+         * 从开始状态第一次到达 target 的最长路径，路径中间不经过 target
+         * @param target
+         * @return 有环时没有上限，返回 -1
+         */
+        private int maxDistance(int target) {
+            // 能到达 target 的状态，反向遍历时不经过 target
+            boolean[] reachTarget = new boolean[stateCount];
+            Deque<Integer> stack = new ArrayDeque<>();
+            reachTarget[target] = true;
+            stack.push(target);
+            while (!stack.isEmpty()) {
+                int state = stack.pop();
+                for (int pred : preds.get(state)) {
+                    if (!reachTarget[pred] && pred != target) {
+                        reachTarget[pred] = true;
+                        stack.push(pred);
+                    }
+                }
+            }
+            // 记忆化深度优先遍历，0 没有访问，1 正在访问，2 访问完成
+            int[] colors = new int[stateCount];
+            int[] distances = new int[stateCount];
+            return longestPath(dfaTable.getStart(), target, reachTarget, colors, distances);
+        }
+
+        private int longestPath(int state, int target, boolean[] reachTarget, int[] colors, int[] distances) {
+            if (state == target) {
+                return 0;
+            }
+            if (colors[state] == 1) {
+                return -1;
+            }
+            if (colors[state] == 2) {
+                return distances[state];
+            }
+            colors[state] = 1;
+            int longest = 0;
+            for (int charClass = 0; charClass < classCount; charClass++) {
+                int next = dfaTable.moveByClass(state, charClass);
+                if (!reachTarget[next]) {
+                    continue;
+                }
+                int distance = longestPath(next, target, reachTarget, colors, distances);
+                if (distance < 0) {
+                    return -1;
+                }
+                longest = Math.max(longest, distance + 1);
+            }
+            colors[state] = 2;
+            distances[state] = longest;
+            return longest;
+        }
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public String getFactor() {
+        return factor;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LiteralPrefilter{");
+        sb.append("prefix='").append(prefix).append('\'');
+        sb.append(", suffix='").append(suffix).append('\'');
+        sb.append(", factor='").append(factor).append('\'');
+        sb.append(", factorOffset=").append(factorOffset);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,286 @@
+package xinhao.regex;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author by xinhao  2021/9/3
+ * 一次匹配的预算: 最大步数、最大递归深度、超时时间，以及线程中断和 CancellationToken 的取消。
+ * 回溯算法每次递归调用是一步；NFA 模拟每读取一个字符，当前状态集合中的每个状态是一步。
+ * MatchBudget 本身不能被修改，可以被多个线程共享；每次匹配通过 start() 得到自己的 Meter 记录消耗。
+ * 超过限制时抛出 MatchBudgetExceededException。
+ * 默认 1MB 的线程栈在解释执行时大约只能递归 3000 多层，线程栈比递归深度的上限先用完时也抛出 DEPTH，
+ * 异常中的最大递归深度就是线程栈实际能达到的深度。
+ */
+public final class MatchBudget {
+
+    // 没有任何限制，只用于统计消耗
+    public static final MatchBudget UNLIMITED = new MatchBudget(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, null);
+
+    // 每执行这么多步检查一次时间、中断和取消，检查之间的步数只需要一次比较
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final long maxSteps;
+    private final int maxDepth;
+    // 超时时间，没有限制时是 Long.MAX_VALUE
+    private final long timeoutNanos;
+    // 没有时为 null
+    private final CancellationToken token;
+
+    private MatchBudget(long maxSteps, int maxDepth, long timeoutNanos, CancellationToken token) {
+        this.maxSteps = maxSteps;
+        this.maxDepth = maxDepth;
+        this.timeoutNanos = timeoutNanos;
+        this.token = token;
+    }
+
+    /**
+     * @param maxSteps  最大步数，Long.MAX_VALUE 表示没有限制
+     * @param maxDepth  回溯算法的最大递归深度，Integer.MAX_VALUE 表示没有限制
+     * @param timeout  超时时间，Long.MAX_VALUE 表示没有限制
+     * @param unit
+     * @return
+     */
+    public static MatchBudget create(long maxSteps, int maxDepth, long timeout, TimeUnit unit) {
+        return create(maxSteps, maxDepth, timeout, unit, null);
+    }
+
+    /**
+     * @param maxSteps  最大步数，Long.MAX_VALUE 表示没有限制
+     * @param maxDepth  回溯算法的最大递归深度，Integer.MAX_VALUE 表示没有限制
+     * @param timeout  超时时间，Long.MAX_VALUE 表示没有限制
+     * @param unit
+     * @param token  取消匹配的令牌，为 null 时只能通过中断线程取消
+     * @return
+     */
+    public static MatchBudget create(long maxSteps, int maxDepth, long timeout, TimeUnit unit,
+                                     CancellationToken token) {
+        if (maxSteps <= 0 || maxDepth <= 0 || timeout <= 0) {
+            throw new IllegalArgumentException("限制必须大于 0: maxSteps=" + maxSteps + ", maxDepth=" + maxDepth
+                    + ", timeout=" + timeout);
+        }
+        long timeoutNanos = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : unit.toNanos(timeout);
+        return new MatchBudget(maxSteps, maxDepth, timeoutNanos, token);
+    }
+
+    /**
+     * 开始一次匹配，立即检查一次中断和取消
+     * @return
+     */
+    public Meter start() {
+        Meter meter = new Meter(this);
+        meter.check();
+        return meter;
+    }
+
+    /**
+     * 只统计消耗的 Meter: 不检查时间、中断和取消，也没有步数和递归深度的上限。
+     * 给没有预算的匹配使用，这样的匹配在中断标志被设置时也要正常完成
+     * @return
+     */
+    static Meter counting() {
+        Meter meter = new Meter(UNLIMITED);
+        meter.nextCheck = Long.MAX_VALUE;
+        return meter;
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public CancellationToken getToken() {
+        return token;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("MatchBudget{");
+        sb.append("maxSteps=").append(maxSteps);
+        sb.append(", maxDepth=").append(maxDepth);
+        sb.append(", timeoutNanos=").append(timeoutNanos);
+        sb.append(", token=").append(token);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // 1. 指数级的回溯: (a|aa)*b 匹配 30 个 a
+        NFAGraph graph = NFARegexUtil.createNFAGraph("(a|aa)*b");
+        graph.getEndState().setEnd(true);
+        char[] chars = new char[30];
+        java.util.Arrays.fill(chars, 'a');
+        MatchBudget budget = create(1000000, 2000, 1, TimeUnit.SECONDS);
+        try {
+            NFARegexUtil.isMatch(graph.getStartState(), chars, 0, RecordNFAState.create(graph.getStartState()),
+                    budget.start());
+        } catch (MatchBudgetExceededException e) {
+            System.out.println("回溯: " + e.getMessage());
+        }
+
+        // 2. 很长的输入，递归深度和输入长度成正比，没有限制时会栈溢出
+        final NFAGraph starGraph = NFARegexUtil.createNFAGraph("a*");
+        starGraph.getEndState().setEnd(true);
+        final char[] longChars = new char[1 << 20];
+        java.util.Arrays.fill(longChars, 'a');
+        try {
+            NFARegexUtil.isMatch(starGraph.getStartState(), longChars, 0,
+                    RecordNFAState.create(starGraph.getStartState()), budget.start());
+        } catch (MatchBudgetExceededException e) {
+            System.out.println("递归深度: " + e.getMessage());
+        }
+
+        // 3. ε有向边 组成的环不读取字符也会无限递归，线程栈在到达递归深度的上限之前就用完了
+        NFAGraph loopGraph = NFARegexUtil.createNFAGraph("(((b)*|(c)+))+");
+        loopGraph.getEndState().setEnd(true);
+        try {
+            NFARegexUtil.isMatch(loopGraph.getStartState(), "bcbcbcd".toCharArray(), 0,
+                    RecordNFAState.create(loopGraph.getStartState()),
+                    create(1000000, 1000000, 1, TimeUnit.SECONDS).start());
+        } catch (MatchBudgetExceededException e) {
+            System.out.println("线程栈: " + e.getMessage());
+        }
+
+        // 4. NFA 模拟不会回溯，同样的输入在预算内完成。模拟器只生成一次，每次匹配重复使用
+        NFASimulator simulator = NFASimulator.create(NFATable.create(graph));
+        for (int length : new int[]{30, 1000}) {
+            MatchBudget.Meter meter = budget.start();
+            char[] input = new char[length];
+            java.util.Arrays.fill(input, 'a');
+            boolean matched = NFARegexUtil.isMatch(simulator, new String(input), null, meter);
+            System.out.println("NFA 模拟: " + length + " " + matched + " " + meter);
+        }
+
+        // 5. 另一个线程取消
+        final CancellationToken token = CancellationToken.create();
+        final MatchBudget cancellable = create(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE,
+                TimeUnit.NANOSECONDS, token);
+        final char[] slowChars = new char[60];
+        java.util.Arrays.fill(slowChars, 'a');
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    NFARegexUtil.isMatch(graph.getStartState(), slowChars, 0,
+                            RecordNFAState.create(graph.getStartState()), cancellable.start());
+                } catch (MatchBudgetExceededException e) {
+                    System.out.println("取消: " + e.getMessage());
+                }
+            }
+        });
+        worker.start();
+        Thread.sleep(100);
+        token.cancel();
+        worker.join();
+    }
+
+    /**
+     * 一次匹配消耗的预算，匹配结束之后 (包括抛出异常之后) 可以读取。不是线程安全的
+     */
+    public static final class Meter {
+        private final MatchBudget budget;
+        private final long startNanos;
+        private long steps;
+        private long backtracks;
+        private int maxDepth;
+        // 步数达到这个值时进入 check，检查步数上限、时间、中断和取消
+        private long nextCheck;
+
+        private Meter(MatchBudget budget) {
+            this.budget = budget;
+            this.startNanos = System.nanoTime();
+        }
+
+        // 执行了一步
+        void step() {
+            if (++steps >= nextCheck) {
+                check();
+            }
+        }
+
+        // 执行了 count 步
+        void step(int count) {
+            steps += count;
+            if (steps >= nextCheck) {
+                check();
+            }
+        }
+
+        // 回溯算法进入第 depth 层递归
+        void enter(int depth) {
+            if (depth > maxDepth) {
+                maxDepth = depth;
+                if (depth > budget.maxDepth) {
+                    throw exceeded(MatchBudgetExceededException.Reason.DEPTH);
+                }
+            }
+        }
+
+        // 回溯算法退回上一层
+        void backtrack() {
+            backtracks++;
+        }
+
+        private void check() {
+            if (steps > budget.maxSteps) {
+                throw exceeded(MatchBudgetExceededException.Reason.STEPS);
+            }
+            if (budget.timeoutNanos != Long.MAX_VALUE && System.nanoTime() - startNanos > budget.timeoutNanos) {
+                throw exceeded(MatchBudgetExceededException.Reason.DEADLINE);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // 不清除中断标志，调用者仍然可以看到
+                throw exceeded(MatchBudgetExceededException.Reason.INTERRUPTED);
+            }
+            if (budget.token != null && budget.token.isCancelled()) {
+                throw exceeded(MatchBudgetExceededException.Reason.CANCELLED);
+            }
+            // 下一次检查: CHECK_INTERVAL 步之后，或者刚好超过步数上限的时候
+            long limit = budget.maxSteps == Long.MAX_VALUE ? Long.MAX_VALUE : budget.maxSteps + 1;
+            nextCheck = steps < limit - CHECK_INTERVAL ? Math.min(steps + CHECK_INTERVAL, limit) : limit;
+        }
+
+        MatchBudgetExceededException exceeded(MatchBudgetExceededException.Reason reason) {
+            return new MatchBudgetExceededException(reason, steps, maxDepth, getElapsedNanos());
+        }
+
+        public MatchBudget getBudget() {
+            return budget;
+        }
+
+        public long getSteps() {
+            return steps;
+        }
+
+        // 回溯算法退回上一层的次数
+        public long getBacktracks() {
+            return backtracks;
+        }
+
+        // 回溯算法到达过的最大递归深度
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        public long getElapsedNanos() {
+            return System.nanoTime() - startNanos;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("Meter{");
+            sb.append("steps=").append(steps);
+            sb.append(", backtracks=").append(backtracks);
+            sb.append(", maxDepth=").append(maxDepth);
+            sb.append(", elapsedNanos=").append(getElapsedNanos());
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+}
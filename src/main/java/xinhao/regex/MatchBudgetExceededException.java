@@ -0,0 +1,54 @@
+package xinhao.regex;
+
+/**
+ * @author by xinhao  2021/9/3
+ * 匹配超过了 MatchBudget 的限制，或者被中断、被取消。
+ * 记录了抛出时已经消耗的步数、最大递归深度和时间，可以用来调整限制。
+ */
+public class MatchBudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        // 步数超过上限
+        STEPS,
+        // 递归深度超过上限
+        DEPTH,
+        // 超过截止时间
+        DEADLINE,
+        // 线程被中断
+        INTERRUPTED,
+        // CancellationToken 被取消
+        CANCELLED
+    }
+
+    private final Reason reason;
+    private final long steps;
+    private final int maxDepth;
+    private final long elapsedNanos;
+
+    public MatchBudgetExceededException(Reason reason, long steps, int maxDepth, long elapsedNanos) {
+        super("匹配停止 (" + reason + "): 已经执行 " + steps + " 步，最大递归深度 " + maxDepth
+                + "，耗时 " + elapsedNanos / 1000 + "us");
+        this.reason = reason;
+        this.steps = steps;
+        this.maxDepth = maxDepth;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
@@ -0,0 +1,54 @@
+package xinhao.regex;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * @author by xinhao  2021/9/7
+ * 所有不重叠的匹配，下一次查找从上一个匹配的结束位置开始；空匹配之后跳过一个字符。
+ * DFASearcher 和 LazySearcher 共用，子类只需要实现从某个位置开始的查找
+ */
+abstract class MatchIterator implements Iterator<MatchRange> {
+
+    private final CharSequence input;
+    // 下一次查找的开始位置，-1 表示已经查找完了
+    private int from = 0;
+    // 下一个匹配，null 表示还没有查找
+    private MatchRange next;
+
+    MatchIterator(CharSequence input) {
+        this.input = input;
+    }
+
+    /**
+     * 从位置 from 开始查找第一个匹配
+     * @param from
+     * @return 没有找到返回 null
+     */
+    abstract MatchRange find(int from);
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && from >= 0) {
+            next = find(from);
+            if (next == null) {
+                from = -1;
+            } else if (next.length() > 0) {
+                from = next.getEnd();
+            } else {
+                from = next.getEnd() < input.length() ? next.getEnd() + 1 : -1;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public MatchRange next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        MatchRange range = next;
+        next = null;
+        return range;
+    }
+}
@@ -0,0 +1,73 @@
+package xinhao.regex;
+
+/**
+ * @author by xinhao  2021/9/2
+ * 匹配的监听器，用于统计每个正则表达式的开销，可以把数据转发到任何监控系统。
+ * 通过 Pattern.compile(pattern, flags, listener) 或者 PatternCache.create(maxWeight, listener) 设置，
+ * 没有设置监听器时只在每次调用的入口多一次 null 判断，逐个字符的循环没有任何变化。
+ * 回调在匹配的线程中同步执行，可能被多个线程同时调用，实现必须是线程安全的，并且应该尽快返回。
+ * 所有方法都有空的默认实现，只需要实现关心的方法。
+ * MatchStatistics 在进程内汇总；JDK 11 及以上可以使用 src/jfr/java 中的 JfrMatchListener 输出 JFR 事件。
+ */
+public interface MatchListener {
+
+    /**
+     * 编译完成
+     * @param pattern  正则表达式
+     * @param flags
+     * @param nanos  编译的耗时
+     * @param nfaStates  NFA 状态数
+     * @param dfaStates  最小化之后的 DFA 状态数，惰性 DFA 模式下为 0
+     */
+    default void compiled(String pattern, int flags, long nanos, int nfaStates, int dfaStates) {
+    }
+
+    /**
+     * 一次完整输入的匹配 (Pattern.matches、Matcher.matches、StreamMatcher.finish)
+     * @param pattern
+     * @param length  输入的字符数，StreamMatcher 中是确定不可能匹配之前读取的字符数
+     * @param matched  是否匹配
+     */
+    default void matched(String pattern, long length, boolean matched) {
+    }
+
+    /**
+     * 一批输入的完整匹配 (BatchMatcher)，相当于 inputs 次 matched 合并成一次报告。
+     * 惰性 DFA 模式下每个输入由 Matcher 通过 matched 报告，不调用这个方法
+     * @param pattern
+     * @param inputs  输入的个数
+     * @param chars  所有输入的字符数之和
+     * @param matched  匹配的输入个数
+     */
+    default void batchMatched(String pattern, int inputs, long chars, int matched) {
+    }
+
+    /**
+     * 一次查找 (Pattern.find、findAll 的每一次查找、ParallelSearcher.findAll、count)
+     * @param pattern
+     * @param chars  查找经过的字符数: 从开始位置到最后一个匹配的结束位置，没有 (更多) 匹配时到输入的结尾
+     * @param matches  找到的匹配个数，Pattern.find 和 findAll 的每一次查找是 0 或者 1
+     */
+    default void searched(String pattern, long chars, long matches) {
+    }
+
+    /**
+     * 一次匹配中惰性 DFA 新生成了 DFA 状态。没有新生成状态时不调用
+     * @param pattern
+     * @param addedStates  新生成的 DFA 状态数
+     * @param cacheClears  缓存满了被清空的次数
+     */
+    default void lazyStatesAdded(String pattern, int addedStates, int cacheClears) {
+    }
+
+    /**
+     * 一次回溯匹配 (NFARegexUtil.isMatch 的回溯算法)
+     * @param pattern  调用者传入的正则表达式，用于区分统计数据
+     * @param length  输入的字符数
+     * @param steps  递归调用的次数
+     * @param backtracks  尝试失败、退回上一层继续尝试的次数
+     * @param matched
+     */
+    default void backtracked(String pattern, int length, long steps, long backtracks, boolean matched) {
+    }
+}
@@ -0,0 +1,57 @@
+package xinhao.regex;
+
+/**
+ * @author by xinhao  2021/8/20
+ * 一次匹配在输入字符序列中的位置 [start, end)
+ */
+public final class MatchRange {
+
+    // 匹配的开始位置，包含
+    private final int start;
+    // 匹配的结束位置，不包含
+    private final int end;
+
+    private MatchRange(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public static MatchRange create(int start, int end) {
+        return new MatchRange(start, end);
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    // 匹配的字符
+    public String group(CharSequence input) {
+        return input.subSequence(start, end).toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MatchRange that = (MatchRange) o;
+        return start == that.start && end == that.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * start + end;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+}
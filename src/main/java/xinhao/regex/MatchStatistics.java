@@ -0,0 +1,266 @@
+package xinhao.regex;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author by xinhao  2021/9/2
+ * 按正则表达式汇总统计数据的监听器，不依赖任何监控系统，可以定期读取 snapshot() 导出。
+ * 完整输入的匹配和查找分开统计。
+ * 计数器使用 LongAdder，多个线程同时匹配时竞争很小。
+ */
+public final class MatchStatistics implements MatchListener {
+
+    /**
+     * 一个正则表达式的统计数据
+     */
+    public static final class Stats {
+        private final LongAdder compileCount = new LongAdder();
+        private final LongAdder compileNanos = new LongAdder();
+        // 最后一次编译得到的自动机大小
+        private volatile int nfaStates;
+        private volatile int dfaStates;
+        private final LongAdder matchCount = new LongAdder();
+        private final LongAdder matchedCount = new LongAdder();
+        private final LongAdder chars = new LongAdder();
+        private final LongAdder lazyStates = new LongAdder();
+        private final LongAdder cacheClears = new LongAdder();
+        private final LongAdder backtrackSteps = new LongAdder();
+        private final LongAdder backtracks = new LongAdder();
+        private final LongAdder searchCount = new LongAdder();
+        private final LongAdder searchMatches = new LongAdder();
+        private final LongAdder searchChars = new LongAdder();
+
+        // 复制当前的值，复制得到的对象不会再变化
+        private Stats copy() {
+            Stats copy = new Stats();
+            copy.compileCount.add(compileCount.sum());
+            copy.compileNanos.add(compileNanos.sum());
+            copy.nfaStates = nfaStates;
+            copy.dfaStates = dfaStates;
+            copy.matchCount.add(matchCount.sum());
+            copy.matchedCount.add(matchedCount.sum());
+            copy.chars.add(chars.sum());
+            copy.lazyStates.add(lazyStates.sum());
+            copy.cacheClears.add(cacheClears.sum());
+            copy.backtrackSteps.add(backtrackSteps.sum());
+            copy.backtracks.add(backtracks.sum());
+            copy.searchCount.add(searchCount.sum());
+            copy.searchMatches.add(searchMatches.sum());
+            copy.searchChars.add(searchChars.sum());
+            return copy;
+        }
+
+        public long getCompileCount() {
+            return compileCount.sum();
+        }
+
+        public long getCompileNanos() {
+            return compileNanos.sum();
+        }
+
+        public int getNfaStates() {
+            return nfaStates;
+        }
+
+        public int getDfaStates() {
+            return dfaStates;
+        }
+
+        // 完整输入的匹配次数，包括回溯匹配和 BatchMatcher 中的每个输入
+        public long getMatchCount() {
+            return matchCount.sum();
+        }
+
+        public long getMatchedCount() {
+            return matchedCount.sum();
+        }
+
+        // 所有匹配的输入字符数之和
+        public long getChars() {
+            return chars.sum();
+        }
+
+        public long getLazyStates() {
+            return lazyStates.sum();
+        }
+
+        public long getCacheClears() {
+            return cacheClears.sum();
+        }
+
+        public long getBacktrackSteps() {
+            return backtrackSteps.sum();
+        }
+
+        public long getBacktracks() {
+            return backtracks.sum();
+        }
+
+        // 查找的次数，findAll 的每一次查找都算一次
+        public long getSearchCount() {
+            return searchCount.sum();
+        }
+
+        // 查找找到的匹配个数
+        public long getSearchMatches() {
+            return searchMatches.sum();
+        }
+
+        // 所有查找经过的字符数之和
+        public long getSearchChars() {
+            return searchChars.sum();
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("Stats{");
+            sb.append("compileCount=").append(getCompileCount());
+            sb.append(", compileNanos=").append(getCompileNanos());
+            sb.append(", nfaStates=").append(nfaStates);
+            sb.append(", dfaStates=").append(dfaStates);
+            sb.append(", matchCount=").append(getMatchCount());
+            sb.append(", matchedCount=").append(getMatchedCount());
+            sb.append(", chars=").append(getChars());
+            sb.append(", lazyStates=").append(getLazyStates());
+            sb.append(", cacheClears=").append(getCacheClears());
+            sb.append(", backtrackSteps=").append(getBacktrackSteps());
+            sb.append(", backtracks=").append(getBacktracks());
+            sb.append(", searchCount=").append(getSearchCount());
+            sb.append(", searchMatches=").append(getSearchMatches());
+            sb.append(", searchChars=").append(getSearchChars());
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    private final ConcurrentHashMap<String, Stats> statsMap = new ConcurrentHashMap<>();
+
+    @Override
+    public void compiled(String pattern, int flags, long nanos, int nfaStates, int dfaStates) {
+        Stats stats = statsOf(pattern);
+        stats.compileCount.increment();
+        stats.compileNanos.add(nanos);
+        stats.nfaStates = nfaStates;
+        stats.dfaStates = dfaStates;
+    }
+
+    @Override
+    public void matched(String pattern, long length, boolean matched) {
+        Stats stats = statsOf(pattern);
+        stats.matchCount.increment();
+        stats.chars.add(length);
+        if (matched) {
+            stats.matchedCount.increment();
+        }
+    }
+
+    @Override
+    public void batchMatched(String pattern, int inputs, long chars, int matched) {
+        Stats stats = statsOf(pattern);
+        stats.matchCount.add(inputs);
+        stats.chars.add(chars);
+        stats.matchedCount.add(matched);
+    }
+
+    @Override
+    public void searched(String pattern, long chars, long matches) {
+        Stats stats = statsOf(pattern);
+        stats.searchCount.increment();
+        stats.searchChars.add(chars);
+        stats.searchMatches.add(matches);
+    }
+
+    @Override
+    public void lazyStatesAdded(String pattern, int addedStates, int cacheClears) {
+        Stats stats = statsOf(pattern);
+        stats.lazyStates.add(addedStates);
+        stats.cacheClears.add(cacheClears);
+    }
+
+    @Override
+    public void backtracked(String pattern, int length, long steps, long backtracks, boolean matched) {
+        Stats stats = statsOf(pattern);
+        stats.backtrackSteps.add(steps);
+        stats.backtracks.add(backtracks);
+        matched(pattern, length, matched);
+    }
+
+    private Stats statsOf(String pattern) {
+        Stats stats = statsMap.get(pattern);
+        if (stats == null) {
+            Stats newStats = new Stats();
+            stats = statsMap.putIfAbsent(pattern, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 正则表达式的统计数据，计数器是实时的
+     * @param pattern
+     * @return 还没有数据时返回 null
+     */
+    public Stats get(String pattern) {
+        return statsMap.get(pattern);
+    }
+
+    /**
+     * 所有正则表达式的统计数据，按正则表达式排序。
+     * 每个 Stats 都是调用时复制的，之后的匹配不会改变返回的数据；
+     * 不同计数器不是在同一时刻读取的，匹配还在进行时它们之间可能有很小的误差
+     * @return
+     */
+    public Map<String, Stats> snapshot() {
+        Map<String, Stats> snapshot = new TreeMap<>();
+        for (Map.Entry<String, Stats> entry : statsMap.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().copy());
+        }
+        return snapshot;
+    }
+
+    public void clear() {
+        statsMap.clear();
+    }
+
+    public static void main(String[] args) {
+        MatchStatistics statistics = new MatchStatistics();
+        Pattern dfa = Pattern.compile("a(b|c)*d", 0, statistics);
+        // 超过 64 个位置，不能使用位并行模拟，使用惰性 DFA
+        StringBuilder regex = new StringBuilder("(a|b)*a");
+        for (int i = 0; i < 70; i++) {
+            regex.append("(a|b)");
+        }
+        Pattern lazy = Pattern.compile(regex.toString(), Pattern.LAZY_DFA, statistics);
+        Matcher matcher = lazy.matcher();
+        StringBuilder input = new StringBuilder();
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < 1000; i++) {
+            input.append(random.nextBoolean() ? 'a' : 'b');
+        }
+        for (int i = 0; i < 100; i++) {
+            dfa.matches("abcbcbd");
+            matcher.matches(input);
+        }
+        // 查找也会报告: 每一次查找经过的字符数和找到的匹配个数
+        for (Iterator<MatchRange> it = dfa.findAll("xxabdyyacbdzz"); it.hasNext(); ) {
+            it.next();
+        }
+        BatchMatcher.create(dfa).matchAll(new String[]{"abd", "acd", "abx"});
+        NFAGraph graph = NFARegexUtil.createNFAGraph("(a|aa)*b");
+        graph.getEndState().setEnd(true);
+        char[] chars = "aaaaaaaaaaaaaaaaaaaa".toCharArray();
+        NFARegexUtil.isMatch("(a|aa)*b", graph.getStartState(), chars, RecordNFAState.create(graph.getStartState()),
+                statistics);
+        for (Map.Entry<String, Stats> entry : statistics.snapshot().entrySet()) {
+            String pattern = entry.getKey();
+            System.out.println((pattern.length() > 30 ? pattern.substring(0, 30) + "..." : pattern)
+                    + " " + entry.getValue());
+        }
+    }
+}
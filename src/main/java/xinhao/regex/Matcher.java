@@ -0,0 +1,160 @@
+package xinhao.regex;
+
+/**
+ * @author by xinhao  2021/8/12
+ * 基于 DFA 转换表的匹配器。
+ * 匹配器保存了匹配需要的临时数据 (惰性 DFA 的缓存、NFA 模拟的状态集合)，这些数据可以重复使用，
+ * 所以匹配器不是线程安全的，每个线程应该通过 Pattern.matcher() 创建自己的匹配器。
+ */
+public class Matcher {
+
+    // 对应的正则表达式，直接通过 DFA 转换表创建时为 null
+    private final Pattern pattern;
+    // 编译之后的 DFA 转换表，惰性 DFA 模式下为 null
+    private final DFATable dfaTable;
+    // 位并行模拟，NFA 状态少时代替惰性 DFA
+    private final BitParallelMatcher bitParallel;
+    // 生成的字节码，没有时为 null
+    private final CompiledDFA compiledDFA;
+    // 正则表达式的监听器，没有时为 null
+    private final MatchListener listener;
+    // 惰性 DFA，第一次使用时创建
+    private LazyDFA lazyDFA;
+    // 需要记录匹配路径时使用的 NFA 模拟，第一次使用时创建
+    private NFASimulator simulator;
+
+    private Matcher(Pattern pattern, DFATable dfaTable, BitParallelMatcher bitParallel, CompiledDFA compiledDFA) {
+        this.pattern = pattern;
+        this.dfaTable = dfaTable;
+        this.bitParallel = bitParallel;
+        this.compiledDFA = compiledDFA;
+        this.listener = pattern != null ? pattern.getListener() : null;
+    }
+
+    public static Matcher create(Pattern pattern) {
+        return new Matcher(pattern, pattern.getDFATable(), pattern.getBitParallelMatcher(), pattern.getCompiledDFA());
+    }
+
+    public static Matcher create(DFATable dfaTable) {
+        return new Matcher(null, dfaTable, null, null);
+    }
+
+    public static Matcher create(DFAGraph dfaGraph) {
+        return new Matcher(null, dfaGraph.toTable(), null, null);
+    }
+
+    /**
+     * 整个输入字符序列是否匹配
+     * @param input
+     * @return
+     */
+    public boolean matches(CharSequence input) {
+        if (listener == null) {
+            return doMatches(input);
+        }
+        long addedStates = lazyDFA != null ? lazyDFA.getAddedStateCount() : 0;
+        int clears = lazyDFA != null ? lazyDFA.getClearCount() : 0;
+        return report(input.length(), doMatches(input), addedStates, clears);
+    }
+
+    private boolean doMatches(CharSequence input) {
+        if (compiledDFA != null) {
+            return compiledDFA.matches(input);
+        }
+        if (dfaTable != null) {
+            return dfaTable.isMatch(input);
+        }
+        if (bitParallel != null) {
+            return bitParallel.isMatch(input);
+        }
+        return getLazyDFA().isMatch(input);
+    }
+
+    /**
+     * 字符数组 chars 中 [from, to) 的字符是否匹配
+     * @param chars
+     * @param from
+     * @param to
+     * @return
+     */
+    public boolean matches(char[] chars, int from, int to) {
+        if (listener == null) {
+            return doMatches(chars, from, to);
+        }
+        long addedStates = lazyDFA != null ? lazyDFA.getAddedStateCount() : 0;
+        int clears = lazyDFA != null ? lazyDFA.getClearCount() : 0;
+        return report(to - from, doMatches(chars, from, to), addedStates, clears);
+    }
+
+    private boolean doMatches(char[] chars, int from, int to) {
+        if (compiledDFA != null) {
+            return compiledDFA.matches(chars, from, to);
+        }
+        if (dfaTable != null) {
+            return dfaTable.isMatch(chars, from, to);
+        }
+        if (bitParallel != null) {
+            return bitParallel.isMatch(chars, from, to);
+        }
+        return getLazyDFA().isMatch(chars, from, to);
+    }
+
+    /**
+     * 字符数组 chars 中 [from, to) 的字符是否匹配，并记录一条匹配路径。
+     * DFA 中没有 NFA 的匹配路径，所以使用 NFA 模拟
+     * @param chars
+     * @param from
+     * @param to
+     * @param recordState
+     * @return
+     */
+    public boolean matches(char[] chars, int from, int to, RecordNFAState recordState) {
+        if (simulator == null) {
+            simulator = NFASimulator.create(getNFATable());
+        }
+        boolean matched = simulator.isMatch(chars, from, to, recordState);
+        if (listener != null) {
+            listener.matched(pattern.pattern(), to - from, matched);
+        }
+        return matched;
+    }
+
+    /**
+     * 把一次匹配报告给监听器，惰性 DFA 新生成了状态时也报告
+     * @param length
+     * @param matched
+     * @param addedStates  匹配之前惰性 DFA 一共生成过的状态数
+     * @param clears  匹配之前惰性 DFA 清空缓存的次数
+     * @return matched
+     */
+    private boolean report(int length, boolean matched, long addedStates, int clears) {
+        listener.matched(pattern.pattern(), length, matched);
+        if (lazyDFA != null && lazyDFA.getAddedStateCount() > addedStates) {
+            listener.lazyStatesAdded(pattern.pattern(), (int) (lazyDFA.getAddedStateCount() - addedStates),
+                    lazyDFA.getClearCount() - clears);
+        }
+        return matched;
+    }
+
+    private LazyDFA getLazyDFA() {
+        if (lazyDFA == null) {
+            lazyDFA = LazyDFA.create(getNFATable());
+        }
+        return lazyDFA;
+    }
+
+    private NFATable getNFATable() {
+        if (pattern == null) {
+            throw new IllegalStateException("通过 DFA 转换表创建的匹配器没有 NFA 转换表");
+        }
+        return pattern.getNFATable();
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    public DFATable getDFATable() {
+        return dfaTable;
+    }
+}
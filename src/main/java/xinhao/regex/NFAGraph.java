@@ -1,5 +1,7 @@
 package xinhao.regex;
 
+import java.util.List;
+
 /**
  * @author by xinhao  2021/8/8
  * 表示 NFA 对应的转换图
@@ -20,7 +22,7 @@ public class NFAGraph {
     }
 
     // 对应 Thompson 算法基础规则中的，遇到字符 a
-    public static NFAGraph createByPath(String path) {
+    public static NFAGraph createByPath(char path) {
         // 创建开始和终止状态节点
         NFAState newStart = NFAState.create();
         NFAState newEnd = NFAState.create();
@@ -29,24 +31,61 @@ public class NFAGraph {
         return new NFAGraph(newStart, newEnd);
     }
 
+    // 遇到 paths 中的任意一个字符，相当于只有一个字符的分支的并，但是只需要两个状态
+    public static NFAGraph createByPaths(char[] paths) {
+        NFAState newStart = NFAState.create();
+        NFAState newEnd = NFAState.create();
+        for (char path : paths) {
+            newStart.addEdge(path, newEnd);
+        }
+        return new NFAGraph(newStart, newEnd);
+    }
+
+    // 对应 Thompson 算法基础规则中的，遇到空串 ε
+    public static NFAGraph createEmpty() {
+        NFAState newStart = NFAState.create();
+        NFAState newEnd = NFAState.create();
+        newStart.addEpsilonEdge(newEnd);
+        return new NFAGraph(newStart, newEnd);
+    }
+
     // 对应操作符 &; 对应 Thompson 算法归纳规则中的连接操作
     public void addSerial(NFAGraph nextGraph) {
-        // 将本转换图的结束状态节点，添加一个 ε有向边 连接到下一个本转换图开始节点
-        this.endState.addEdge(NFAState.EPSILON, nextGraph.startState);
+        // Thompson 算法是添加一条 本转换图的结束状态节点 到 下一个转换图开始节点 的 ε有向边。
+        // 这里把下一个转换图开始节点的有向边复制到本转换图的结束状态节点，效果是一样的，但是少了一条 ε有向边；
+        // 下一个转换图开始节点没有指向它的有向边时，就不会再被访问到，也少了一个状态。
+        // 下一个转换图开始节点之后不会再被修改，因为它已经不是转换图的开始或结束状态节点了
+        this.endState.copyEdges(nextGraph.startState);
         // 更新一个本转换图的结束状态节点，就得到一个新的转换图了。
         this.endState = nextGraph.endState;
     }
 
+    /**
+     * 多个转换图的并，只创建一个新的开始状态节点和一个新的结束状态节点。
+     * 和 addSerial 一样，新的开始状态节点复制每个转换图开始节点的有向边，代替 ε有向边
+     * @param graphs
+     * @return
+     */
+    public static NFAGraph createParallel(List<NFAGraph> graphs) {
+        NFAState newStart = NFAState.create();
+        NFAState newEnd = NFAState.create();
+        for (NFAGraph graph : graphs) {
+            newStart.copyEdges(graph.startState);
+            graph.endState.addEpsilonEdge(newEnd);
+        }
+        return new NFAGraph(newStart, newEnd);
+    }
+
     // 对应操作符 |; 对应 Thompson 算法归纳规则中的并操作
     public void addParallel(NFAGraph nextGraph) {
         // 创建新的开始和终止状态节点
         NFAState newStart = NFAState.create();
         NFAState newEnd = NFAState.create();
         // 根据 Thompson 算法，我们要添加四条 ε有向边
-        newStart.addEdge(NFAState.EPSILON, this.startState);
-        newStart.addEdge(NFAState.EPSILON, nextGraph.startState);
-        this.endState.addEdge(NFAState.EPSILON, newEnd);
-        nextGraph.endState.addEdge(NFAState.EPSILON, newEnd);
+        newStart.addEpsilonEdge(this.startState);
+        newStart.addEpsilonEdge(nextGraph.startState);
+        this.endState.addEpsilonEdge(newEnd);
+        nextGraph.endState.addEpsilonEdge(newEnd);
 
         // 更新本转换图的开始和结束状态节点，得到一个新的转换图了。
         this.startState = newStart;
@@ -66,9 +105,9 @@ public class NFAGraph {
         NFAState newStart = NFAState.create();
         NFAState newEnd = NFAState.create();
         // 根据 Thompson 算法，我们要添加三条 ε有向边
-        newStart.addEdge(NFAState.EPSILON, this.startState);
-        this.endState.addEdge(NFAState.EPSILON, newEnd);
-        this.endState.addEdge(NFAState.EPSILON, this.startState);
+        newStart.addEpsilonEdge(this.startState);
+        this.endState.addEpsilonEdge(newEnd);
+        this.endState.addEpsilonEdge(this.startState);
 
         // 更新本转换图的开始和结束状态节点，得到一个新的转换图了。
         this.startState = newStart;
@@ -78,7 +117,7 @@ public class NFAGraph {
     // 对应0次
     public void zero() {
         // 添加 ε有向边
-        this.startState.addEdge(NFAState.EPSILON, this.endState);
+        this.startState.addEpsilonEdge(this.endState);
     }
 
     public NFAState getStartState() {
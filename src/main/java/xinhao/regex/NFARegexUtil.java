@@ -8,105 +8,127 @@ import java.util.*;
 public class NFARegexUtil {
 
     /**
-     * 通过 pattern 生成对应的 NFAGraph 转换图
+     * 通过 pattern 生成对应的 NFAGraph 转换图: 先解析成语法树，化简之后再转换成 NFAGraph
      * @param pattern
      * @return
      */
     public static NFAGraph createNFAGraph(String pattern) {
-        Reader reader = Reader.create(pattern);
-        NFAGraph graph = null;
-        while (reader.hasNext()) {
-            char ch = reader.next();
-            switch (ch) {
-                case '(' :
-                    // 通过递归的方法，生成子串对应的 NFAGraph 转换图
-                    NFAGraph subGraph = createNFAGraph(reader.readUntil(')'));
-                    // 因为 * ? + 这些符号的优先级比 连接 高，就先处理
-                    handleStar(subGraph, reader);
-                    // 进行规制合并 NFAGraph 转换图
-                    if (graph == null) {
-                        graph = subGraph;
-                    } else {
-                        // 进行 连接 操作
-                        graph.addSerial(subGraph);
-                    }
-                    break;
-                case '|' :
-                    // 通过递归的方法，生成子串对应的 NFAGraph 转换图
-                    NFAGraph nextGraph = createNFAGraph(reader.readUntilEnd());
-                    // 这里不需要处理  * ? + 这些符号，因为 reader.readUntilEnd() 已经读取了剩余的全部字符，不会有这些符号了。
-                    if (graph == null) {
-                        graph = nextGraph;
-                    } else {
-                        // 进行 并 操作
-                        graph.addParallel(nextGraph);
-                    }
-                    break;
-                default:
-                    // 根据字符ch 生成一个小的 NFAGraph 转换图
-                    NFAGraph pathGraph = NFAGraph.createByPath("" + ch);
-                    // 因为 * ? + 这些符号的优先级比 连接 高，就先处理
-                    handleStar(pathGraph, reader);
-                    if (graph == null) {
-                        graph = pathGraph;
-                    } else {
-                        // 进行 连接 操作
-                        graph.addSerial(pathGraph);
-                    }
-                    break;
-            }
-        }
-
-        return graph;
+        return createNFAGraph(RegexSimplifier.simplify(RegexParser.parse(pattern)));
     }
 
     /**
-     * 处理  * ? + 这些符号优先级
-     * @param subGraph
-     * @param reader
+     * 通过语法树生成对应的 NFAGraph 转换图，按照 Thompson 算法。
+     * 后序遍历语法树，子节点的转换图先生成，放在 graphs 栈中，父节点从栈顶取出子节点的转换图进行合并
+     * @param root
      * @return
      */
-    private static NFAGraph handleStar(NFAGraph subGraph, Reader reader) {
-        if (reader.hasNext()) {
-            char ch = reader.peek();
-            switch (ch) {
-                case '*' :
-                    // 0次或多次
-                    subGraph.repeatStar();
-                    reader.next();
+    public static NFAGraph createNFAGraph(RegexNode root) {
+        List<NFAGraph> graphs = new ArrayList<>();
+        for (RegexNode node : root.postOrder()) {
+            switch (node.getType()) {
+                case EMPTY:
+                    graphs.add(NFAGraph.createEmpty());
                     break;
-                case '?' :
-                    // 0次 或 1 次
-                    subGraph.zero();
-                    reader.next();
+                case CHAR:
+                    // 根据字符 生成一个小的 NFAGraph 转换图
+                    graphs.add(NFAGraph.createByPath(node.getChar()));
+                    break;
+                case CHAR_CLASS:
+                    // 多个字符共用一条路径，只需要两个状态
+                    graphs.add(NFAGraph.createByPaths(node.getChars()));
+                    break;
+                case CONCAT:
+                    // 子节点的转换图在栈顶，从左到右排列
+                    List<NFAGraph> serialGraphs = graphs.subList(graphs.size() - node.getChildren().size(), graphs.size());
+                    NFAGraph graph = serialGraphs.get(0);
+                    for (int i = 1; i < serialGraphs.size(); i++) {
+                        // 进行 连接 操作
+                        graph.addSerial(serialGraphs.get(i));
+                    }
+                    serialGraphs.clear();
+                    graphs.add(graph);
+                    break;
+                case ALTERNATE:
+                    // 进行 并 操作，所有分支只需要一对新的开始和结束状态
+                    List<NFAGraph> parallelGraphs = graphs.subList(graphs.size() - node.getChildren().size(), graphs.size());
+                    NFAGraph parallel = NFAGraph.createParallel(parallelGraphs);
+                    parallelGraphs.clear();
+                    graphs.add(parallel);
                     break;
-                case '+' :
+                case STAR:
+                    // 0次或多次
+                    graphs.get(graphs.size() - 1).repeatStar();
+                    break;
+                case PLUS:
                     // 1次以上
-                    subGraph.repeatPlus();
-                    reader.next();
+                    graphs.get(graphs.size() - 1).repeatPlus();
+                    break;
+                case OPTIONAL:
+                    // 0次 或 1 次
+                    graphs.get(graphs.size() - 1).zero();
                     break;
             }
         }
-        return subGraph;
+        return graphs.get(0);
     }
 
-    // 一个空集合Set 实例
-    public static final Set<NFAState> EMPTY = new HashSet<>();
-
     /**
      * 对于一个输入字符串 regex , 在转换图 NFAGraph 中能否找到一个从初始状态到某个终止状态的转换序列。
-     * 能找到，返回ture，表示能匹配
+     * 能找到，返回ture，表示能匹配。
+     * 采用状态集合模拟 NFA，时间复杂度是 O(NFA状态数 × 输入长度)，不会因为回溯变成指数级，也不会栈溢出。
+     * 每次调用都要从转换图重新生成 NFATable，同一个转换图匹配多个输入时使用 isMatch(NFASimulator, ...)
      * @param graph  转换图
      * @param regex  待匹配的字符串
-     * @param recordState  记录一下匹配的路径
+     * @param recordState  记录一下匹配的路径，为 null 时不记录
      * @return
      */
     public static boolean isMatch(NFAGraph graph, String regex, RecordNFAState recordState) {
-        return isMatch(graph.getStartState(), regex.toCharArray(), 0, recordState);
+        return isMatch(NFASimulator.create(NFATable.create(graph)), regex, recordState);
+    }
+
+    /**
+     * 使用已经生成的模拟器匹配，不需要再生成 NFATable。
+     * 模拟器通过 NFASimulator.create(NFATable.create(graph)) 创建一次，在同一个线程中可以重复使用
+     * @param simulator
+     * @param regex  待匹配的字符串
+     * @param recordState  记录一下匹配的路径，为 null 时不记录
+     * @return
+     */
+    public static boolean isMatch(NFASimulator simulator, String regex, RecordNFAState recordState) {
+        return simulator.isMatch(regex.toCharArray(), 0, regex.length(), recordState);
+    }
+
+    /**
+     * 在预算内使用 NFA 模拟匹配，读取每个字符时当前状态集合中的每个状态是一步。
+     * 每次调用都要重新生成 NFATable，生成的开销不计入预算，多次匹配时使用 isMatch(NFASimulator, ...)
+     * @param graph
+     * @param regex
+     * @param recordState  为 null 时不记录
+     * @param meter  MatchBudget.start() 得到
+     * @return
+     * @throws MatchBudgetExceededException  超过预算、线程被中断或者被取消
+     */
+    public static boolean isMatch(NFAGraph graph, String regex, RecordNFAState recordState, MatchBudget.Meter meter) {
+        return isMatch(NFASimulator.create(NFATable.create(graph)), regex, recordState, meter);
+    }
+
+    /**
+     * 使用已经生成的模拟器在预算内匹配，抛出异常之后模拟器可以继续使用
+     * @param simulator
+     * @param regex
+     * @param recordState  为 null 时不记录
+     * @param meter  MatchBudget.start() 得到
+     * @return
+     * @throws MatchBudgetExceededException  超过预算、线程被中断或者被取消
+     */
+    public static boolean isMatch(NFASimulator simulator, String regex, RecordNFAState recordState,
+                                  MatchBudget.Meter meter) {
+        return simulator.isMatch(regex.toCharArray(), 0, regex.length(), recordState, meter);
     }
 
     /**
-     * 通过递归调用来决定是否匹配
+     * 通过递归调用来决定是否匹配，也就是深度优先的回溯算法。
+     * 注意: 像 (a*)*b 这样的正则表达式，回溯的次数是指数级的；ε有向边 组成的环还会导致无限递归，直到栈溢出。
      * @param currentState
      * @param chars
      * @param pos
@@ -114,18 +136,74 @@ public class NFARegexUtil {
      * @return
      */
     public static boolean isMatch(NFAState currentState, char[] chars, int pos, RecordNFAState recordState) {
+        return backtrack(currentState, chars, pos, recordState, 1, null);
+    }
+
+    /**
+     * 在预算内使用回溯算法匹配，每次递归调用是一步，递归深度也受限制，不会因为恶意的输入耗尽 CPU 或者栈溢出。
+     * 线程栈在到达最大递归深度之前就用完时，同样按照递归深度超过上限处理
+     * @param currentState
+     * @param chars
+     * @param pos
+     * @param recordState
+     * @param meter  MatchBudget.start() 得到，匹配结束之后可以读取消耗的步数、回溯次数和最大递归深度
+     * @return
+     * @throws MatchBudgetExceededException  超过预算、线程被中断或者被取消
+     */
+    public static boolean isMatch(NFAState currentState, char[] chars, int pos, RecordNFAState recordState,
+                                  MatchBudget.Meter meter) {
+        try {
+            return backtrack(currentState, chars, pos, recordState, 1, meter);
+        } catch (StackOverflowError e) {
+            // 这里所有的递归调用都已经退出，栈空间已经释放
+            throw meter.exceeded(MatchBudgetExceededException.Reason.DEPTH);
+        }
+    }
+
+    /**
+     * 回溯算法匹配整个 chars，并把递归调用的次数和回溯的次数报告给监听器
+     * @param pattern  报告给监听器的正则表达式
+     * @param startState
+     * @param chars
+     * @param recordState
+     * @param listener
+     * @return
+     */
+    public static boolean isMatch(String pattern, NFAState startState, char[] chars, RecordNFAState recordState,
+                                  MatchListener listener) {
+        MatchBudget.Meter meter = MatchBudget.counting();
+        boolean matched = backtrack(startState, chars, 0, recordState, 1, meter);
+        listener.backtracked(pattern, chars.length, meter.getSteps(), meter.getBacktracks(), matched);
+        return matched;
+    }
+
+    /**
+     * 回溯算法
+     * @param currentState
+     * @param chars
+     * @param pos
+     * @param recordState
+     * @param depth  递归深度，从 1 开始
+     * @param meter  记录步数、回溯次数和递归深度，不需要时为 null
+     * @return
+     */
+    private static boolean backtrack(NFAState currentState, char[] chars, int pos, RecordNFAState recordState,
+                                     int depth, MatchBudget.Meter meter) {
+        if (meter != null) {
+            meter.step();
+            meter.enter(depth);
+        }
 
         // 当 pos == chars.length 时，表示已经匹配完最后一个字符。
         // 接下来就是看能否得到终止状态的节点
         if (pos == chars.length) {
             // 得到当前节点currentState 的 所有 ε 有向边。
             // 因为 FA 有最长子串匹配原则，所以优先先找空边(ε 有向边) 对应状态节点是不是终止状态的节点
-            Set<NFAState> epsilonSet = currentState.getEdges().getOrDefault(NFAState.EPSILON, EMPTY);
-            for (NFAState state : epsilonSet) {
+            for (NFAState state : currentState.getEpsilonStates()) {
                 // 记录一下当前匹配路径
                 recordState.setNextByPath(NFAState.EPSILON, state);
-                // 递归调用 isMatch 方法，来判断是否匹配
-                if (isMatch(state, chars, pos, recordState.getNext())) {
+                // 递归调用 backtrack 方法，来判断是否匹配
+                if (backtrack(state, chars, pos, recordState.getNext(), depth + 1, meter)) {
                     // 如果匹配，则直接返回 true
                     return true;
                 }
@@ -138,39 +216,42 @@ public class NFARegexUtil {
 
             // 如果以上都不匹配，而且已经匹配完最后一个字符，那么就说明这个 currentState 对应的匹配转换序列是不成功的。
             // 返回 false
-            return false;
+            return fail(meter);
         }
 
 
         // 如果还没有匹配完所有的输入字符，那么就先匹配输入字符。
 
         // 优先匹配空边 (ε 有向边) 对应状态节点
-        Set<NFAState> epsilonSet = currentState.getEdges().getOrDefault(NFAState.EPSILON, EMPTY);
-        for (NFAState state : epsilonSet) {
+        for (NFAState state : currentState.getEpsilonStates()) {
             // 记录一下当前匹配路径
             recordState.setNextByPath(NFAState.EPSILON, state);
-            // 递归调用 isMatch 方法，来判断是否匹配
+            // 递归调用 backtrack 方法，来判断是否匹配
             // 这里 pos 没有任何变化，因为是空边 (ε 有向边)，没有匹配任何字符
-            if (isMatch(state, chars, pos, recordState.getNext())) {
+            if (backtrack(state, chars, pos, recordState.getNext(), depth + 1, meter)) {
                 return true;
             }
         }
 
-        String path = "" + chars[pos];
-        // 当前节点的有向边集合中是否包含当前输入字符，
-        if (currentState.getEdges().containsKey(path)) {
-            // 得到当前输入字符对应的有向边集合
-            Set<NFAState> pathSet = currentState.getEdges().getOrDefault(path, EMPTY);
-            for (NFAState state : pathSet) {
-                // 记录一下当前匹配路径
-                recordState.setNextByPath(path, state);
-                // 当前节点能不能找到一条匹配转换序列匹配剩下输入字符；
-                // 这里将 pos + 1, 因为当前 pos 对应的输入字符已经匹配
-                if (isMatch(state, chars, pos + 1, recordState.getNext())) {
-                    return true;
-                }
+        char path = chars[pos];
+        // 得到当前输入字符对应的有向边集合，没有对应的有向边时是空数组
+        for (NFAState state : currentState.getStatesByPath(path)) {
+            // 记录一下当前匹配路径
+            recordState.setNextByPath(path, state);
+            // 当前节点能不能找到一条匹配转换序列匹配剩下输入字符；
+            // 这里将 pos + 1, 因为当前 pos 对应的输入字符已经匹配
+            if (backtrack(state, chars, pos + 1, recordState.getNext(), depth + 1, meter)) {
+                return true;
             }
         }
+        return fail(meter);
+    }
+
+    // 匹配失败，退回上一层继续尝试其他有向边
+    private static boolean fail(MatchBudget.Meter meter) {
+        if (meter != null) {
+            meter.backtrack();
+        }
         return false;
     }
 
@@ -192,22 +273,11 @@ public class NFARegexUtil {
         while (!queue.isEmpty()) {
             NFAState state = queue.poll();
             builder.append("状态"+state+":");
-            for (Map.Entry<String, Set<NFAState>> entry : state.getEdges().entrySet()) {
-                String path = entry.getKey();
-                Set<NFAState> stateSet = entry.getValue();
-                builder.append("\t路径["+path+"]有"+stateSet.size()+"条: ");
-                for (NFAState childState : stateSet) {
-                    // 如果没有添加过，那么就添加到 queue 队列中
-                    if (!addedSet.contains(childState)) {
-                        queue.add(childState);
-                        addedSet.add(childState);
-                    }
-                    builder.append(state);
-                    builder.append("--"+path+"-->");
-                    builder.append(childState);
-                    builder.append(";\t");
-                }
-                builder.append("\n\t\t\t");
+            // 先打印 ε有向边，再打印每个输入字符对应的有向边
+            appendEdges(builder, queue, addedSet, state, NFAState.EPSILON, state.getEpsilonStates());
+            char[] paths = state.getPaths();
+            for (int i = 0; i < paths.length; i++) {
+                appendEdges(builder, queue, addedSet, state, paths[i], state.getPathStates(i));
             }
             builder.append("\n");
         }
@@ -215,6 +285,27 @@ public class NFARegexUtil {
         System.out.print(builder.toString());
     }
 
+    private static void appendEdges(StringBuilder builder, Queue<NFAState> queue, Set<NFAState> addedSet,
+                                    NFAState state, int path, NFAState[] stateSet) {
+        if (stateSet.length == 0) {
+            return;
+        }
+        String pathName = NFAState.pathToString(path);
+        builder.append("\t路径["+pathName+"]有"+stateSet.length+"条: ");
+        for (NFAState childState : stateSet) {
+            // 如果没有添加过，那么就添加到 queue 队列中
+            if (!addedSet.contains(childState)) {
+                queue.add(childState);
+                addedSet.add(childState);
+            }
+            builder.append(state);
+            builder.append("--"+pathName+"-->");
+            builder.append(childState);
+            builder.append(";\t");
+        }
+        builder.append("\n\t\t\t");
+    }
+
     public static void main(String[] args) {
         String pattern = "a(b|c)*";
 
@@ -227,11 +318,16 @@ public class NFARegexUtil {
         boolean isMatch = isMatch(graph, regex, recordState);
         System.out.println("isMatch(" + regex + "):" + isMatch);
 
+        // 回溯算法和状态集合模拟的匹配结果是一样的
+        boolean isBacktrackMatch = isMatch(graph.getStartState(), regex.toCharArray(), 0,
+                RecordNFAState.create(graph.getStartState()));
+        System.out.println("isBacktrackMatch(" + regex + "):" + isBacktrackMatch);
+
         RecordNFAState rs = recordState;
         while (rs != null) {
             StringBuilder builder = new StringBuilder();
             builder.append("[(状态" + rs.getState().getId() + ")");
-            builder.append("--"+rs.getPath()+"-->");
+            builder.append("--"+(rs.getNext() == null ? "null" : NFAState.pathToString(rs.getPath()))+"-->");
             builder.append(rs.getNext() == null ? "null" : "(状态"+rs.getNext().getState().getId()+"）");
             builder.append("]");
             System.out.println(builder.toString());
@@ -0,0 +1,241 @@
+package xinhao.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author by xinhao  2021/8/14
+ * 采用状态集合模拟 NFA (Thompson 算法 / Pike VM)。
+ * 每读取一个输入字符，就从当前状态集合得到下一个状态集合，每个状态在集合中只出现一次，
+ * 所以时间复杂度是 O(NFA状态数 × 输入长度)，而且计算 ε-closure 用的是显式的栈，不会递归。
+ * 一个 NFASimulator 保存了模拟用的临时数组，可以重复使用，但不能被多个线程同时使用。
+ */
+public class NFASimulator {
+
+    private final NFATable nfaTable;
+    // 当前状态集合和下一个状态集合，每读取一个字符交换一次
+    private SparseSet current;
+    private SparseSet next;
+    // 计算 ε-closure 用的栈，每个状态最多入栈一次
+    private final int[] stack;
+    // 需要记录匹配路径时，每个状态对应的路径节点
+    private PathNode[] currentNodes;
+    private PathNode[] nextNodes;
+
+    private NFASimulator(NFATable nfaTable) {
+        this.nfaTable = nfaTable;
+        int count = nfaTable.getStateCount();
+        this.current = new SparseSet(count);
+        this.next = new SparseSet(count);
+        this.stack = new int[count];
+    }
+
+    public static NFASimulator create(NFATable nfaTable) {
+        return new NFASimulator(nfaTable);
+    }
+
+    /**
+     * 字符数组 chars 中 [from, to) 的字符能否匹配
+     * @param chars
+     * @param from
+     * @param to
+     * @param recordState  不为 null 时，匹配成功会记录一条匹配路径
+     * @return
+     */
+    public boolean isMatch(char[] chars, int from, int to, RecordNFAState recordState) {
+        boolean record = recordState != null;
+        start(record);
+        for (int pos = from; pos < to && !current.isEmpty(); pos++) {
+            step(chars[pos], record);
+        }
+        return finish(recordState);
+    }
+
+    /**
+     * 在预算内匹配字符数组 chars 中 [from, to) 的字符，读取每个字符时当前状态集合中的每个状态是一步。
+     * 抛出异常之后可以继续使用这个模拟器
+     * @param chars
+     * @param from
+     * @param to
+     * @param recordState  为 null 时不记录
+     * @param meter  MatchBudget.start() 得到
+     * @return
+     * @throws MatchBudgetExceededException  超过预算、线程被中断或者被取消
+     */
+    public boolean isMatch(char[] chars, int from, int to, RecordNFAState recordState, MatchBudget.Meter meter) {
+        boolean record = recordState != null;
+        start(record);
+        for (int pos = from; pos < to && !current.isEmpty(); pos++) {
+            meter.step(current.size());
+            step(chars[pos], record);
+        }
+        return finish(recordState);
+    }
+
+    /**
+     * 整个字符序列 input 能否匹配，不会复制 input
+     * @param input
+     * @return
+     */
+    public boolean isMatch(CharSequence input) {
+        start(false);
+        int length = input.length();
+        for (int pos = 0; pos < length && !current.isEmpty(); pos++) {
+            step(input.charAt(pos), false);
+        }
+        return finish(null);
+    }
+
+    /**
+     * 分段读取输入: 先调用 reset()，然后每一段输入调用一次 feed()，最后调用 isMatched() 得到结果
+     */
+    public void reset() {
+        start(false);
+    }
+
+    /**
+     * 读取一段输入字符，当前状态集合保留到下一次调用
+     * @param chars
+     * @param from
+     * @param to
+     * @return 当前状态集合不为空，也就是后面的输入还有可能匹配
+     */
+    public boolean feed(char[] chars, int from, int to) {
+        for (int pos = from; pos < to && !current.isEmpty(); pos++) {
+            step(chars[pos], false);
+        }
+        return !current.isEmpty();
+    }
+
+    /**
+     * 读取一段输入字符序列 input 中 [from, to) 的字符
+     * @param input
+     * @param from
+     * @param to
+     * @return 当前状态集合不为空，也就是后面的输入还有可能匹配
+     */
+    public boolean feed(CharSequence input, int from, int to) {
+        for (int pos = from; pos < to && !current.isEmpty(); pos++) {
+            step(input.charAt(pos), false);
+        }
+        return !current.isEmpty();
+    }
+
+    // 已经读取的所有输入字符能否匹配
+    public boolean isMatched() {
+        return finish(null);
+    }
+
+    // 当前状态集合设置为开始状态的 ε-closure
+    private void start(boolean record) {
+        if (record && currentNodes == null) {
+            currentNodes = new PathNode[nfaTable.getStateCount()];
+            nextNodes = new PathNode[nfaTable.getStateCount()];
+        }
+        current.clear();
+        int startState = nfaTable.getStart();
+        addClosure(current, record ? currentNodes : null, startState,
+                record ? new PathNode(nfaTable.getState(startState), NFAState.EPSILON, null) : null);
+    }
+
+    // 读取一个输入字符 ch，得到下一个状态集合
+    private void step(char ch, boolean record) {
+        next.clear();
+        for (int i = 0; i < current.size(); i++) {
+            int state = current.get(i);
+            char[] paths = nfaTable.getEdgePaths(state);
+            int[] targets = nfaTable.getEdgeTargets(state);
+            for (int edge = 0; edge < paths.length && paths[edge] <= ch; edge++) {
+                if (paths[edge] == ch) {
+                    int target = targets[edge];
+                    addClosure(next, record ? nextNodes : null, target,
+                            record ? new PathNode(nfaTable.getState(target), ch, currentNodes[state]) : null);
+                }
+            }
+        }
+        SparseSet set = current;
+        current = next;
+        next = set;
+        PathNode[] nodes = currentNodes;
+        currentNodes = nextNodes;
+        nextNodes = nodes;
+    }
+
+    // 读取完所有输入字符之后，当前状态集合中有终止状态就匹配成功
+    private boolean finish(RecordNFAState recordState) {
+        for (int i = 0; i < current.size(); i++) {
+            int state = current.get(i);
+            if (nfaTable.isEnd(state)) {
+                if (recordState != null) {
+                    fillRecord(recordState, currentNodes[state]);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把状态 state 和它的 ε-closure 添加到状态集合 set 中
+     * @param set
+     * @param nodes  不记录匹配路径时为 null
+     * @param state
+     * @param node  到达 state 的路径节点，不记录匹配路径时为 null
+     */
+    private void addClosure(SparseSet set, PathNode[] nodes, int state, PathNode node) {
+        if (!set.add(state)) {
+            return;
+        }
+        if (nodes != null) {
+            nodes[state] = node;
+        }
+        if (nfaTable.isEpsilonFree()) {
+            return;
+        }
+        int top = 0;
+        stack[top++] = state;
+        while (top > 0) {
+            int currentState = stack[--top];
+            for (int epsilonState : nfaTable.getEpsilons(currentState)) {
+                // 如果不存在，就是新发现的状态，添加到 set 和 stack 中
+                if (set.add(epsilonState)) {
+                    if (nodes != null) {
+                        nodes[epsilonState] = new PathNode(nfaTable.getState(epsilonState),
+                                NFAState.EPSILON, nodes[currentState]);
+                    }
+                    stack[top++] = epsilonState;
+                }
+            }
+        }
+    }
+
+    // 路径节点是从后往前连接的，转换成从前往后的 RecordNFAState
+    private static void fillRecord(RecordNFAState recordState, PathNode node) {
+        List<PathNode> nodes = new ArrayList<>();
+        for (; node != null; node = node.prev) {
+            nodes.add(node);
+        }
+        RecordNFAState rs = recordState;
+        // 最后一个节点是开始状态
+        for (int i = nodes.size() - 2; i >= 0; i--) {
+            PathNode pathNode = nodes.get(i);
+            rs.setNextByPath(pathNode.path, pathNode.state);
+            rs = rs.getNext();
+        }
+    }
+
+    /**
+     * 记录到达一个状态的路径，prev 指向上一个状态对应的节点
+     */
+    private static final class PathNode {
+        private final NFAState state;
+        private final int path;
+        private final PathNode prev;
+
+        private PathNode(NFAState state, int path, PathNode prev) {
+            this.state = state;
+            this.path = path;
+            this.prev = prev;
+        }
+    }
+}
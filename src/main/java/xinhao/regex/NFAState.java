@@ -1,9 +1,7 @@
 package xinhao.regex;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author by xinhao  2021/8/8
@@ -11,15 +9,26 @@ import java.util.Set;
  */
 public class NFAState implements Comparable<NFAState> {
 
-    // 表示 ε 空串
-    public static final String EPSILON = "epsilon";
-    private static int idGenerate = 0;
+    // 表示 ε 空串。输入字符都是 char，所以用 -1 表示 ε，不会和任何输入字符混淆
+    public static final int EPSILON = -1;
+    // 没有下一个状态时返回的空数组
+    public static final NFAState[] EMPTY_STATES = new NFAState[0];
+    private static final char[] EMPTY_PATHS = new char[0];
+    private static final NFAState[][] EMPTY_PATH_STATES = new NFAState[0][];
+    // 多个线程可能同时编译正则表达式，所以 id 生成器必须是线程安全的
+    private static final AtomicInteger idGenerate = new AtomicInteger();
     // 标志是状态几
     private int id;
-    // NFA 转换图中，当前状态通往下一个状态所有有向边
-    private Map<String, Set<NFAState>> edges;
+    // NFA 转换图中，当前状态通过 ε有向边 能到达的下一个状态
+    private NFAState[] epsilonStates;
+    // NFA 转换图中，当前状态所有有向边对应的输入字符，从小到大排序
+    private char[] paths;
+    // paths[i] 对应的下一个状态集合
+    private NFAState[][] pathStates;
     // 表示当前状态是不是终止状态
     private boolean isEnd;
+    // 多个正则表达式合并成一个 NFA 时，终止状态对应的正则表达式编号，-1 表示没有
+    private int matchId = -1;
 
     public NFAState() {
     }
@@ -27,23 +36,91 @@ public class NFAState implements Comparable<NFAState> {
     // 创建状态节点
     public static NFAState create() {
         NFAState state = new NFAState();
-        state.id = idGenerate++;
-        state.edges = new HashMap<>();
+        state.id = idGenerate.getAndIncrement();
+        state.epsilonStates = EMPTY_STATES;
+        state.paths = EMPTY_PATHS;
+        state.pathStates = EMPTY_PATH_STATES;
         return state;
     }
 
     // 添加当前状态遇到输入字符 `path` ，进入的一个状态。就是其中一条有向边
-    public void addEdge(String path, NFAState nextState) {
-        Set<NFAState> set = edges.get(path);
-        if (set == null) {
-            set = new HashSet<>();
-            edges.put(path, set);
+    public void addEdge(char path, NFAState nextState) {
+        int index = Arrays.binarySearch(paths, path);
+        if (index >= 0) {
+            pathStates[index] = append(pathStates[index], nextState);
+            return;
         }
-        set.add(nextState);
+        // 插入到 -(index + 1) 的位置，保证 paths 有序
+        index = -(index + 1);
+        char[] newPaths = new char[paths.length + 1];
+        NFAState[][] newPathStates = new NFAState[paths.length + 1][];
+        System.arraycopy(paths, 0, newPaths, 0, index);
+        System.arraycopy(pathStates, 0, newPathStates, 0, index);
+        newPaths[index] = path;
+        newPathStates[index] = new NFAState[]{nextState};
+        System.arraycopy(paths, index, newPaths, index + 1, paths.length - index);
+        System.arraycopy(pathStates, index, newPathStates, index + 1, paths.length - index);
+        paths = newPaths;
+        pathStates = newPathStates;
     }
 
-    public Map<String, Set<NFAState>> getEdges() {
-        return edges;
+    // 添加当前状态的一条 ε有向边
+    public void addEpsilonEdge(NFAState nextState) {
+        epsilonStates = append(epsilonStates, nextState);
+    }
+
+    // 添加 state 的所有有向边，包括 ε有向边。相当于添加一条到 state 的 ε有向边
+    public void copyEdges(NFAState state) {
+        for (NFAState epsilonState : state.epsilonStates) {
+            addEpsilonEdge(epsilonState);
+        }
+        for (int i = 0; i < state.paths.length; i++) {
+            for (NFAState nextState : state.pathStates[i]) {
+                addEdge(state.paths[i], nextState);
+            }
+        }
+    }
+
+    // 和原来的 Set 一样，同一个状态只保存一次
+    private static NFAState[] append(NFAState[] states, NFAState nextState) {
+        for (NFAState state : states) {
+            if (state == nextState) {
+                return states;
+            }
+        }
+        NFAState[] newStates = Arrays.copyOf(states, states.length + 1);
+        newStates[states.length] = nextState;
+        return newStates;
+    }
+
+    /**
+     * 得到当前状态遇到输入字符 path 能到达的状态，没有返回空数组，不会创建任何对象
+     * @param path
+     * @return
+     */
+    public NFAState[] getStatesByPath(char path) {
+        int index = Arrays.binarySearch(paths, path);
+        return index < 0 ? EMPTY_STATES : pathStates[index];
+    }
+
+    // 通过 ε有向边 能到达的状态
+    public NFAState[] getEpsilonStates() {
+        return epsilonStates;
+    }
+
+    // 所有有向边的输入字符，从小到大排序
+    public char[] getPaths() {
+        return paths;
+    }
+
+    // getPaths()[index] 对应的下一个状态
+    public NFAState[] getPathStates(int index) {
+        return pathStates[index];
+    }
+
+    // 把路径转换成字符串，方便打印
+    public static String pathToString(int path) {
+        return path == EPSILON ? "epsilon" : String.valueOf((char) path);
     }
 
     public int getId() {
@@ -58,6 +135,14 @@ public class NFAState implements Comparable<NFAState> {
         isEnd = end;
     }
 
+    public int getMatchId() {
+        return matchId;
+    }
+
+    public void setMatchId(int matchId) {
+        this.matchId = matchId;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("[");
@@ -0,0 +1,298 @@
+package xinhao.regex;
+
+import java.util.*;
+
+/**
+ * @author by xinhao  2021/8/14
+ * 编译之后的 NFA 转换表，创建之后就不能修改。
+ * NFAGraph 中的状态按广度优先遍历的顺序编号为 0..n-1，有向边都用编号表示，
+ * 这样模拟 NFA 的时候就可以用数组和稀疏集合保存状态集合。
+ */
+public final class NFATable {
+
+    // 编号对应的 NFA 状态，用来记录匹配路径
+    private final NFAState[] states;
+    // 开始状态的编号
+    private final int start;
+    // 状态是不是终止状态
+    private final boolean[] ends;
+    // 终止状态对应的正则表达式编号，-1 表示没有
+    private final int[] matchIds;
+    // 每个状态的 ε有向边 能到达的状态编号
+    private final int[][] epsilons;
+    // 每个状态所有有向边的输入字符，从小到大排序，同一个字符可能出现多次
+    private final char[][] edgePaths;
+    // edgePaths[state][i] 对应的下一个状态编号
+    private final int[][] edgeTargets;
+    // 有向边上出现过的字符按照在 NFA 中的行为划分成字符类，其他字符都属于字符类 0
+    private final CharClassMap classMap;
+    // 字符类的代表字符，同一个字符类的字符行为一样，用代表字符计算就可以了。classChars[0] 没有意义
+    private final char[] classChars;
+    // 没有 ε有向边 (比如 Glushkov 构造得到的 NFA)，ε-closure 就是状态本身
+    private final boolean epsilonFree;
+
+    private NFATable(NFAState[] states, int start, boolean[] ends, int[] matchIds, int[][] epsilons,
+                     char[][] edgePaths, int[][] edgeTargets) {
+        this.states = states;
+        this.start = start;
+        this.ends = ends;
+        this.matchIds = matchIds;
+        this.epsilons = epsilons;
+        this.edgePaths = edgePaths;
+        this.edgeTargets = edgeTargets;
+        boolean noEpsilon = true;
+        for (int[] stateEpsilons : epsilons) {
+            noEpsilon &= stateEpsilons.length == 0;
+        }
+        this.epsilonFree = noEpsilon;
+        // 每个字符对应的有向边 (起点, 终点) 列表就是它的 "签名"，签名相同的字符在 NFA 中的行为完全一样，属于同一个字符类
+        Map<Character, StringBuilder> signatures = new TreeMap<>();
+        for (int state = 0; state < edgePaths.length; state++) {
+            for (int edge = 0; edge < edgePaths[state].length; edge++) {
+                StringBuilder signature = signatures.get(edgePaths[state][edge]);
+                if (signature == null) {
+                    signature = new StringBuilder();
+                    signatures.put(edgePaths[state][edge], signature);
+                }
+                signature.append(state).append('>').append(edgeTargets[state][edge]).append(',');
+            }
+        }
+        Map<String, Integer> signatureClasses = new HashMap<>();
+        char[] chars = new char[signatures.size()];
+        int[] classes = new int[signatures.size()];
+        StringBuilder classCharBuilder = new StringBuilder();
+        // 字符类 0 没有对应的字符
+        classCharBuilder.append('\0');
+        int index = 0;
+        for (Map.Entry<Character, StringBuilder> entry : signatures.entrySet()) {
+            String signature = entry.getValue().toString();
+            Integer charClass = signatureClasses.get(signature);
+            if (charClass == null) {
+                charClass = classCharBuilder.length();
+                signatureClasses.put(signature, charClass);
+                classCharBuilder.append(entry.getKey().charValue());
+            }
+            chars[index] = entry.getKey();
+            classes[index] = charClass;
+            index++;
+        }
+        this.classChars = classCharBuilder.toString().toCharArray();
+        this.classMap = CharClassMap.create(chars, classes, classChars.length);
+    }
+
+    /**
+     * 通过 NFAGraph 转换图创建转换表，终止状态就是 isEnd() 为 true 的状态
+     * @param nfaGraph
+     * @return
+     */
+    public static NFATable create(NFAGraph nfaGraph) {
+        return create(nfaGraph.getStartState());
+    }
+
+    /**
+     * 通过开始状态创建转换表，能到达的状态中 isEnd() 为 true 的是终止状态
+     * @param startState
+     * @return
+     */
+    static NFATable create(NFAState startState) {
+        // 1. 采用广度优先遍历给状态编号，开始状态的编号是 0
+        Map<NFAState, Integer> indexMap = new HashMap<>();
+        List<NFAState> stateList = new ArrayList<>();
+        Queue<NFAState> queue = new LinkedList<>();
+        indexMap.put(startState, 0);
+        stateList.add(startState);
+        queue.add(startState);
+        while (!queue.isEmpty()) {
+            NFAState state = queue.poll();
+            visit(state.getEpsilonStates(), indexMap, stateList, queue);
+            char[] paths = state.getPaths();
+            for (int i = 0; i < paths.length; i++) {
+                visit(state.getPathStates(i), indexMap, stateList, queue);
+            }
+        }
+
+        // 2. 把有向边转换成编号
+        int count = stateList.size();
+        NFAState[] states = stateList.toArray(new NFAState[count]);
+        boolean[] ends = new boolean[count];
+        int[] matchIds = new int[count];
+        int[][] epsilons = new int[count][];
+        char[][] edgePaths = new char[count][];
+        int[][] edgeTargets = new int[count][];
+        for (int i = 0; i < count; i++) {
+            NFAState state = states[i];
+            ends[i] = state.isEnd();
+            matchIds[i] = state.getMatchId();
+            NFAState[] epsilonStates = state.getEpsilonStates();
+            epsilons[i] = new int[epsilonStates.length];
+            for (int j = 0; j < epsilonStates.length; j++) {
+                epsilons[i][j] = indexMap.get(epsilonStates[j]);
+            }
+            char[] paths = state.getPaths();
+            int edgeCount = 0;
+            for (int j = 0; j < paths.length; j++) {
+                edgeCount += state.getPathStates(j).length;
+            }
+            edgePaths[i] = new char[edgeCount];
+            edgeTargets[i] = new int[edgeCount];
+            int edge = 0;
+            // paths 本身是有序的，所以展开之后仍然有序
+            for (int j = 0; j < paths.length; j++) {
+                for (NFAState nextState : state.getPathStates(j)) {
+                    edgePaths[i][edge] = paths[j];
+                    edgeTargets[i][edge] = indexMap.get(nextState);
+                    edge++;
+                }
+            }
+        }
+        return new NFATable(states, 0, ends, matchIds, epsilons, edgePaths, edgeTargets);
+    }
+
+    /**
+     * 得到反向的 NFA 转换表，它匹配的字符串正好是原来匹配的字符串反过来。
+     * 所有有向边反向，新的开始状态通过 ε有向边 连接原来所有的终止状态，原来的开始状态是唯一的终止状态。
+     * 反向 NFA 从匹配的结束位置向前读取字符，用来找到匹配的开始位置
+     * @return
+     */
+    public NFATable reverse() {
+        NFAState[] reverseStates = new NFAState[states.length];
+        for (int i = 0; i < states.length; i++) {
+            reverseStates[i] = NFAState.create();
+        }
+        NFAState reverseStart = NFAState.create();
+        for (int i = 0; i < states.length; i++) {
+            if (ends[i]) {
+                reverseStart.addEpsilonEdge(reverseStates[i]);
+            }
+            for (int epsilonState : epsilons[i]) {
+                reverseStates[epsilonState].addEpsilonEdge(reverseStates[i]);
+            }
+            for (int edge = 0; edge < edgePaths[i].length; edge++) {
+                reverseStates[edgeTargets[i][edge]].addEdge(edgePaths[i][edge], reverseStates[i]);
+            }
+        }
+        reverseStates[start].setEnd(true);
+        return create(reverseStart);
+    }
+
+    private static void visit(NFAState[] nextStates, Map<NFAState, Integer> indexMap,
+                              List<NFAState> stateList, Queue<NFAState> queue) {
+        for (NFAState nextState : nextStates) {
+            if (!indexMap.containsKey(nextState)) {
+                indexMap.put(nextState, stateList.size());
+                stateList.add(nextState);
+                queue.add(nextState);
+            }
+        }
+    }
+
+    /**
+     * 把状态 state 和它的 ε-closure 添加到状态集合 set 中
+     * @param set
+     * @param state
+     * @param stack  临时使用的栈，长度不小于状态个数
+     */
+    public void closure(SparseSet set, int state, int[] stack) {
+        if (!set.add(state) || epsilonFree) {
+            return;
+        }
+        int top = 0;
+        stack[top++] = state;
+        while (top > 0) {
+            for (int epsilonState : epsilons[stack[--top]]) {
+                if (set.add(epsilonState)) {
+                    stack[top++] = epsilonState;
+                }
+            }
+        }
+    }
+
+    /**
+     * 状态集合 states 中的状态遇到字符类 charClass 之后，得到的状态及其 ε-closure 添加到 set 中
+     * @param states
+     * @param charClass
+     * @param set
+     * @param stack
+     */
+    public void move(int[] states, int charClass, SparseSet set, int[] stack) {
+        // 字符类 0 不在任何有向边上
+        if (charClass == 0) {
+            return;
+        }
+        char ch = classChars[charClass];
+        for (int state : states) {
+            char[] paths = edgePaths[state];
+            for (int edge = 0; edge < paths.length && paths[edge] <= ch; edge++) {
+                if (paths[edge] == ch) {
+                    closure(set, edgeTargets[state][edge], stack);
+                }
+            }
+        }
+    }
+
+    // 状态集合中有终止状态
+    public boolean hasEnd(int[] states) {
+        for (int state : states) {
+            if (ends[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public CharClassMap getClassMap() {
+        return classMap;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getStateCount() {
+        return states.length;
+    }
+
+    public boolean isEnd(int state) {
+        return ends[state];
+    }
+
+    // 终止状态对应的正则表达式编号，-1 表示没有
+    public int getMatchId(int state) {
+        return matchIds[state];
+    }
+
+    // 没有 ε有向边
+    public boolean isEpsilonFree() {
+        return epsilonFree;
+    }
+
+    // 状态 state 的 ε有向边 能到达的状态编号
+    public int[] getEpsilons(int state) {
+        return epsilons[state];
+    }
+
+    // 状态 state 所有有向边的输入字符，从小到大排序
+    public char[] getEdgePaths(int state) {
+        return edgePaths[state];
+    }
+
+    // getEdgePaths(state)[i] 对应的下一个状态编号
+    public int[] getEdgeTargets(int state) {
+        return edgeTargets[state];
+    }
+
+    // 编号对应的 NFA 状态
+    public NFAState getState(int state) {
+        return states[state];
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("NFATable{");
+        sb.append("start=").append(start);
+        sb.append(", stateCount=").append(states.length);
+        sb.append(", epsilonFree=").append(epsilonFree);
+        sb.append('}');
+        return sb.toString();
+    }
+}
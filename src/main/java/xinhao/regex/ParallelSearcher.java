@@ -0,0 +1,365 @@
+package xinhao.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * @author by xinhao  2021/8/23
+ * 把一段很长的输入分成多块，在 ForkJoinPool 中并行查找匹配，结果和 DFASearcher.findAll 完全一样。
+ * 分两步:
+ * 1. 每一块并行地从后向前运行反向查找 DFA (反向 NFA 前面加上 .*)，它到达终止状态的位置就是所有匹配的开始位置。
+ *    一块的开始状态取决于后面所有的块，有两种处理方式:
+ *    DFA 状态少时，每一块从所有状态同时出发，得到 "开始状态 ==> 结束状态" 的映射，从后向前组合映射就得到每一块真正的开始状态；
+ *    所有状态的运行合并成一条之后，记录的开始位置和开始状态无关，
+ *    合并之前的那几个字符再从真正的开始状态运行一次就可以了；
+ *    DFA 状态多时，每一块都猜测从开始状态出发，猜错的块从真正的状态重新运行，直到和猜测的运行到达同一个状态为止。
+ * 2. 按从小到大的顺序，跳过上一个匹配之内的开始位置，用原来的 DFA 向后延伸得到最长的匹配，
+ *    也就是和 DFASearcher.findAll 一样的最靠左的不重叠匹配。
+ * 跨越两块的匹配不需要特殊处理，因为状态是从后一块传过来的。
+ * 创建之后不能被修改，可以被多个线程共享。
+ */
+public final class ParallelSearcher {
+
+    // 默认每一块的字符个数
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    // DFA 状态数不超过这个值时，每一块从所有状态出发计算映射；否则猜测开始状态
+    public static final int MAX_ENUMERATE_STATES = 64;
+
+    // 反向查找 DFA
+    private final DFATable reverseTable;
+    // 原来的 DFA，从开始位置向后延伸
+    private final DFATable dfaTable;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    // 正则表达式和它的监听器，没有监听器时为 null
+    private final String pattern;
+    private final MatchListener listener;
+
+    private ParallelSearcher(Pattern pattern, ForkJoinPool pool, int chunkSize) {
+        DFASearcher searcher = pattern.getSearcher();
+        this.reverseTable = searcher.getReverseSearchTable();
+        this.dfaTable = searcher.getDFATable();
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.pattern = pattern.pattern();
+        this.listener = pattern.getListener();
+    }
+
+    public static ParallelSearcher create(Pattern pattern) {
+        return create(pattern, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param pattern
+     * @param pool  执行并行任务的线程池
+     * @param chunkSize  每一块的字符个数
+     * @return
+     */
+    public static ParallelSearcher create(Pattern pattern, ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize 必须大于 0: " + chunkSize);
+        }
+        return new ParallelSearcher(pattern, pool, chunkSize);
+    }
+
+    /**
+     * 所有不重叠的匹配，和 DFASearcher.findAll 的结果一样
+     * @param input
+     * @return
+     */
+    public List<MatchRange> findAll(CharSequence input) {
+        List<MatchRange> ranges = new ArrayList<>();
+        long count = resolve(input, findCandidates(input), ranges);
+        if (listener != null) {
+            listener.searched(pattern, input.length(), count);
+        }
+        return ranges;
+    }
+
+    /**
+     * 不重叠的匹配个数
+     * @param input
+     * @return
+     */
+    public long count(CharSequence input) {
+        long count = resolve(input, findCandidates(input), null);
+        if (listener != null) {
+            listener.searched(pattern, input.length(), count);
+        }
+        return count;
+    }
+
+    /**
+     * 第 1 步: 每一块中反向查找 DFA 到达终止状态的位置，也就是匹配的开始位置
+     * @param input
+     * @return
+     */
+    private Chunk[] findCandidates(final CharSequence input) {
+        int length = input.length();
+        final int chunkCount = Math.max(1, (length + chunkSize - 1) / chunkSize);
+        final Chunk[] chunks = new Chunk[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i] = new Chunk(i * chunkSize, Math.min(length, (i + 1) * chunkSize));
+        }
+        final int inputLength = length;
+        if (reverseTable.getStateCount() <= MAX_ENUMERATE_STATES) {
+            // 从所有状态出发，得到每一块的状态映射，以及和开始状态无关的那部分候选位置
+            pool.invoke(new ChunkTask(chunks, 0, chunkCount) {
+                @Override
+                void compute(Chunk chunk) {
+                    mapStates(input, chunk);
+                }
+            });
+            // 从后向前组合映射，得到每一块真正的开始状态
+            int state = reverseTable.getStart();
+            for (int i = chunkCount - 1; i >= 0; i--) {
+                chunks[i].startState = state;
+                state = chunks[i].stateMap[state];
+                chunks[i].endState = state;
+            }
+            // 从真正的开始状态运行合并之前的那部分字符，一般只有几个字符
+            pool.invoke(new ChunkTask(chunks, 0, chunkCount) {
+                @Override
+                void compute(Chunk chunk) {
+                    int[] prefix = Arrays.copyOf(chunk.candidates, chunk.count);
+                    chunk.count = 0;
+                    collect(input, chunk, chunk.startState, chunk.mergePos, chunk.to, inputLength);
+                    for (int candidate : prefix) {
+                        chunk.add(candidate);
+                    }
+                }
+            });
+        } else {
+            // 猜测每一块都从开始状态出发
+            pool.invoke(new ChunkTask(chunks, 0, chunkCount) {
+                @Override
+                void compute(Chunk chunk) {
+                    chunk.startState = reverseTable.getStart();
+                    chunk.endState = collect(input, chunk, chunk.startState, chunk.from, chunk.to, inputLength);
+                }
+            });
+            int state = reverseTable.getStart();
+            for (int i = chunkCount - 1; i >= 0; i--) {
+                if (chunks[i].startState != state) {
+                    repair(input, chunks[i], state);
+                }
+                state = chunks[i].endState;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * 从所有状态同时出发，从后向前读取 chunk 中的字符，得到每个开始状态对应的结束状态。
+     * 不同的开始状态很快就会到达同一个状态 (合并)，合并之后只需要运行一次，而且后面的候选位置和开始状态无关，
+     * 所以代价一般只比从一个状态出发多一点。
+     * 反向查找 DFA 不会到达死状态，所以死状态不参与运行
+     */
+    private void mapStates(CharSequence input, Chunk chunk) {
+        int stateCount = reverseTable.getStateCount();
+        // lanes[i] 是第 i 条运行线路的当前状态，owners[s] 是开始状态 s 所在的线路
+        int[] lanes = new int[stateCount];
+        int[] owners = new int[stateCount];
+        for (int state = 1; state < stateCount; state++) {
+            lanes[state - 1] = state;
+            owners[state] = state - 1;
+        }
+        int laneCount = stateCount - 1;
+        // 合并线路时使用: 状态对应的新线路编号，stamps 判断是否是本次设置的
+        int[] laneOfState = new int[stateCount];
+        int[] stamps = new int[stateCount];
+        int[] remap = new int[stateCount];
+        int stamp = 0;
+        int pos = chunk.to;
+        while (pos > chunk.from && laneCount > 1) {
+            char ch = input.charAt(--pos);
+            stamp++;
+            int newLaneCount = 0;
+            for (int lane = 0; lane < laneCount; lane++) {
+                int state = reverseTable.move(lanes[lane], ch);
+                if (stamps[state] != stamp) {
+                    stamps[state] = stamp;
+                    laneOfState[state] = newLaneCount;
+                    lanes[newLaneCount++] = state;
+                }
+                remap[lane] = laneOfState[state];
+            }
+            if (newLaneCount < laneCount) {
+                for (int state = 1; state < stateCount; state++) {
+                    owners[state] = remap[owners[state]];
+                }
+            }
+            laneCount = newLaneCount;
+        }
+        // 只剩一条线路，前面和从一个状态出发一样
+        chunk.mergePos = pos;
+        if (laneCount == 1) {
+            lanes[0] = collect(input, chunk, lanes[0], chunk.from, pos, -1);
+        }
+        int[] stateMap = new int[stateCount];
+        for (int state = 1; state < stateCount; state++) {
+            stateMap[state] = lanes[owners[state]];
+        }
+        chunk.stateMap = stateMap;
+    }
+
+    /**
+     * 从状态 state 出发，从后向前读取 [from, to) 的字符，把到达终止状态的位置从大到小添加到 chunk 中。
+     * 位置 to 本身属于下一块，除非 to 是整个输入的结束位置 length，并且 state 是真正的开始状态
+     * @param length  整个输入的长度，不需要检查位置 to 时为 -1
+     * @return 结束状态
+     */
+    private int collect(CharSequence input, Chunk chunk, int state, int from, int to, int length) {
+        if (to == length && reverseTable.isEnd(state)) {
+            chunk.add(to);
+        }
+        for (int pos = to - 1; pos >= from; pos--) {
+            state = reverseTable.move(state, input.charAt(pos));
+            if (reverseTable.isEnd(state)) {
+                chunk.add(pos);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * 猜错了开始状态: 从真正的状态 actual 和猜测的开始状态同时出发，到达同一个状态之后，后面的结果和猜测的一样
+     */
+    private void repair(CharSequence input, Chunk chunk, int actual) {
+        int guess = chunk.startState;
+        int[] guessCandidates = Arrays.copyOf(chunk.candidates, chunk.count);
+        chunk.count = 0;
+        chunk.startState = actual;
+        int pos = chunk.to;
+        while (pos > chunk.from && actual != guess) {
+            char ch = input.charAt(--pos);
+            actual = reverseTable.move(actual, ch);
+            guess = reverseTable.move(guess, ch);
+            if (reverseTable.isEnd(actual)) {
+                chunk.add(pos);
+            }
+        }
+        if (actual != guess) {
+            chunk.endState = actual;
+            return;
+        }
+        for (int candidate : guessCandidates) {
+            if (candidate < pos) {
+                chunk.add(candidate);
+            }
+        }
+    }
+
+    /**
+     * 第 2 步: 按从小到大的顺序处理匹配的开始位置，得到不重叠的匹配
+     * @param input
+     * @param chunks
+     * @param ranges  为 null 时只计数
+     * @return 匹配个数
+     */
+    private long resolve(CharSequence input, Chunk[] chunks, List<MatchRange> ranges) {
+        long count = 0;
+        int from = 0;
+        int length = input.length();
+        for (Chunk chunk : chunks) {
+            // 每一块中的开始位置是从大到小的
+            for (int i = chunk.count - 1; i >= 0; i--) {
+                int start = chunk.candidates[i];
+                // 开始于上一个匹配之内，这时不算
+                if (start < from) {
+                    continue;
+                }
+                MatchRange range = MatchRange.create(start, dfaTable.lastEnd(input, start));
+                count++;
+                if (ranges != null) {
+                    ranges.add(range);
+                }
+                // 空匹配之后跳过一个字符
+                from = range.length() > 0 ? range.getEnd() : range.getEnd() + 1;
+                if (from > length) {
+                    return count;
+                }
+            }
+        }
+        return count;
+    }
+
+    // 一块输入
+    private static final class Chunk {
+        private final int from;
+        private final int to;
+        // 开始状态和结束状态
+        private int startState;
+        private int endState;
+        // 从所有状态出发得到的状态映射
+        private int[] stateMap;
+        // 所有线路合并的位置，之前的候选位置和开始状态无关
+        private int mergePos;
+        // 反向查找 DFA 到达终止状态的位置，从大到小
+        private int[] candidates = new int[16];
+        private int count;
+
+        private Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        private void add(int candidate) {
+            if (count == candidates.length) {
+                candidates = Arrays.copyOf(candidates, count * 2);
+            }
+            candidates[count++] = candidate;
+        }
+    }
+
+    // 对 [low, high) 之间的块执行 compute，块数多时分成两半并行执行
+    private abstract static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+        private final int low;
+        private final int high;
+
+        private ChunkTask(Chunk[] chunks, int low, int high) {
+            this.chunks = chunks;
+            this.low = low;
+            this.high = high;
+        }
+
+        abstract void compute(Chunk chunk);
+
+        @Override
+        protected void compute() {
+            if (high - low == 1) {
+                compute(chunks[low]);
+                return;
+            }
+            int mid = (low + high) >>> 1;
+            final ChunkTask parent = this;
+            invokeAll(new ChunkTask(chunks, low, mid) {
+                @Override
+                void compute(Chunk chunk) {
+                    parent.compute(chunk);
+                }
+            }, new ChunkTask(chunks, mid, high) {
+                @Override
+                void compute(Chunk chunk) {
+                    parent.compute(chunk);
+                }
+            });
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ParallelSearcher{");
+        sb.append("reverse=").append(reverseTable);
+        sb.append(", chunkSize=").append(chunkSize);
+        sb.append(", parallelism=").append(pool.getParallelism());
+        sb.append('}');
+        return sb.toString();
+    }
+}
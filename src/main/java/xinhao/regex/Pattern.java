@@ -0,0 +1,325 @@
+package xinhao.regex;
+
+import java.util.Iterator;
+
+/**
+ * @author by xinhao  2021/8/18
+ * 编译之后的正则表达式。
+ * 编译过程: 正则表达式 ==> NFA ==> DFA ==> 最小化 ==> DFA 转换表，编译过程中修改的都是新创建的对象，
+ * 编译完成之后 Pattern 不能被修改，可以被多个线程共享。
+ * 匹配需要的临时数据都在 Matcher 中，每个线程使用自己的 Matcher；
+ * 惰性 DFA 模式下 Pattern 自己的 matches、find 使用每个线程的惰性 DFA，它们不引用 Pattern，不会阻止 Pattern 被回收。
+ */
+public final class Pattern {
+
+    // 惰性 DFA 模式: 编译时不进行子集构造，每个 Matcher 在匹配时才计算用到的 DFA 状态
+    public static final int LAZY_DFA = 1;
+    // 使用 Glushkov 构造生成没有 ε有向边 的 NFA，代替 Thompson 构造
+    public static final int GLUSHKOV = 2;
+    // 把 DFA 转换表生成 JVM 字节码，用于最常用的正则表达式。状态转换容易预测时 (比如大部分字符都停留在同一个状态)
+    // 比查表快几倍；输入在很多状态之间随机跳转时分支预测失败，反而比查表慢。生成的方法太大时仍然查表
+    public static final int BYTECODE = 4;
+
+    // 正则表达式
+    private final String pattern;
+    private final int flags;
+    // NFA 转换表。加载序列化的正则表达式时为 null，第一次使用时才生成，重复生成也没有关系
+    private volatile NFATable nfaTable;
+    // DFA 转换表，惰性 DFA 模式下为 null
+    private final DFATable dfaTable;
+    // 位并行模拟，只在惰性 DFA 模式下并且 NFA 状态不超过 64 个时使用，否则为 null
+    private final BitParallelMatcher bitParallel;
+    // 生成的字节码，只在有 BYTECODE 标志并且生成的方法不太大时使用，否则为 null
+    private final CompiledDFA compiledDFA;
+    // 监听器，没有时为 null
+    private final MatchListener listener;
+    // 查找匹配使用的前向和反向 DFA，第一次查找时才生成。生成的对象不能修改，重复生成也没有关系
+    private volatile DFASearcher searcher;
+    // 惰性 DFA 模式下 matches 使用的惰性 DFA，每个线程一个，已经计算的状态在多次调用之间保留。
+    // 位并行模拟可以使用时，以及其他模式下为 null
+    private final ThreadLazyDFA threadDFA;
+    // 惰性 DFA 模式下 find 和 findAll 使用的 LazySearcher，每个线程一个，不进行完整的子集构造。其他模式下为 null
+    private final ThreadSearcher threadSearcher;
+
+    private Pattern(String pattern, int flags, NFATable nfaTable, DFATable dfaTable, BitParallelMatcher bitParallel,
+                    MatchListener listener) {
+        this.pattern = pattern;
+        this.flags = flags;
+        this.nfaTable = nfaTable;
+        this.dfaTable = dfaTable;
+        this.bitParallel = bitParallel;
+        this.compiledDFA = (flags & BYTECODE) != 0 && dfaTable != null ? DFACompiler.compile(dfaTable) : null;
+        this.listener = listener;
+        this.threadDFA = dfaTable == null && bitParallel == null ? new ThreadLazyDFA(nfaTable) : null;
+        this.threadSearcher = dfaTable == null ? new ThreadSearcher(nfaTable) : null;
+    }
+
+    /**
+     * 每个线程的惰性 DFA。只引用 NFA 转换表，不引用 Pattern，
+     * Pattern 不再使用之后 ThreadLocal 的 key 被回收，线程中保存的惰性 DFA 也可以被回收
+     */
+    private static final class ThreadLazyDFA extends ThreadLocal<LazyDFA> {
+        private final NFATable nfaTable;
+
+        private ThreadLazyDFA(NFATable nfaTable) {
+            this.nfaTable = nfaTable;
+        }
+
+        @Override
+        protected LazyDFA initialValue() {
+            return LazyDFA.create(nfaTable);
+        }
+    }
+
+    /**
+     * 每个线程的 LazySearcher，和 ThreadLazyDFA 一样不引用 Pattern
+     */
+    private static final class ThreadSearcher extends ThreadLocal<LazySearcher> {
+        private final NFATable nfaTable;
+        // 反向 NFA 转换表，所有线程共用，第一次使用时才生成，重复生成也没有关系
+        private volatile NFATable reverseNFATable;
+
+        private ThreadSearcher(NFATable nfaTable) {
+            this.nfaTable = nfaTable;
+        }
+
+        @Override
+        protected LazySearcher initialValue() {
+            NFATable reverse = reverseNFATable;
+            if (reverse == null) {
+                reverse = nfaTable.reverse();
+                reverseNFATable = reverse;
+            }
+            return LazySearcher.create(nfaTable, reverse);
+        }
+    }
+
+    public static Pattern compile(String pattern) {
+        return compile(pattern, 0);
+    }
+
+    /**
+     * 编译正则表达式，线程安全
+     * @param pattern
+     * @param flags  LAZY_DFA GLUSHKOV BYTECODE 等标志
+     * @return
+     */
+    public static Pattern compile(String pattern, int flags) {
+        return compile(pattern, flags, null);
+    }
+
+    /**
+     * 编译正则表达式，编译和匹配的统计数据报告给监听器，线程安全
+     * @param pattern
+     * @param flags  LAZY_DFA GLUSHKOV BYTECODE 等标志
+     * @param listener  为 null 时不统计
+     * @return
+     */
+    public static Pattern compile(String pattern, int flags, MatchListener listener) {
+        long begin = listener != null ? System.nanoTime() : 0;
+        RegexNode node = RegexSimplifier.simplify(RegexParser.parse(pattern));
+        NFATable nfaTable = null;
+        BitParallelMatcher bitParallel = null;
+        if ((flags & LAZY_DFA) != 0 && GlushkovBuilder.stateCount(node) <= BitParallelMatcher.MAX_STATES) {
+            // 惰性 DFA 模式下，状态少的正则表达式直接使用位并行模拟，不需要生成任何 DFA 状态
+            nfaTable = GlushkovBuilder.build(node);
+            bitParallel = BitParallelMatcher.create(nfaTable);
+        } else if ((flags & GLUSHKOV) != 0) {
+            nfaTable = GlushkovBuilder.build(node);
+        } else {
+            nfaTable = thompsonTable(node);
+        }
+        DFATable dfaTable = null;
+        if ((flags & LAZY_DFA) == 0) {
+            dfaTable = DFAMinimizer.minimize(DFARegexUtil.NFAToDFA(nfaTable)).toTable();
+        }
+        Pattern result = new Pattern(pattern, flags, nfaTable, dfaTable, bitParallel, listener);
+        if (listener != null) {
+            listener.compiled(pattern, flags, System.nanoTime() - begin, nfaTable.getStateCount(),
+                    dfaTable != null ? dfaTable.getStateCount() : 0);
+        }
+        return result;
+    }
+
+    /**
+     * 通过已经编译好的 DFA 转换表创建，用于 DFASerializer 加载序列化的正则表达式。
+     * 不需要解析、子集构造和最小化，NFA 转换表在第一次使用时才生成
+     * @param pattern
+     * @param flags  不能有 LAZY_DFA
+     * @param dfaTable
+     * @param searcher  查找使用的 DFA，为 null 时第一次查找才生成
+     * @return
+     */
+    static Pattern create(String pattern, int flags, DFATable dfaTable, DFASearcher searcher) {
+        if ((flags & LAZY_DFA) != 0) {
+            throw new IllegalArgumentException("惰性 DFA 模式没有 DFA 转换表: " + pattern);
+        }
+        Pattern result = new Pattern(pattern, flags, null, dfaTable, null, null);
+        result.searcher = searcher;
+        return result;
+    }
+
+    private static NFATable thompsonTable(RegexNode node) {
+        NFAGraph nfaGraph = NFARegexUtil.createNFAGraph(node);
+        // nfaGraph 是刚刚创建的，只有当前线程能访问到，可以修改
+        nfaGraph.getEndState().setEnd(true);
+        return NFATable.create(nfaGraph);
+    }
+
+    /**
+     * 创建一个新的匹配器，匹配器不是线程安全的，每个线程应该使用自己的匹配器
+     * @return
+     */
+    public Matcher matcher() {
+        return Matcher.create(this);
+    }
+
+    /**
+     * 创建一个分段读取输入的匹配器，字节输入使用 UTF-8 解码。不是线程安全的
+     * @return
+     */
+    public StreamMatcher streamMatcher() {
+        return StreamMatcher.create(this);
+    }
+
+    /**
+     * 整个输入字符序列是否匹配，线程安全。
+     * 非惰性 DFA 模式和位并行模拟都不需要任何临时数据；惰性 DFA 模式下使用当前线程的惰性 DFA，
+     * 已经计算的 DFA 状态可以被这个线程之后的调用重复使用
+     * @param input
+     * @return
+     */
+    public boolean matches(CharSequence input) {
+        if (listener == null) {
+            return doMatches(input);
+        }
+        if (threadDFA == null) {
+            boolean matched = doMatches(input);
+            listener.matched(pattern, input.length(), matched);
+            return matched;
+        }
+        // 惰性 DFA 模式下还要报告新生成的 DFA 状态
+        LazyDFA lazyDFA = threadDFA.get();
+        long addedStates = lazyDFA.getAddedStateCount();
+        int clears = lazyDFA.getClearCount();
+        boolean matched = lazyDFA.isMatch(input);
+        listener.matched(pattern, input.length(), matched);
+        if (lazyDFA.getAddedStateCount() > addedStates) {
+            listener.lazyStatesAdded(pattern, (int) (lazyDFA.getAddedStateCount() - addedStates),
+                    lazyDFA.getClearCount() - clears);
+        }
+        return matched;
+    }
+
+    private boolean doMatches(CharSequence input) {
+        if (compiledDFA != null) {
+            return compiledDFA.matches(input);
+        }
+        if (dfaTable != null) {
+            return dfaTable.isMatch(input);
+        }
+        if (bitParallel != null) {
+            return bitParallel.isMatch(input);
+        }
+        return threadDFA.get().isMatch(input);
+    }
+
+    /**
+     * 在输入字符序列中查找第一个匹配，线程安全
+     * @param input
+     * @return 没有找到返回 null
+     */
+    public MatchRange find(CharSequence input) {
+        return find(input, 0);
+    }
+
+    /**
+     * 从位置 from 开始查找第一个匹配，线程安全。
+     * 惰性 DFA 模式下使用当前线程的 LazySearcher，不生成完整的 DFA
+     * @param input
+     * @param from
+     * @return 没有找到返回 null
+     */
+    public MatchRange find(CharSequence input, int from) {
+        if (threadSearcher == null) {
+            return getSearcher().find(input, from, pattern, listener);
+        }
+        MatchRange range = threadSearcher.get().find(input, from);
+        if (listener != null) {
+            DFASearcher.report(listener, pattern, input, from, range);
+        }
+        return range;
+    }
+
+    /**
+     * 输入字符序列中所有不重叠的匹配。每一次查找都通过 find 进行，所以迭代器可以在其他线程中使用
+     * @param input
+     * @return
+     */
+    public Iterator<MatchRange> findAll(final CharSequence input) {
+        return new MatchIterator(input) {
+            @Override
+            MatchRange find(int from) {
+                return Pattern.this.find(input, from);
+            }
+        };
+    }
+
+    /**
+     * 查找使用的 DFA 在第一次调用时才生成。惰性 DFA 模式下 find 和 findAll 不使用它，
+     * 但是 ParallelSearcher、FileScanner 等需要完整的 DFA，调用这个方法时仍然会生成完整的 DFA
+     * @return
+     */
+    public DFASearcher getSearcher() {
+        DFASearcher dfaSearcher = searcher;
+        if (dfaSearcher == null) {
+            dfaSearcher = DFASearcher.create(getNFATable(), dfaTable);
+            searcher = dfaSearcher;
+        }
+        return dfaSearcher;
+    }
+
+    // 查找使用的 DFA，还没有生成时返回 null，不会生成
+    DFASearcher getCreatedSearcher() {
+        return searcher;
+    }
+
+    public String pattern() {
+        return pattern;
+    }
+
+    public int flags() {
+        return flags;
+    }
+
+    public NFATable getNFATable() {
+        NFATable table = nfaTable;
+        if (table == null) {
+            RegexNode node = RegexSimplifier.simplify(RegexParser.parse(pattern));
+            table = (flags & GLUSHKOV) != 0 ? GlushkovBuilder.build(node) : thompsonTable(node);
+            nfaTable = table;
+        }
+        return table;
+    }
+
+    public DFATable getDFATable() {
+        return dfaTable;
+    }
+
+    public BitParallelMatcher getBitParallelMatcher() {
+        return bitParallel;
+    }
+
+    public CompiledDFA getCompiledDFA() {
+        return compiledDFA;
+    }
+
+    public MatchListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,310 @@
+package xinhao.regex;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author by xinhao  2021/8/26
+ * 编译结果的缓存，键是正则表达式和编译标志。同一个正则表达式再次使用时只需要一次 ConcurrentHashMap 查找。
+ * 每个缓存项的权重是自动机的状态数 (DFA 状态数，惰性 DFA 模式下是 NFA 状态数)，
+ * 总权重超过上限时，最久没有使用的缓存项先被移除，一直移除到上限的 90%，这样排序的开销分摊到之后的多次编译上。
+ * 权重超过上限的正则表达式只编译不缓存，不会挤掉其他缓存项。
+ * 同一个正则表达式同时被多个线程请求时只编译一次，其他线程等待编译结果。
+ * 线程安全。
+ */
+public final class PatternCache {
+
+    // 默认的总权重上限
+    public static final long DEFAULT_MAX_WEIGHT = 1 << 20;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final long maxWeight;
+    // 超过上限时移除到这个权重为止
+    private final long lowWeight;
+    // 编译时使用的监听器，没有时为 null
+    private final MatchListener listener;
+    // 当前的总权重，只计算编译完成的缓存项
+    private final AtomicLong weight = new AtomicLong();
+    // 逻辑时钟，用来记录缓存项最后一次使用的时间
+    private final AtomicLong clock = new AtomicLong();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    private PatternCache(long maxWeight, MatchListener listener) {
+        this.maxWeight = maxWeight;
+        this.lowWeight = maxWeight - maxWeight / 10;
+        this.listener = listener;
+    }
+
+    public static PatternCache create() {
+        return new PatternCache(DEFAULT_MAX_WEIGHT, null);
+    }
+
+    /**
+     * @param maxWeight  总权重上限，也就是所有缓存的自动机的状态数之和的上限
+     * @return
+     */
+    public static PatternCache create(long maxWeight) {
+        return create(maxWeight, null);
+    }
+
+    /**
+     * @param maxWeight  总权重上限
+     * @param listener  缓存中编译的所有正则表达式使用的监听器，为 null 时不统计
+     * @return
+     */
+    public static PatternCache create(long maxWeight, MatchListener listener) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight 必须大于 0: " + maxWeight);
+        }
+        return new PatternCache(maxWeight, listener);
+    }
+
+    public Pattern get(String pattern) {
+        return get(pattern, 0);
+    }
+
+    /**
+     * 得到编译之后的正则表达式，没有缓存时编译并放到缓存中
+     * @param pattern
+     * @param flags
+     * @return
+     */
+    public Pattern get(final String pattern, final int flags) {
+        Key key = new Key(pattern, flags);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            final Entry newEntry = new Entry();
+            newEntry.task = new FutureTask<>(new Callable<Pattern>() {
+                @Override
+                public Pattern call() {
+                    Pattern compiled = Pattern.compile(pattern, flags, listener);
+                    long compiledWeight = weightOf(compiled);
+                    if (compiledWeight <= maxWeight) {
+                        newEntry.weight = compiledWeight;
+                        weight.addAndGet(compiledWeight);
+                    } else {
+                        // 不缓存，权重保持为 0，被其他线程的 evictIfNeeded 移除时也不影响总权重
+                        newEntry.oversized = true;
+                    }
+                    return compiled;
+                }
+            });
+            entry = entries.putIfAbsent(key, newEntry);
+            if (entry == null) {
+                missCount.increment();
+                entry = newEntry;
+                entry.lastAccess = clock.incrementAndGet();
+                entry.task.run();
+                if (entry.oversized) {
+                    // 已经在等待的线程仍然可以从 entry 得到编译结果
+                    entries.remove(key, entry);
+                } else {
+                    evictIfNeeded(entry);
+                }
+            } else {
+                hitCount.increment();
+            }
+        } else {
+            hitCount.increment();
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        return getPattern(key, entry);
+    }
+
+    // 等待编译完成，编译失败时移除缓存项，下次请求重新编译
+    private Pattern getPattern(Key key, Entry entry) {
+        try {
+            return entry.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待编译时被中断: " + key.pattern, e);
+        } catch (ExecutionException e) {
+            entries.remove(key, entry);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("编译失败: " + key.pattern, cause);
+        }
+    }
+
+    /**
+     * 总权重超过上限时，按最后一次使用的时间从早到晚移除缓存项，直到不超过上限的 90%。
+     * 只有超过上限时才需要加锁和排序，每次排序至少腾出上限的 10%，之后的多次编译都不需要再排序
+     * @param added  刚刚编译完成的缓存项，不移除
+     */
+    private void evictIfNeeded(Entry added) {
+        if (weight.get() <= maxWeight) {
+            return;
+        }
+        synchronized (this) {
+            if (weight.get() <= maxWeight) {
+                return;
+            }
+            // 先记下最后一次使用的时间，排序过程中其他线程还可能修改它
+            List<Candidate> candidates = new ArrayList<>();
+            for (Map.Entry<Key, Entry> mapEntry : entries.entrySet()) {
+                // 还在编译的缓存项没有计算权重，不能移除
+                if (mapEntry.getValue().task.isDone()) {
+                    candidates.add(new Candidate(mapEntry.getKey(), mapEntry.getValue()));
+                }
+            }
+            Collections.sort(candidates, new Comparator<Candidate>() {
+                @Override
+                public int compare(Candidate o1, Candidate o2) {
+                    return Long.compare(o1.lastAccess, o2.lastAccess);
+                }
+            });
+            for (Candidate candidate : candidates) {
+                if (weight.get() <= lowWeight) {
+                    break;
+                }
+                if (candidate.entry != added && entries.remove(candidate.key, candidate.entry)) {
+                    weight.addAndGet(-candidate.entry.weight);
+                    evictionCount.increment();
+                }
+            }
+        }
+    }
+
+    // 缓存项的权重，也就是自动机的状态数
+    private static long weightOf(Pattern pattern) {
+        if (pattern.getDFATable() != null) {
+            return pattern.getDFATable().getStateCount();
+        }
+        return pattern.getNFATable().getStateCount();
+    }
+
+    // 移除所有缓存项，统计数据不变
+    public synchronized void clear() {
+        for (Map.Entry<Key, Entry> mapEntry : entries.entrySet()) {
+            if (mapEntry.getValue().task.isDone() && entries.remove(mapEntry.getKey(), mapEntry.getValue())) {
+                weight.addAndGet(-mapEntry.getValue().weight);
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    // 缓存项的个数
+    public int size() {
+        return entries.size();
+    }
+
+    // 当前的总权重
+    public long getWeight() {
+        return weight.get();
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    // 缓存的键: 正则表达式和编译标志
+    private static final class Key {
+        private final String pattern;
+        private final int flags;
+
+        private Key(String pattern, int flags) {
+            this.pattern = pattern;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return flags == key.flags && pattern.equals(key.pattern);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * pattern.hashCode() + flags;
+        }
+    }
+
+    // 缓存项
+    private static final class Entry {
+        // 编译任务，完成之后就是编译结果
+        private FutureTask<Pattern> task;
+        // 权重，编译完成之后才有
+        private volatile long weight;
+        // 最后一次使用的时间
+        private volatile long lastAccess;
+        // 权重超过上限，编译完成之后不放在缓存中
+        private volatile boolean oversized;
+    }
+
+    // 移除时的候选项
+    private static final class Candidate {
+        private final Key key;
+        private final Entry entry;
+        private final long lastAccess;
+
+        private Candidate(Key key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.lastAccess = entry.lastAccess;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("PatternCache{");
+        sb.append("size=").append(entries.size());
+        sb.append(", weight=").append(weight.get());
+        sb.append(", maxWeight=").append(maxWeight);
+        sb.append(", hits=").append(getHitCount());
+        sb.append(", misses=").append(getMissCount());
+        sb.append(", evictions=").append(getEvictionCount());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        String[] patterns = {"ERROR(c|d)ode", "(x|y|z)+@(x|y|z)+com", "(ab|cd)*ef", "a(b|c)*d"};
+        int rounds = 20000;
+        long begin = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            Pattern.compile(patterns[i % patterns.length]);
+        }
+        long compileTime = System.nanoTime() - begin;
+
+        PatternCache cache = PatternCache.create();
+        begin = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            cache.get(patterns[i % patterns.length]);
+        }
+        long cacheTime = System.nanoTime() - begin;
+        System.out.println("compile: " + compileTime / rounds + " ns/次, cache: " + cacheTime / rounds + " ns/次");
+        System.out.println(cache);
+
+        // 上限很小时，最久没有使用的先被移除
+        PatternCache small = PatternCache.create(10);
+        for (int i = 0; i < rounds; i++) {
+            small.get(patterns[i % patterns.length]);
+        }
+        System.out.println(small);
+    }
+}
@@ -34,24 +34,9 @@ public class Reader {
         return pos < source.length;
     }
 
-    // 一直读取到字符 ch
-    public String readUntil(char ch) {
-        StringBuilder builder = new StringBuilder();
-        while (peek() != ch) {
-            builder.append(next());
-        }
-        // 不包括 ch
-        next();
-        return builder.toString();
-    }
-
-    // 读取剩下的字符串
-    public String readUntilEnd() {
-        StringBuilder builder = new StringBuilder();
-        while (hasNext()) {
-            builder.append(next());
-        }
-        return builder.toString();
+    // 已经读取的字符个数，也就是下一个字符的下标
+    public int getPos() {
+        return pos;
     }
 
 }
@@ -10,8 +10,8 @@ public class RecordNFAState {
     private NFAState state;
     // 匹配的下一个状态节点
     private RecordNFAState next;
-    // 使用的匹配路径
-    private String path;
+    // 使用的匹配路径，输入字符或者 NFAState.EPSILON
+    private int path;
 
     public RecordNFAState(NFAState state) {
         this.state = state;
@@ -21,7 +21,7 @@ public class RecordNFAState {
         return new RecordNFAState(state);
     }
 
-    public void setNextByPath(String path, NFAState next) {
+    public void setNextByPath(int path, NFAState next) {
         this.path = path;
         this.next = create(next);
     }
@@ -34,7 +34,7 @@ public class RecordNFAState {
         return next;
     }
 
-    public String getPath() {
+    public int getPath() {
         return path;
     }
 }
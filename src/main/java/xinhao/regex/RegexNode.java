@@ -0,0 +1,234 @@
+package xinhao.regex;
+
+import java.util.*;
+
+/**
+ * @author by xinhao  2021/8/27
+ * 正则表达式的语法树节点，由 RegexParser 生成，再由 NFARegexUtil.createNFAGraph(RegexNode) 转换成 NFAGraph。
+ * 语法树和 NFA 分开之后，可以在语法树上做化简等优化。
+ * 节点创建之后不能被修改；语法树可能很深，所有遍历都使用显式的栈，不使用递归。
+ */
+public final class RegexNode {
+
+    public enum Type {
+        // 空串 ε
+        EMPTY,
+        // 一个字符
+        CHAR,
+        // 多个字符中的任意一个，由只有一个字符的分支合并得到
+        CHAR_CLASS,
+        // 连接
+        CONCAT,
+        // 并 |
+        ALTERNATE,
+        // 0次以上 *
+        STAR,
+        // 1次以上 +
+        PLUS,
+        // 0次或1次 ?
+        OPTIONAL
+    }
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final RegexNode EMPTY = new RegexNode(Type.EMPTY, (char) 0, NO_CHARS, Collections.<RegexNode>emptyList());
+
+    private final Type type;
+    // CHAR 节点的字符
+    private final char ch;
+    // CHAR_CLASS 节点的字符，从小到大排序，没有重复
+    private final char[] chars;
+    // 子节点，CONCAT 和 ALTERNATE 至少有两个，STAR PLUS OPTIONAL 只有一个
+    private final List<RegexNode> children;
+
+    private RegexNode(Type type, char ch, char[] chars, List<RegexNode> children) {
+        this.type = type;
+        this.ch = ch;
+        this.chars = chars;
+        this.children = children;
+    }
+
+    public static RegexNode empty() {
+        return EMPTY;
+    }
+
+    public static RegexNode ofChar(char ch) {
+        return new RegexNode(Type.CHAR, ch, NO_CHARS, Collections.<RegexNode>emptyList());
+    }
+
+    /**
+     * 字符类，只有一个字符时就是 CHAR 节点
+     * @param chars  可以有重复的字符
+     * @return
+     */
+    public static RegexNode charClass(char[] chars) {
+        if (chars.length == 0) {
+            throw new IllegalArgumentException("CHAR_CLASS 至少要有一个字符");
+        }
+        char[] sorted = chars.clone();
+        Arrays.sort(sorted);
+        int count = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[count - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        if (count == 1) {
+            return ofChar(sorted[0]);
+        }
+        return new RegexNode(Type.CHAR_CLASS, (char) 0, Arrays.copyOf(sorted, count),
+                Collections.<RegexNode>emptyList());
+    }
+
+    /**
+     * 连接，没有子节点时是空串，只有一个子节点时就是这个子节点
+     * @param nodes
+     * @return
+     */
+    public static RegexNode concat(List<RegexNode> nodes) {
+        return createList(Type.CONCAT, nodes);
+    }
+
+    /**
+     * 并，只有一个子节点时就是这个子节点
+     * @param nodes
+     * @return
+     */
+    public static RegexNode alternate(List<RegexNode> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("ALTERNATE 至少要有一个子节点");
+        }
+        return createList(Type.ALTERNATE, nodes);
+    }
+
+    private static RegexNode createList(Type type, List<RegexNode> nodes) {
+        if (nodes.isEmpty()) {
+            return EMPTY;
+        }
+        if (nodes.size() == 1) {
+            return nodes.get(0);
+        }
+        return new RegexNode(type, (char) 0, NO_CHARS, Collections.unmodifiableList(new ArrayList<>(nodes)));
+    }
+
+    public static RegexNode star(RegexNode node) {
+        return new RegexNode(Type.STAR, (char) 0, NO_CHARS, Collections.singletonList(node));
+    }
+
+    public static RegexNode plus(RegexNode node) {
+        return new RegexNode(Type.PLUS, (char) 0, NO_CHARS, Collections.singletonList(node));
+    }
+
+    public static RegexNode optional(RegexNode node) {
+        return new RegexNode(Type.OPTIONAL, (char) 0, NO_CHARS, Collections.singletonList(node));
+    }
+
+    /**
+     * 后序遍历 (子节点在父节点之前，子节点从左到右) 得到的所有节点，使用显式的栈
+     * @return
+     */
+    public List<RegexNode> postOrder() {
+        List<RegexNode> order = new ArrayList<>();
+        Deque<RegexNode> stack = new ArrayDeque<>();
+        stack.push(this);
+        // 先得到 "父节点、子节点从右到左" 的顺序，反转之后就是后序遍历
+        while (!stack.isEmpty()) {
+            RegexNode node = stack.pop();
+            order.add(node);
+            for (RegexNode child : node.children) {
+                stack.push(child);
+            }
+        }
+        Collections.reverse(order);
+        return order;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public char getChar() {
+        return ch;
+    }
+
+    // CHAR_CLASS 节点的字符，从小到大排序
+    public char[] getChars() {
+        return chars.clone();
+    }
+
+    public List<RegexNode> getChildren() {
+        return children;
+    }
+
+    // 唯一的子节点，用于 STAR PLUS OPTIONAL
+    public RegexNode getChild() {
+        return children.get(0);
+    }
+
+    /**
+     * 转换回正则表达式，只在需要的地方加括号
+     * @return
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        // 栈中是还没有输出的节点或者字符串
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Object item = stack.pop();
+            if (item instanceof String) {
+                builder.append((String) item);
+                continue;
+            }
+            RegexNode node = (RegexNode) item;
+            switch (node.type) {
+                case EMPTY:
+                    break;
+                case CHAR:
+                    builder.append(node.ch);
+                    break;
+                case CHAR_CLASS:
+                    // 没有字符类的语法，写成只有一个字符的分支
+                    builder.append('(');
+                    for (int i = 0; i < node.chars.length; i++) {
+                        if (i > 0) {
+                            builder.append('|');
+                        }
+                        builder.append(node.chars[i]);
+                    }
+                    builder.append(')');
+                    break;
+                case CONCAT:
+                case ALTERNATE:
+                    // 从右到左入栈，输出时就是从左到右
+                    for (int i = node.children.size() - 1; i >= 0; i--) {
+                        RegexNode child = node.children.get(i);
+                        boolean group = node.type == Type.CONCAT
+                                && (child.type == Type.ALTERNATE || child.type == Type.EMPTY);
+                        pushChild(stack, child, group);
+                        if (i > 0 && node.type == Type.ALTERNATE) {
+                            stack.push("|");
+                        }
+                    }
+                    break;
+                default:
+                    stack.push(node.type == Type.STAR ? "*" : node.type == Type.PLUS ? "+" : "?");
+                    RegexNode child = node.getChild();
+                    pushChild(stack, child, child.type == Type.CONCAT || child.type == Type.ALTERNATE
+                            || child.type == Type.EMPTY);
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void pushChild(Deque<Object> stack, RegexNode child, boolean group) {
+        if (group) {
+            stack.push(")");
+        }
+        stack.push(child);
+        if (group) {
+            stack.push("(");
+        }
+    }
+}
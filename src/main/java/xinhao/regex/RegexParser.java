@@ -0,0 +1,107 @@
+package xinhao.regex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * @author by xinhao  2021/8/27
+ * 把正则表达式解析成语法树 RegexNode。
+ * 只从左到右读取一遍，每个字符只处理一次，括号的嵌套使用显式的栈，所以时间是线性的，嵌套很深也不会栈溢出。
+ * 优先级从高到低: * ? + (可以叠加，比如 a** 就是 (a*)*)；连接；|。
+ * 空的表达式、空的括号和空的分支 (比如 a| ) 都表示空串。
+ */
+public class RegexParser {
+
+    /**
+     * 一层括号中正在解析的内容
+     */
+    private static final class Frame {
+        // 左括号的位置，最外层为 -1
+        private final int openPos;
+        // 已经解析完的分支
+        private final List<RegexNode> alternatives = new ArrayList<>();
+        // 当前分支中已经解析完的部分
+        private List<RegexNode> sequence = new ArrayList<>();
+
+        private Frame(int openPos) {
+            this.openPos = openPos;
+        }
+
+        // 结束当前分支
+        private void endAlternative() {
+            alternatives.add(RegexNode.concat(sequence));
+            sequence = new ArrayList<>();
+        }
+
+        // 结束这一层括号，得到对应的节点
+        private RegexNode finish() {
+            endAlternative();
+            return RegexNode.alternate(alternatives);
+        }
+    }
+
+    /**
+     * 解析正则表达式
+     * @param pattern
+     * @return
+     */
+    public static RegexNode parse(String pattern) {
+        Reader reader = Reader.create(pattern);
+        // 外层还没有解析完的括号
+        Deque<Frame> stack = new ArrayDeque<>();
+        Frame frame = new Frame(-1);
+        while (reader.hasNext()) {
+            int pos = reader.getPos();
+            char ch = reader.next();
+            switch (ch) {
+                case '(' :
+                    // 进入新的一层括号，外层的状态保存到栈中
+                    stack.push(frame);
+                    frame = new Frame(pos);
+                    break;
+                case ')' :
+                    if (stack.isEmpty()) {
+                        throw new IllegalArgumentException("第 " + pos + " 个字符 ')' 没有对应的 '(': " + pattern);
+                    }
+                    // 这一层括号解析完了，作为一个整体添加到外层
+                    RegexNode group = frame.finish();
+                    frame = stack.pop();
+                    frame.sequence.add(group);
+                    break;
+                case '|' :
+                    frame.endAlternative();
+                    break;
+                case '*' :
+                case '+' :
+                case '?' :
+                    // 作用于前面一个已经解析完的部分
+                    if (frame.sequence.isEmpty()) {
+                        throw new IllegalArgumentException("第 " + pos + " 个字符 '" + ch + "' 前面没有可以重复的表达式: " + pattern);
+                    }
+                    int last = frame.sequence.size() - 1;
+                    frame.sequence.set(last, repeat(ch, frame.sequence.get(last)));
+                    break;
+                default:
+                    frame.sequence.add(RegexNode.ofChar(ch));
+                    break;
+            }
+        }
+        if (!stack.isEmpty()) {
+            throw new IllegalArgumentException("第 " + frame.openPos + " 个字符 '(' 没有对应的 ')': " + pattern);
+        }
+        return frame.finish();
+    }
+
+    private static RegexNode repeat(char ch, RegexNode node) {
+        switch (ch) {
+            case '*' :
+                return RegexNode.star(node);
+            case '+' :
+                return RegexNode.plus(node);
+            default:
+                return RegexNode.optional(node);
+        }
+    }
+}
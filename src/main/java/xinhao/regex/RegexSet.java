@@ -0,0 +1,102 @@
+package xinhao.regex;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * @author by xinhao  2021/8/19
+ * 多个正则表达式合并成的一个自动机，只需要读取一遍输入字符，就能知道哪些正则表达式匹配。
+ * 每个正则表达式的 NFAGraph 通过 addParallel 并联起来，每个正则表达式的终止状态记录自己的编号，
+ * 子集构造之后，DFA 状态就对应了它匹配的正则表达式编号集合。
+ * 编译完成之后不能被修改，可以被多个线程共享。
+ */
+public final class RegexSet {
+
+    // 正则表达式，下标就是正则表达式的编号
+    private final String[] patterns;
+    // 合并之后的 DFA 转换表
+    private final DFATable dfaTable;
+
+    private RegexSet(String[] patterns, DFATable dfaTable) {
+        this.patterns = patterns;
+        this.dfaTable = dfaTable;
+    }
+
+    public static RegexSet compile(List<String> patterns) {
+        return compile(patterns.toArray(new String[0]));
+    }
+
+    /**
+     * 编译多个正则表达式，patterns[i] 的编号就是 i
+     * @param patterns
+     * @return
+     */
+    public static RegexSet compile(String... patterns) {
+        if (patterns.length == 0) {
+            throw new IllegalArgumentException("至少需要一个正则表达式");
+        }
+        NFAGraph unionGraph = null;
+        for (int i = 0; i < patterns.length; i++) {
+            NFAGraph nfaGraph = NFARegexUtil.createNFAGraph(patterns[i]);
+            // 每个正则表达式的结束状态就是终止状态，并记录正则表达式的编号
+            nfaGraph.getEndState().setEnd(true);
+            nfaGraph.getEndState().setMatchId(i);
+            if (unionGraph == null) {
+                unionGraph = nfaGraph;
+            } else {
+                // 进行 并 操作，新的结束状态不是终止状态
+                unionGraph.addParallel(nfaGraph);
+            }
+        }
+        DFAGraph dfaGraph = DFAMinimizer.minimize(DFARegexUtil.NFAToDFA(unionGraph));
+        return new RegexSet(patterns.clone(), dfaGraph.toTable());
+    }
+
+    /**
+     * 整个输入字符序列匹配的正则表达式编号，从小到大排序。
+     * 返回的数组是共享的，不能修改
+     * @param input
+     * @return
+     */
+    public int[] matchIds(CharSequence input) {
+        return dfaTable.getMatchIds(dfaTable.run(input));
+    }
+
+    /**
+     * 整个输入字符序列匹配的正则表达式编号集合
+     * @param input
+     * @return
+     */
+    public BitSet matches(CharSequence input) {
+        BitSet bitSet = new BitSet(patterns.length);
+        for (int matchId : matchIds(input)) {
+            bitSet.set(matchId);
+        }
+        return bitSet;
+    }
+
+    // 是否有任何一个正则表达式匹配
+    public boolean matchesAny(CharSequence input) {
+        return dfaTable.isEnd(dfaTable.run(input));
+    }
+
+    public String getPattern(int matchId) {
+        return patterns[matchId];
+    }
+
+    public int size() {
+        return patterns.length;
+    }
+
+    public DFATable getDFATable() {
+        return dfaTable;
+    }
+
+    public static void main(String[] args) {
+        RegexSet regexSet = compile("a(b|c)*", "ab*", "(a|b)c", "abc");
+        for (String input : new String[]{"a", "ab", "abc", "ac", "bc", "abbb", "x"}) {
+            System.out.println("matches(" + input + "):" + regexSet.matches(input));
+        }
+        System.out.println(regexSet.getDFATable());
+    }
+}
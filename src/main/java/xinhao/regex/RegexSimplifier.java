@@ -0,0 +1,266 @@
+package xinhao.regex;
+
+import java.util.*;
+
+/**
+ * @author by xinhao  2021/8/28
+ * 在语法树上化简正则表达式，化简之后的语法树和原来的匹配相同的字符串，但是生成的 NFA 状态和 ε有向边 更少，
+ * 子集构造计算 ε-closure 和 NFA 模拟时需要访问的状态也更少。规则:
+ * 1. 重复的叠加: (x*)* (x+)* (x?)* (x*)+ (x+)? ... ==> x*，(x+)+ ==> x+，(x?)? ==> x?；
+ *    (x*|y)* ==> (x|y)*，分支中的重复在外层的 * 中是多余的；
+ * 2. 连接和并的嵌套展开: (ab)c ==> abc，(a|b)|c ==> a|b|c，连接中的空串直接去掉；
+ * 3. 并中的空串: (x|) ==> x?；
+ * 4. 提取分支的公共前缀: abc|abd ==> ab(c|d)，相同的分支只保留一个；
+ * 5. 只有一个字符的分支合并成字符类: a|b|c ==> [abc]，只需要两个状态。
+ * 匹配只关心能不能匹配，不关心走的是哪个分支，所以分支的顺序可以改变。
+ */
+public class RegexSimplifier {
+
+    /**
+     * 化简语法树。后序遍历，子节点先化简，不使用递归
+     * @param root
+     * @return
+     */
+    public static RegexNode simplify(RegexNode root) {
+        // 原来的节点 ==> 化简之后的节点
+        Map<RegexNode, RegexNode> simplified = new IdentityHashMap<>();
+        for (RegexNode node : root.postOrder()) {
+            List<RegexNode> children = new ArrayList<>(node.getChildren().size());
+            for (RegexNode child : node.getChildren()) {
+                children.add(simplified.get(child));
+            }
+            RegexNode result;
+            switch (node.getType()) {
+                case CONCAT:
+                    result = simplifyConcat(children);
+                    break;
+                case ALTERNATE:
+                    result = simplifyAlternate(children);
+                    break;
+                case STAR:
+                case PLUS:
+                case OPTIONAL:
+                    result = repeat(node.getType(), children.get(0));
+                    break;
+                default:
+                    result = node;
+                    break;
+            }
+            simplified.put(node, result);
+        }
+        return simplified.get(root);
+    }
+
+    /**
+     * 连接: 展开嵌套的连接，去掉空串
+     * @param children  已经化简的子节点
+     * @return
+     */
+    private static RegexNode simplifyConcat(List<RegexNode> children) {
+        List<RegexNode> sequence = new ArrayList<>();
+        for (RegexNode child : children) {
+            if (child.getType() == RegexNode.Type.CONCAT) {
+                sequence.addAll(child.getChildren());
+            } else if (child.getType() != RegexNode.Type.EMPTY) {
+                sequence.add(child);
+            }
+        }
+        return RegexNode.concat(sequence);
+    }
+
+    /**
+     * 并: 展开嵌套的并，空串变成 ?，提取公共前缀，只有一个字符的分支合并成字符类
+     * @param children  已经化简的子节点
+     * @return
+     */
+    private static RegexNode simplifyAlternate(List<RegexNode> children) {
+        List<RegexNode> alternatives = new ArrayList<>();
+        boolean hasEmpty = false;
+        for (RegexNode child : children) {
+            if (child.getType() == RegexNode.Type.ALTERNATE) {
+                // 化简过的并中不会有空串
+                alternatives.addAll(child.getChildren());
+            } else if (child.getType() == RegexNode.Type.EMPTY) {
+                hasEmpty = true;
+            } else {
+                alternatives.add(child);
+            }
+        }
+
+        // 按照第一个字符分组，第一个字符相同的分支提取公共前缀
+        Map<Character, List<RegexNode>> groups = new LinkedHashMap<>();
+        List<RegexNode> rest = new ArrayList<>();
+        for (RegexNode alternative : alternatives) {
+            String prefix = literalPrefix(alternative);
+            if (prefix.isEmpty()) {
+                rest.add(alternative);
+                continue;
+            }
+            List<RegexNode> group = groups.get(prefix.charAt(0));
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(prefix.charAt(0), group);
+            }
+            group.add(alternative);
+        }
+        for (List<RegexNode> group : groups.values()) {
+            rest.add(group.size() == 1 ? group.get(0) : factorPrefix(group));
+        }
+
+        // 只有一个字符的分支合并成字符类
+        List<RegexNode> result = new ArrayList<>();
+        StringBuilder chars = new StringBuilder();
+        for (RegexNode alternative : rest) {
+            if (alternative.getType() == RegexNode.Type.CHAR) {
+                chars.append(alternative.getChar());
+            } else if (alternative.getType() == RegexNode.Type.CHAR_CLASS) {
+                chars.append(alternative.getChars());
+            } else {
+                result.add(alternative);
+            }
+        }
+        if (chars.length() > 0) {
+            result.add(RegexNode.charClass(chars.toString().toCharArray()));
+        }
+
+        if (result.isEmpty()) {
+            // 所有分支都是空串
+            return RegexNode.empty();
+        }
+        RegexNode node = RegexNode.alternate(result);
+        return hasEmpty ? repeat(RegexNode.Type.OPTIONAL, node) : node;
+    }
+
+    /**
+     * 第一个字符相同的分支: 公共前缀 + (剩下部分的并)
+     * @param group
+     * @return
+     */
+    private static RegexNode factorPrefix(List<RegexNode> group) {
+        String common = literalPrefix(group.get(0));
+        for (int i = 1; i < group.size(); i++) {
+            String prefix = literalPrefix(group.get(i));
+            int length = 0;
+            while (length < common.length() && length < prefix.length()
+                    && common.charAt(length) == prefix.charAt(length)) {
+                length++;
+            }
+            common = common.substring(0, length);
+        }
+        List<RegexNode> suffixes = new ArrayList<>(group.size());
+        for (RegexNode alternative : group) {
+            suffixes.add(dropPrefix(alternative, common.length()));
+        }
+        // 剩下的部分可能还有公共前缀，继续化简。每一层至少去掉一个字符，所以层数不超过分支的长度
+        RegexNode suffix = simplifyAlternate(suffixes);
+        List<RegexNode> sequence = new ArrayList<>();
+        for (int i = 0; i < common.length(); i++) {
+            sequence.add(RegexNode.ofChar(common.charAt(i)));
+        }
+        sequence.add(suffix);
+        return simplifyConcat(sequence);
+    }
+
+    // 开头的字符组成的字符串
+    private static String literalPrefix(RegexNode node) {
+        if (node.getType() == RegexNode.Type.CHAR) {
+            return String.valueOf(node.getChar());
+        }
+        StringBuilder builder = new StringBuilder();
+        if (node.getType() == RegexNode.Type.CONCAT) {
+            for (RegexNode child : node.getChildren()) {
+                if (child.getType() != RegexNode.Type.CHAR) {
+                    break;
+                }
+                builder.append(child.getChar());
+            }
+        }
+        return builder.toString();
+    }
+
+    // 去掉开头的 length 个字符
+    private static RegexNode dropPrefix(RegexNode node, int length) {
+        if (node.getType() == RegexNode.Type.CHAR) {
+            return RegexNode.empty();
+        }
+        List<RegexNode> children = node.getChildren();
+        return RegexNode.concat(children.subList(length, children.size()));
+    }
+
+    /**
+     * 重复: 叠加的重复合并成一个
+     * @param type  STAR PLUS OPTIONAL
+     * @param child  已经化简的子节点
+     * @return
+     */
+    private static RegexNode repeat(RegexNode.Type type, RegexNode child) {
+        if (child.getType() == RegexNode.Type.EMPTY) {
+            return child;
+        }
+        if (isRepeat(child.getType())) {
+            // 相同的重复叠加不变；不同的重复叠加之后既可以是 0 次，也可以是任意多次
+            return child.getType() == type ? child : RegexNode.star(child.getChild());
+        }
+        if (type == RegexNode.Type.STAR && child.getType() == RegexNode.Type.ALTERNATE) {
+            // (x*|y)* ==> (x|y)*
+            List<RegexNode> alternatives = new ArrayList<>();
+            boolean changed = false;
+            for (RegexNode alternative : child.getChildren()) {
+                if (isRepeat(alternative.getType())) {
+                    alternatives.add(alternative.getChild());
+                    changed = true;
+                } else {
+                    alternatives.add(alternative);
+                }
+            }
+            if (changed) {
+                // 去掉重复之后分支可能可以合并，再化简一次；化简结果中的分支不会再有重复
+                return repeat(type, simplifyAlternate(alternatives));
+            }
+        }
+        switch (type) {
+            case STAR:
+                return RegexNode.star(child);
+            case PLUS:
+                return RegexNode.plus(child);
+            default:
+                return RegexNode.optional(child);
+        }
+    }
+
+    private static boolean isRepeat(RegexNode.Type type) {
+        return type == RegexNode.Type.STAR || type == RegexNode.Type.PLUS || type == RegexNode.Type.OPTIONAL;
+    }
+
+    public static void main(String[] args) {
+        String[] patterns = {
+                "a(b|c)*d",
+                "(a*)*b",
+                "((a|b)*|c)*d",
+                "abc|abd|abe|aef",
+                "(a|b|c|d|e|f)+x",
+                "(Mon|Tue|Wed|Thu|Fri|Sat|Sun)day",
+                "(0|1|2|3|4|5|6|7|8|9)+(.(0|1|2|3|4|5|6|7|8|9)+)?",
+                "if|in|int|interface|import|implements|instanceof",
+                "(a|b)*a(a|b)(a|b)(a|b)(a|b)",
+                "(x|)(y|)(z|)w"
+        };
+        for (String pattern : patterns) {
+            RegexNode node = RegexParser.parse(pattern);
+            RegexNode simplifiedNode = simplify(node);
+            NFATable before = NFATable.create(endGraph(node));
+            NFATable after = NFATable.create(endGraph(simplifiedNode));
+            int dfaBefore = DFARegexUtil.NFAToDFA(before).getStateCount();
+            int dfaAfter = DFARegexUtil.NFAToDFA(after).getStateCount();
+            System.out.println(pattern + " ==> " + simplifiedNode);
+            System.out.println("\tNFA " + before.getStateCount() + " -> " + after.getStateCount()
+                    + " states, DFA " + dfaBefore + " -> " + dfaAfter + " states");
+        }
+    }
+
+    private static NFAGraph endGraph(RegexNode node) {
+        NFAGraph graph = NFARegexUtil.createNFAGraph(node);
+        graph.getEndState().setEnd(true);
+        return graph;
+    }
+}
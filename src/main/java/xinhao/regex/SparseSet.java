@@ -0,0 +1,58 @@
+package xinhao.regex;
+
+/**
+ * @author by xinhao  2021/8/14
+ * 稀疏集合，用来保存 [0, capacity) 范围内的整数。
+ * 添加、判断是否包含、清空都是 O(1)，并且按添加的顺序遍历，适合保存 NFA 模拟时的状态集合。
+ */
+public final class SparseSet {
+
+    // 按添加顺序保存的元素
+    private final int[] dense;
+    // sparse[value] 是 value 在 dense 中的下标
+    private final int[] sparse;
+    // 元素个数
+    private int size;
+
+    public SparseSet(int capacity) {
+        this.dense = new int[capacity];
+        this.sparse = new int[capacity];
+    }
+
+    public boolean contains(int value) {
+        int index = sparse[value];
+        return index < size && dense[index] == value;
+    }
+
+    /**
+     * 添加元素
+     * @param value
+     * @return 元素原来不存在，返回 true
+     */
+    public boolean add(int value) {
+        if (contains(value)) {
+            return false;
+        }
+        dense[size] = value;
+        sparse[value] = size;
+        size++;
+        return true;
+    }
+
+    // 第 index 个添加的元素
+    public int get(int index) {
+        return dense[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
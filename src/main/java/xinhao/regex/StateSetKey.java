@@ -0,0 +1,56 @@
+package xinhao.regex;
+
+import java.util.Arrays;
+
+/**
+ * @author by xinhao  2021/8/15
+ * 用从小到大排序的 NFA 状态编号表示一个 NFA 状态集合，用作 Map 的 key，
+ * 判断两个集合是否相等时不需要拼接字符串。
+ */
+public final class StateSetKey {
+
+    // 从小到大排序的状态编号
+    private final int[] states;
+    private final int hash;
+
+    private StateSetKey(int[] states) {
+        this.states = states;
+        this.hash = Arrays.hashCode(states);
+    }
+
+    /**
+     * 通过状态集合生成 key，会复制并排序集合中的状态
+     * @param set
+     * @return
+     */
+    public static StateSetKey create(SparseSet set) {
+        int[] states = new int[set.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = set.get(i);
+        }
+        Arrays.sort(states);
+        return new StateSetKey(states);
+    }
+
+    public int[] getStates() {
+        return states;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        StateSetKey that = (StateSetKey) o;
+        return hash == that.hash && Arrays.equals(states, that.states);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(states);
+    }
+}
@@ -0,0 +1,276 @@
+package xinhao.regex;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author by xinhao  2021/8/21
+ * 分段读取输入的匹配器，判断所有输入连起来是否匹配正则表达式。
+ * 两次 feed 之间只保存 DFA 状态 (惰性 DFA 模式下是 NFA 状态集合)，不保存输入，
+ * 所以不需要把输入全部读到一个 String 中，占用的内存和输入的长度无关。
+ * 字节输入使用 CharsetDecoder 增量解码，一个多字节字符可以被分在两段中。
+ * 使用方式: feed ... feed ==> finish，finish 之后可以开始下一次匹配。
+ * 不是线程安全的，每个线程使用自己的 StreamMatcher。
+ */
+public class StreamMatcher {
+
+    // 读取 Reader 和 InputStream 时的缓冲区大小
+    private static final int BUFFER_SIZE = 8192;
+
+    // DFA 转换表，惰性 DFA 模式下为 null
+    private final DFATable dfaTable;
+    // 惰性 DFA 模式下使用 NFA 模拟，因为惰性 DFA 的缓存被清空之后状态编号就失效了
+    private final NFASimulator simulator;
+    // 字节输入的解码器
+    private final CharsetDecoder decoder;
+    // 当前 DFA 状态
+    private int state;
+    // 后面的输入还有可能匹配
+    private boolean alive;
+    // 解码得到的字符
+    private CharBuffer decodeBuffer;
+    // 上一段字节输入末尾没有解码的字节，也就是不完整的多字节字符
+    private ByteBuffer pendingBytes;
+    // 正则表达式和它的监听器，没有监听器时为 null
+    private final String pattern;
+    private final MatchListener listener;
+    // 这一次匹配已经读取的字符数，finish 时报告给监听器
+    private long length;
+
+    private StreamMatcher(Pattern pattern, Charset charset) {
+        this.pattern = pattern.pattern();
+        this.listener = pattern.getListener();
+        this.dfaTable = pattern.getDFATable();
+        this.simulator = dfaTable == null ? NFASimulator.create(pattern.getNFATable()) : null;
+        // 和 new String(bytes, charset) 一样，不能解码的字节替换成替换字符
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        reset();
+    }
+
+    public static StreamMatcher create(Pattern pattern) {
+        return new StreamMatcher(pattern, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param pattern
+     * @param charset  字节输入的字符集
+     * @return
+     */
+    public static StreamMatcher create(Pattern pattern, Charset charset) {
+        return new StreamMatcher(pattern, charset);
+    }
+
+    // 回到开始状态，丢弃已经读取的输入
+    public void reset() {
+        if (dfaTable != null) {
+            state = dfaTable.getStart();
+        } else {
+            simulator.reset();
+        }
+        alive = true;
+        length = 0;
+        decoder.reset();
+        if (pendingBytes != null) {
+            pendingBytes.clear();
+        }
+    }
+
+    /**
+     * 读取字符数组 chars 中 [off, off + len) 的字符
+     * @param chars
+     * @param off
+     * @param len
+     */
+    public void feed(char[] chars, int off, int len) {
+        if (off < 0 || len < 0 || off + len > chars.length) {
+            throw new IndexOutOfBoundsException("off: " + off + ", len: " + len + ", length: " + chars.length);
+        }
+        if (!alive) {
+            return;
+        }
+        length += len;
+        if (dfaTable != null) {
+            state = dfaTable.run(state, chars, off, off + len);
+            alive = state != DFATable.DEAD;
+        } else {
+            alive = simulator.feed(chars, off, off + len);
+        }
+    }
+
+    /**
+     * 读取 CharBuffer 中剩余的字符，读取之后 position 移动到 limit
+     * @param chars
+     */
+    public void feed(CharBuffer chars) {
+        if (chars.hasArray()) {
+            feed(chars.array(), chars.arrayOffset() + chars.position(), chars.remaining());
+        } else if (alive) {
+            // CharBuffer 本身就是 CharSequence，下标相对于 position
+            length += chars.remaining();
+            if (dfaTable != null) {
+                state = dfaTable.run(state, chars, 0, chars.remaining());
+                alive = state != DFATable.DEAD;
+            } else {
+                alive = simulator.feed(chars, 0, chars.remaining());
+            }
+        }
+        chars.position(chars.limit());
+    }
+
+    /**
+     * 读取字节数组 bytes 中 [off, off + len) 的字节
+     * @param bytes
+     * @param off
+     * @param len
+     */
+    public void feed(byte[] bytes, int off, int len) {
+        feed(ByteBuffer.wrap(bytes, off, len));
+    }
+
+    /**
+     * 读取 ByteBuffer 中剩余的字节，读取之后 position 移动到 limit。
+     * 末尾不完整的多字节字符会保存下来，和下一段字节一起解码
+     * @param bytes
+     */
+    public void feed(ByteBuffer bytes) {
+        if (decodeBuffer == null) {
+            decodeBuffer = CharBuffer.allocate(BUFFER_SIZE);
+            // 一个字符最多对应的字节数不会超过 16
+            pendingBytes = ByteBuffer.allocate(16);
+        }
+        // 1. 先把上一段剩下的字节补全成完整的字符
+        while (pendingBytes.position() > 0 && bytes.hasRemaining()) {
+            pendingBytes.put(bytes.get());
+            pendingBytes.flip();
+            decode(pendingBytes, false);
+            pendingBytes.compact();
+        }
+        // 2. 解码剩下的字节
+        decode(bytes, false);
+        // 3. 不完整的多字节字符保存下来
+        if (bytes.hasRemaining()) {
+            pendingBytes.put(bytes);
+        }
+    }
+
+    /**
+     * 所有输入结束，返回所有输入连起来是否匹配，然后回到开始状态。
+     * 有监听器时报告一次匹配，字符数不包括确定不可能匹配之后被跳过的输入
+     * @return
+     */
+    public boolean finish() {
+        if (pendingBytes != null) {
+            // 末尾不完整的字节按照解码错误处理
+            pendingBytes.flip();
+            decode(pendingBytes, true);
+            decodeBuffer.clear();
+            CoderResult result = decoder.flush(decodeBuffer);
+            checkResult(result);
+            decodeBuffer.flip();
+            feed(decodeBuffer);
+        }
+        boolean isMatch;
+        if (dfaTable != null) {
+            isMatch = dfaTable.isEnd(state);
+        } else {
+            isMatch = alive && simulator.isMatched();
+        }
+        if (listener != null) {
+            listener.matched(pattern, length, isMatch);
+        }
+        reset();
+        return isMatch;
+    }
+
+    // 后面的输入是否还有可能匹配，返回 false 时可以不再读取后面的输入
+    public boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * 读取 reader 中的所有字符并判断是否匹配，reader 不会被关闭
+     * @param reader
+     * @return
+     * @throws IOException
+     */
+    public boolean matches(Reader reader) throws IOException {
+        reset();
+        char[] buffer = new char[BUFFER_SIZE];
+        int len;
+        // 已经不可能匹配了，不需要再读取后面的输入
+        while (alive && (len = reader.read(buffer)) >= 0) {
+            feed(buffer, 0, len);
+        }
+        return finish();
+    }
+
+    /**
+     * 读取 in 中的所有字节并判断是否匹配，in 不会被关闭
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public boolean matches(InputStream in) throws IOException {
+        reset();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int len;
+        while (alive && (len = in.read(buffer)) >= 0) {
+            feed(buffer, 0, len);
+        }
+        return finish();
+    }
+
+    /**
+     * 读取 channel 中的所有字节并判断是否匹配，channel 不会被关闭
+     * @param channel
+     * @return
+     * @throws IOException
+     */
+    public boolean matches(ReadableByteChannel channel) throws IOException {
+        reset();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        while (alive && channel.read(buffer) >= 0) {
+            buffer.flip();
+            feed(buffer);
+            buffer.clear();
+        }
+        return finish();
+    }
+
+    // 解码 bytes 中的字节，解码得到的字符直接进行匹配
+    private void decode(ByteBuffer bytes, boolean endOfInput) {
+        while (true) {
+            decodeBuffer.clear();
+            CoderResult result = decoder.decode(bytes, decodeBuffer, endOfInput);
+            checkResult(result);
+            decodeBuffer.flip();
+            feed(decodeBuffer);
+            if (result.isUnderflow()) {
+                return;
+            }
+        }
+    }
+
+    // 解码错误都被替换了，这里只是以防万一
+    private static void checkResult(CoderResult result) {
+        if (result.isError()) {
+            try {
+                result.throwException();
+            } catch (CharacterCodingException e) {
+                throw new IllegalStateException("解码失败", e);
+            }
+        }
+    }
+}
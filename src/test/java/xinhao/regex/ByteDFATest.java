@@ -0,0 +1,139 @@
+package xinhao.regex;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author by xinhao  2021/9/7
+ * 字节 DFA 的结果必须和先用 new String(bytes, UTF_8) 解码、再用字符 DFA 匹配的结果一样
+ */
+public class ByteDFATest {
+
+    // 正则表达式中的字符: ASCII、2 字节、3 字节 (包括 E0 和 ED 开始的边界字符)、替换字符
+    private static final String ALPHABET = "ab\u00E9\u4E2D\u0800\uD7FF\uFFFD";
+
+    @Test
+    public void interruptedSequenceRestartsAtLeadByte() {
+        // E4 后面是 C3，E4 是一个 U+FFFD，C3 A9 是 U+00E9
+        byte[] bytes = {'x', (byte) 0xE4, (byte) 0xC3, (byte) 0xA9};
+        assertEquals("x\uFFFD\u00E9", new String(bytes, StandardCharsets.UTF_8));
+        assertTrue(byteDFA("x\uFFFD\u00E9").isMatch(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void invalidSecondBytes() {
+        // 过长编码和超过 U+10FFFF 的编码: 第一个字节是一个 U+FFFD，第二个字节是另一个 U+FFFD
+        assertMatchesDecoded("\uFFFD\uFFFD\uFFFD", new byte[]{(byte) 0xE0, (byte) 0x80, (byte) 0x80});
+        assertMatchesDecoded("\uFFFD\uFFFD\uFFFD\uFFFD", new byte[]{(byte) 0xF0, (byte) 0x80, (byte) 0x80, (byte) 0x80});
+        assertMatchesDecoded("\uFFFD\uFFFD\uFFFD\uFFFD", new byte[]{(byte) 0xF4, (byte) 0x90, (byte) 0x80, (byte) 0x80});
+        // 代理字符的编码读完之后是一个 U+FFFD
+        assertMatchesDecoded("a\uFFFDb", new byte[]{'a', (byte) 0xED, (byte) 0xA0, (byte) 0x80, 'b'});
+        // 输入在多字节字符中间结束
+        assertMatchesDecoded("a\uFFFD", new byte[]{'a', (byte) 0xE4, (byte) 0xB8});
+        assertFalse(byteDFA("a").isMatch(new byte[]{'a', (byte) 0xE4}, 0, 2));
+    }
+
+    @Test
+    public void fileScannerSeesReplacementBeforeInterruptingByte() {
+        // 第二行的 E4 被 a 打断，是一个 U+FFFD；第三行末尾没有读完的 E4 B8 也是一个 U+FFFD
+        byte[] bytes = {'x', '\n', 'b', (byte) 0xE4, 'a', '\n', 'c', (byte) 0xE4, (byte) 0xB8, '\n', 'd'};
+        long[] lines = FileScanner.create(Pattern.compile("\uFFFD")).scanLines(ByteBuffer.wrap(bytes));
+        assertEquals(2, lines.length);
+        assertEquals(2L, lines[0]);
+        assertEquals(6L, lines[1]);
+    }
+
+    @Test
+    public void randomBytesAgreeWithStringDecoding() {
+        Random random = new Random(20210907L);
+        for (int i = 0; i < 1000; i++) {
+            String regex = randomRegex(random, 3);
+            Pattern pattern = Pattern.compile(regex);
+            ByteDFA byteDFA = ByteDFA.create(pattern.getDFATable());
+            for (int j = 0; j < 40; j++) {
+                byte[] bytes = randomBytes(random, random.nextInt(8));
+                String decoded = new String(bytes, StandardCharsets.UTF_8);
+                assertEquals(regex + " on " + hex(bytes), pattern.matches(decoded),
+                        byteDFA.isMatch(bytes, 0, bytes.length));
+            }
+        }
+    }
+
+    @Test
+    public void asciiPatternAddsFewStates() {
+        DFATable dfaTable = Pattern.compile("a(b|c)*d").getDFATable();
+        ByteDFA byteDFA = ByteDFA.create(dfaTable);
+        assertTrue(byteDFA.toString(), byteDFA.getStateCount() <= dfaTable.getStateCount() * 8);
+    }
+
+    private static void assertMatchesDecoded(String expected, byte[] bytes) {
+        assertEquals(expected, new String(bytes, StandardCharsets.UTF_8));
+        assertTrue(hex(bytes), byteDFA(expected).isMatch(bytes, 0, bytes.length));
+    }
+
+    private static ByteDFA byteDFA(String regex) {
+        return ByteDFA.create(Pattern.compile(regex).getDFATable());
+    }
+
+    private static String randomRegex(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        switch (random.nextInt(3)) {
+            case 0:
+                return randomRegex(random, depth - 1) + randomRegex(random, depth - 1);
+            case 1:
+                return "(" + randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1) + ")";
+            default:
+                return "(" + randomRegex(random, depth - 1) + ")" + "*+?".charAt(random.nextInt(3));
+        }
+    }
+
+    /**
+     * 由几段组成: 字母表中字符的编码、编码的前缀、补充平面字符和代理字符的编码、任意字节
+     */
+    private static byte[] randomBytes(Random random, int pieces) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < pieces; i++) {
+            byte[] piece;
+            switch (random.nextInt(5)) {
+                case 0:
+                case 1:
+                    piece = String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length())))
+                            .getBytes(StandardCharsets.UTF_8);
+                    break;
+                case 2:
+                    byte[] encoded = String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length())))
+                            .getBytes(StandardCharsets.UTF_8);
+                    piece = new byte[random.nextInt(encoded.length + 1)];
+                    System.arraycopy(encoded, 0, piece, 0, piece.length);
+                    break;
+                case 3:
+                    piece = random.nextBoolean() ? new byte[]{(byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80}
+                            : new byte[]{(byte) 0xED, (byte) (0xA0 + random.nextInt(32)), (byte) 0x80};
+                    break;
+                default:
+                    piece = new byte[]{(byte) random.nextInt(256)};
+                    break;
+            }
+            out.write(piece, 0, piece.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02X ", b & 0xFF));
+        }
+        return builder.toString().trim();
+    }
+}
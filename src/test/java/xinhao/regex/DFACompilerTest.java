@@ -0,0 +1,93 @@
+package xinhao.regex;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author by xinhao  2021/9/7
+ * 生成的字节码和 DFA 转换表的匹配结果必须完全一样
+ */
+public class DFACompilerTest {
+
+    // 包括最小和最大的字符 0x0 和 0xffff，检查区间的边界；0xe9 和 0x4e2d 在 ASCII 之外
+    private static final String ALPHABET = "abcdefgh\u0000\u00E9\u4E2D\uFFFF";
+    // 不连续的字符，超过 LINEAR_RANGES 个区间时二分查找
+    private static final String SPARSE = "(a|c|e|g|\u00E9|\uFFFF)";
+
+    @Test
+    public void randomPatternsAgreeWithTable() {
+        Random random = new Random(20210907L);
+        int compiledCount = 0;
+        for (int i = 0; i < 500; i++) {
+            String regex = randomRegex(random, 4);
+            DFATable dfaTable = Pattern.compile(regex).getDFATable();
+            CompiledDFA compiled = DFACompiler.compile(dfaTable);
+            if (compiled == null) {
+                continue;
+            }
+            compiledCount++;
+            for (int j = 0; j < 40; j++) {
+                String input = randomInput(random, random.nextInt(12));
+                String message = regex + " on " + input;
+                boolean expected = dfaTable.isMatch(input);
+                assertEquals(message, expected, compiled.matches(input));
+                // 前后多出的字符不能被读取
+                String padded = randomInput(random, 3) + input + randomInput(random, 3);
+                char[] chars = padded.toCharArray();
+                assertEquals(message, expected, compiled.matches(chars, 3, 3 + input.length()));
+                assertEquals(message, expected, compiled.matches(new StringBuilder(padded), 3, 3 + input.length()));
+                assertEquals(message, dfaTable.isMatch(chars, 3, 3 + input.length()),
+                        compiled.matches(chars, 3, 3 + input.length()));
+            }
+        }
+        // 随机的正则表达式都很小，都能生成字节码
+        assertEquals(500, compiledCount);
+    }
+
+    @Test
+    public void hugeMethodFallsBackToTable() {
+        // 最小化之后有 2^10 个状态，生成的方法超过 MAX_CODE_SIZE
+        StringBuilder regex = new StringBuilder("(a|b)*a");
+        for (int i = 0; i < 9; i++) {
+            regex.append("(a|b)");
+        }
+        DFATable dfaTable = Pattern.compile(regex.toString()).getDFATable();
+        assertNull(DFACompiler.generate(dfaTable, "xinhao/regex/GeneratedDFATest"));
+        assertNull(DFACompiler.compile(dfaTable));
+        assertNotNull(DFACompiler.compile(Pattern.compile("(a|b)*a(a|b)").getDFATable()));
+    }
+
+    private static String randomRegex(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            if (random.nextInt(8) == 0) {
+                return SPARSE;
+            }
+            return String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return randomRegex(random, depth - 1) + randomRegex(random, depth - 1);
+            case 1:
+                return "(" + randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1) + ")";
+            case 2:
+                return "(" + randomRegex(random, depth - 1) + ")" + "*+?".charAt(random.nextInt(3));
+            default:
+                return randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1);
+        }
+    }
+
+    // 输入中有正则表达式中没有出现过的字符 z 和 0x100
+    private static String randomInput(Random random, int length) {
+        String chars = ALPHABET + "z\u0100";
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,154 @@
+package xinhao.regex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author by xinhao  2021/9/6
+ * 用 java.util.regex 检查 find / findAll 的结果。
+ * java.util.regex 的开始位置和这里一样是最靠左的，但是结束位置取决于分支的顺序，
+ * 所以期望的结束位置是从这个开始位置出发、java.util.regex 能完整匹配的最长的那一个。
+ */
+public class DFASearcherTest {
+
+    private static final String ALPHABET = "abc";
+
+    @Test
+    public void findLeftmostMatch() {
+        assertEquals(MatchRange.create(0, 4), Pattern.compile("abcd|c").find("abcd"));
+        assertEquals(MatchRange.create(0, 3), Pattern.compile("b|abc").find("abc"));
+        assertEquals(MatchRange.create(0, 5), Pattern.compile("bc|abcde").find("abcde"));
+        // 结束位置更远的匹配开始位置靠后，仍然选择开始位置最靠左的
+        assertEquals(MatchRange.create(0, 2), Pattern.compile("ab|bcde").find("abcde"));
+        // 开始位置相同时选择最长的
+        assertEquals(MatchRange.create(0, 2), Pattern.compile("a|ab").find("ab"));
+        assertNull(Pattern.compile("abc").find("abd"));
+    }
+
+    @Test
+    public void findFromOffset() {
+        Pattern pattern = Pattern.compile("abcd|c");
+        assertEquals(MatchRange.create(2, 3), pattern.find("abcd", 1));
+        assertEquals(MatchRange.create(4, 8), pattern.find("abcdabcd", 3));
+    }
+
+    @Test
+    public void lazyFindDoesNotBuildFullDFA() {
+        // 完整的 DFA 有 2^21 级别的状态
+        StringBuilder regex = new StringBuilder("(a|b)*a");
+        for (int i = 0; i < 20; i++) {
+            regex.append("(a|b)");
+        }
+        Pattern pattern = Pattern.compile(regex.toString(), Pattern.LAZY_DFA);
+        String input = "xxabababbbabababbabababbbababbbbaab";
+        List<MatchRange> expected = jdkFindAll(java.util.regex.Pattern.compile(regex.toString()), input);
+        assertEquals(expected, toList(pattern.findAll(input)));
+        assertNull(pattern.getCreatedSearcher());
+    }
+
+    @Test
+    public void lazyScansSurviveCacheClears() {
+        Random random = new Random(20210907L);
+        NFATable nfaTable = Pattern.compile("(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)").getNFATable();
+        DFATable dfaTable = DFAMinimizer.minimize(DFARegexUtil.NFAToDFA(nfaTable)).toTable();
+        // 缓存只能放下几个状态，查找过程中会被清空很多次
+        LazyDFA lazyDFA = LazyDFA.create(nfaTable, 1024, 0);
+        for (int i = 0; i < 200; i++) {
+            String input = randomInput(random, random.nextInt(40));
+            int from = random.nextInt(input.length() + 1);
+            assertEquals(input, dfaTable.lastEnd(input, from), lazyDFA.lastEnd(input, from));
+        }
+        assertTrue(lazyDFA.getClearCount() > 0);
+    }
+
+    @Test
+    public void randomPatternsAgreeWithJdk() {
+        Random random = new Random(20210906L);
+        for (int i = 0; i < 3000; i++) {
+            String regex = randomRegex(random, 4);
+            java.util.regex.Pattern jdkPattern = java.util.regex.Pattern.compile(regex);
+            Pattern dfaPattern = Pattern.compile(regex);
+            Pattern lazyPattern = Pattern.compile(regex, Pattern.LAZY_DFA);
+            ParallelSearcher parallelSearcher = ParallelSearcher.create(dfaPattern, ForkJoinPool.commonPool(),
+                    1 + random.nextInt(4));
+            for (int j = 0; j < 5; j++) {
+                String input = randomInput(random, random.nextInt(14));
+                String message = regex + " on " + input;
+                List<MatchRange> expected = jdkFindAll(jdkPattern, input);
+                assertEquals(message, expected, toList(dfaPattern.findAll(input)));
+                assertEquals(message, expected, toList(lazyPattern.findAll(input)));
+                assertEquals(message, expected, parallelSearcher.findAll(input));
+                assertEquals(message, expected.isEmpty() ? null : expected.get(0), dfaPattern.find(input));
+            }
+        }
+    }
+
+    /**
+     * 用 java.util.regex 得到所有不重叠的匹配: 开始位置由 find 得到，结束位置是能完整匹配的最长的那一个
+     */
+    private static List<MatchRange> jdkFindAll(java.util.regex.Pattern pattern, String input) {
+        List<MatchRange> ranges = new ArrayList<>();
+        java.util.regex.Matcher matcher = pattern.matcher(input);
+        int from = 0;
+        while (from <= input.length() && matcher.find(from)) {
+            int start = matcher.start();
+            int end = start;
+            for (int k = input.length(); k >= start; k--) {
+                if (matcher.region(start, k).matches()) {
+                    end = k;
+                    break;
+                }
+            }
+            ranges.add(MatchRange.create(start, end));
+            // 空匹配之后跳过一个字符
+            from = end > start ? end : end + 1;
+            matcher.reset();
+        }
+        return ranges;
+    }
+
+    private static List<MatchRange> toList(Iterator<MatchRange> iterator) {
+        List<MatchRange> ranges = new ArrayList<>();
+        while (iterator.hasNext()) {
+            ranges.add(iterator.next());
+        }
+        return ranges;
+    }
+
+    /**
+     * 只使用 RegexParser 支持的语法: 字面量、|、*、+、? 和括号
+     */
+    private static String randomRegex(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return randomRegex(random, depth - 1) + randomRegex(random, depth - 1);
+            case 1:
+                return "(" + randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1) + ")";
+            case 2:
+                return "(" + randomRegex(random, depth - 1) + ")" + "*+?".charAt(random.nextInt(3));
+            default:
+                return randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1);
+        }
+    }
+
+    // 输入中有正则表达式中没有出现过的字符 d
+    private static String randomInput(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(ALPHABET.length() + 1)));
+        }
+        return builder.toString();
+    }
+}
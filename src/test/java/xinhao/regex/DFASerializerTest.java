@@ -0,0 +1,184 @@
+package xinhao.regex;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author by xinhao  2021/9/7
+ */
+public class DFASerializerTest {
+
+    private static final String ALPHABET = "abcd";
+
+    private static final String[] PATTERNS = {"a(b|c)*d", "(ab|cd)*a", "abc|abd|b+", "((a|b)*|c)*d", "a?"};
+
+    @Test
+    public void patternRoundTrip() {
+        Random random = new Random(20210907L);
+        for (String regex : PATTERNS) {
+            Pattern pattern = Pattern.compile(regex);
+            byte[] bytes = DFASerializer.toBytes(pattern);
+            assertEquals(DFASerializer.sizeOf(pattern), bytes.length);
+            Pattern loaded = DFASerializer.readPattern(ByteBuffer.wrap(bytes));
+            assertEquals(regex, loaded.pattern());
+            assertEquals(pattern.flags(), loaded.flags());
+            assertEquals(pattern.getDFATable().getStateCount(), loaded.getDFATable().getStateCount());
+            assertSameMatches(random, pattern, loaded);
+        }
+    }
+
+    @Test
+    public void searchTablesRoundTrip() {
+        Random random = new Random(20210908L);
+        for (String regex : PATTERNS) {
+            Pattern pattern = Pattern.compile(regex);
+            // 生成查找使用的 DFA，保存时一起写入
+            pattern.find("");
+            assertNotNull(pattern.getCreatedSearcher());
+            Pattern loaded = DFASerializer.readPattern(ByteBuffer.wrap(DFASerializer.toBytes(pattern)));
+            // 加载之后不需要再生成
+            assertNotNull(loaded.getCreatedSearcher());
+            for (int i = 0; i < 50; i++) {
+                String input = randomInput(random, random.nextInt(16));
+                assertEquals(input, toList(pattern.findAll(input)), toList(loaded.findAll(input)));
+            }
+            assertSameMatches(random, pattern, loaded);
+        }
+    }
+
+    @Test
+    public void matchIdsRoundTrip() {
+        RegexSet set = RegexSet.compile("ab", "a+", "b|c", "(ab)*");
+        DFATable table = set.getDFATable();
+        DFATable loaded = DFASerializer.readTable(ByteBuffer.wrap(DFASerializer.toBytes(table)));
+        assertEquals(table.getStateCount(), loaded.getStateCount());
+        for (int state = 0; state < table.getStateCount(); state++) {
+            assertEquals(Arrays.toString(table.getMatchIds(state)), Arrays.toString(loaded.getMatchIds(state)));
+            assertEquals(table.isEnd(state), loaded.isEnd(state));
+        }
+        Random random = new Random(20210909L);
+        for (int i = 0; i < 200; i++) {
+            String input = randomInput(random, random.nextInt(8));
+            assertEquals(input, table.isMatch(input), loaded.isMatch(input));
+        }
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String regex : PATTERNS) {
+            patterns.add(Pattern.compile(regex));
+        }
+        patterns.get(0).find("");
+        Path file = Files.createTempFile("ruleset", ".dfa");
+        try {
+            DFASerializer.save(patterns, file);
+            List<Pattern> loaded = DFASerializer.load(file);
+            assertEquals(patterns.size(), loaded.size());
+            Random random = new Random(20210910L);
+            for (int i = 0; i < patterns.size(); i++) {
+                assertEquals(patterns.get(i).pattern(), loaded.get(i).pattern());
+                assertSameMatches(random, patterns.get(i), loaded.get(i));
+            }
+            assertNotNull(loaded.get(0).getCreatedSearcher());
+
+            // 文件末尾多出的字节
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length + 4));
+            try {
+                DFASerializer.load(file);
+                fail("没有发现多出的字节");
+            } catch (IllegalArgumentException expected) {
+                // 期望的异常
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void truncatedInput() {
+        Pattern pattern = Pattern.compile("a(b|c)*d");
+        pattern.find("");
+        byte[] bytes = DFASerializer.toBytes(pattern);
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                DFASerializer.readPattern(ByteBuffer.wrap(Arrays.copyOf(bytes, length)));
+                fail("截断到 " + length + " 字节没有抛出异常");
+            } catch (IllegalArgumentException expected) {
+                // 期望的异常
+            }
+        }
+        byte[] tableBytes = DFASerializer.toBytes(RegexSet.compile("ab", "a+").getDFATable());
+        for (int length = 0; length < tableBytes.length; length++) {
+            try {
+                DFASerializer.readTable(ByteBuffer.wrap(Arrays.copyOf(tableBytes, length)));
+                fail("截断到 " + length + " 字节没有抛出异常");
+            } catch (IllegalArgumentException expected) {
+                // 期望的异常
+            }
+        }
+    }
+
+    @Test
+    public void everyBitFlipIsDetected() {
+        Pattern pattern = Pattern.compile("(ab|cd)*a");
+        pattern.find("");
+        assertEveryBitFlipDetected(DFASerializer.toBytes(pattern), false);
+        assertEveryBitFlipDetected(DFASerializer.toBytes(RegexSet.compile("ab", "a+", "b|c").getDFATable()), true);
+    }
+
+    // 翻转每一位，不管是头部、转换表、终止状态还是正则表达式编号，都要抛出 IllegalArgumentException
+    private static void assertEveryBitFlipDetected(byte[] bytes, boolean table) {
+        for (int bit = 0; bit < bytes.length * 8; bit++) {
+            byte[] corrupted = bytes.clone();
+            corrupted[bit >>> 3] ^= 1 << (bit & 7);
+            try {
+                if (table) {
+                    DFASerializer.readTable(ByteBuffer.wrap(corrupted));
+                } else {
+                    DFASerializer.readPattern(ByteBuffer.wrap(corrupted));
+                }
+                fail("第 " + bit + " 位翻转之后没有抛出异常");
+            } catch (IllegalArgumentException expected) {
+                // 期望的异常
+            }
+        }
+    }
+
+    private static void assertSameMatches(Random random, Pattern expected, Pattern actual) {
+        for (int i = 0; i < 100; i++) {
+            String input = randomInput(random, random.nextInt(10));
+            assertEquals(expected.pattern() + " on " + input, expected.matches(input), actual.matches(input));
+        }
+    }
+
+    private static List<MatchRange> toList(Iterator<MatchRange> iterator) {
+        List<MatchRange> ranges = new ArrayList<>();
+        while (iterator.hasNext()) {
+            ranges.add(iterator.next());
+        }
+        return ranges;
+    }
+
+    private static String randomInput(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return builder.toString();
+    }
+}
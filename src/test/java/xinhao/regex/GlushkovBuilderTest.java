@@ -0,0 +1,108 @@
+package xinhao.regex;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author by xinhao  2021/9/7
+ * 用 Thompson 构造得到的 DFA 和 java.util.regex 检查 Glushkov 构造和位并行模拟。
+ * Thompson 构造直接使用 NFARegexUtil.createNFAGraph，不经过 RegexSimplifier，和 Glushkov 构造是两条独立的路径
+ */
+public class GlushkovBuilderTest {
+
+    private static final String ALPHABET = "abc";
+
+    @Test
+    public void glushkovHasNoEpsilonEdges() {
+        NFATable nfaTable = GlushkovBuilder.build("a(b|c)*d");
+        assertTrue(nfaTable.isEpsilonFree());
+        // 化简之后 (b|c) 是一个字符类，开始状态加上 a、[bc]、d 3 个位置
+        assertEquals(4, nfaTable.getStateCount());
+        assertTrue(BitParallelMatcher.canCreate(nfaTable));
+    }
+
+    @Test
+    public void bitParallelNeedsAtMost64States() {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < BitParallelMatcher.MAX_STATES; i++) {
+            regex.append('a');
+        }
+        // 64 个位置加上开始状态是 65 个状态
+        assertEquals(BitParallelMatcher.MAX_STATES + 1, GlushkovBuilder.stateCount(RegexParser.parse(regex.toString())));
+        assertFalse(BitParallelMatcher.canCreate(GlushkovBuilder.build(regex.toString())));
+        Pattern pattern = Pattern.compile(regex.toString(), Pattern.LAZY_DFA);
+        assertNull(pattern.getBitParallelMatcher());
+        assertTrue(pattern.matches(regex));
+    }
+
+    @Test
+    public void randomPatternsAgreeWithThompsonAndJdk() {
+        Random random = new Random(20210907L);
+        for (int i = 0; i < 2000; i++) {
+            String regex = randomRegex(random, 4);
+            java.util.regex.Pattern jdkPattern = java.util.regex.Pattern.compile(regex);
+            NFAGraph graph = NFARegexUtil.createNFAGraph(regex);
+            graph.getEndState().setEnd(true);
+            DFATable thompson = DFARegexUtil.NFAToDFA(graph).toTable();
+
+            NFATable glushkov = GlushkovBuilder.build(regex);
+            assertTrue(regex, glushkov.isEpsilonFree());
+            assertTrue(regex, BitParallelMatcher.canCreate(glushkov));
+            BitParallelMatcher bitParallel = BitParallelMatcher.create(glushkov);
+            NFASimulator simulator = NFASimulator.create(glushkov);
+            DFATable glushkovDFA = DFARegexUtil.NFAToDFA(glushkov).toTable();
+            Pattern glushkovPattern = Pattern.compile(regex, Pattern.GLUSHKOV);
+            Pattern lazyPattern = Pattern.compile(regex, Pattern.LAZY_DFA);
+            assertNotNull(regex, lazyPattern.getBitParallelMatcher());
+
+            for (int j = 0; j < 20; j++) {
+                String input = randomInput(random, random.nextInt(12));
+                String message = regex + " on " + input;
+                boolean expected = jdkPattern.matcher(input).matches();
+                assertEquals(message, expected, thompson.isMatch(input));
+                assertEquals(message, expected, bitParallel.isMatch(input));
+                char[] chars = ("x" + input + "x").toCharArray();
+                assertEquals(message, expected, bitParallel.isMatch(chars, 1, chars.length - 1));
+                assertEquals(message, expected, simulator.isMatch(input));
+                assertEquals(message, expected, glushkovDFA.isMatch(input));
+                assertEquals(message, expected, glushkovPattern.matches(input));
+                assertEquals(message, expected, lazyPattern.matches(input));
+            }
+        }
+    }
+
+    /**
+     * 只使用 RegexParser 支持的语法: 字面量、|、*、+、? 和括号
+     */
+    private static String randomRegex(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return randomRegex(random, depth - 1) + randomRegex(random, depth - 1);
+            case 1:
+                return "(" + randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1) + ")";
+            case 2:
+                return "(" + randomRegex(random, depth - 1) + ")" + "*+?".charAt(random.nextInt(3));
+            default:
+                return randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1);
+        }
+    }
+
+    // 输入中有正则表达式中没有出现过的字符 d
+    private static String randomInput(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(ALPHABET.length() + 1)));
+        }
+        return builder.toString();
+    }
+}
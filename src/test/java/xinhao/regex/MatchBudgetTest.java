@@ -0,0 +1,232 @@
+package xinhao.regex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author by xinhao  2021/9/7
+ */
+public class MatchBudgetTest {
+
+    private static NFAGraph graph(String regex) {
+        NFAGraph graph = NFARegexUtil.createNFAGraph(regex);
+        graph.getEndState().setEnd(true);
+        return graph;
+    }
+
+    private static char[] repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return chars;
+    }
+
+    // 指数级的回溯: (a|aa)*b 匹配 count 个 a
+    private static MatchBudgetExceededException backtrackExponential(int count, MatchBudget.Meter meter) {
+        NFAGraph graph = graph("(a|aa)*b");
+        try {
+            NFARegexUtil.isMatch(graph.getStartState(), repeat('a', count), 0,
+                    RecordNFAState.create(graph.getStartState()), meter);
+        } catch (MatchBudgetExceededException e) {
+            return e;
+        }
+        fail("没有超过预算");
+        return null;
+    }
+
+    @Test
+    public void stepsExceeded() {
+        MatchBudget.Meter meter = MatchBudget.create(100, Integer.MAX_VALUE, Long.MAX_VALUE,
+                TimeUnit.NANOSECONDS).start();
+        MatchBudgetExceededException e = backtrackExponential(30, meter);
+        assertEquals(MatchBudgetExceededException.Reason.STEPS, e.getReason());
+        // 第 101 步刚好超过上限
+        assertEquals(101L, e.getSteps());
+        assertEquals(101L, meter.getSteps());
+    }
+
+    @Test
+    public void simulatorStepsExceeded() {
+        MatchBudget.Meter meter = MatchBudget.create(100, Integer.MAX_VALUE, Long.MAX_VALUE,
+                TimeUnit.NANOSECONDS).start();
+        try {
+            NFARegexUtil.isMatch(graph("(a|aa)*b"), new String(repeat('a', 1000)), null, meter);
+            fail("没有超过预算");
+        } catch (MatchBudgetExceededException e) {
+            assertEquals(MatchBudgetExceededException.Reason.STEPS, e.getReason());
+            // 每读取一个字符消耗当前状态集合大小的步数，超过上限的那个字符之后立即停止
+            assertTrue(e.getSteps() > 100 && e.getSteps() < 200);
+            assertEquals(meter.getSteps(), e.getSteps());
+        }
+    }
+
+    @Test
+    public void simulatorReusedAfterExceeded() {
+        NFASimulator simulator = NFASimulator.create(NFATable.create(graph("(a|aa)*b")));
+        MatchBudget budget = MatchBudget.create(100, Integer.MAX_VALUE, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        try {
+            NFARegexUtil.isMatch(simulator, new String(repeat('a', 1000)), null, budget.start());
+            fail("没有超过预算");
+        } catch (MatchBudgetExceededException e) {
+            assertEquals(MatchBudgetExceededException.Reason.STEPS, e.getReason());
+        }
+        // 同一个模拟器继续匹配其他输入
+        assertTrue(NFARegexUtil.isMatch(simulator, "aaab", null, budget.start()));
+        assertTrue(NFARegexUtil.isMatch(simulator, "b", null));
+        assertFalse(NFARegexUtil.isMatch(simulator, "aaa", null, budget.start()));
+    }
+
+    @Test
+    public void depthExceeded() {
+        NFAGraph graph = graph("a*");
+        MatchBudget.Meter meter = MatchBudget.create(Long.MAX_VALUE, 50, Long.MAX_VALUE,
+                TimeUnit.NANOSECONDS).start();
+        try {
+            NFARegexUtil.isMatch(graph.getStartState(), repeat('a', 1000), 0,
+                    RecordNFAState.create(graph.getStartState()), meter);
+            fail("没有超过预算");
+        } catch (MatchBudgetExceededException e) {
+            assertEquals(MatchBudgetExceededException.Reason.DEPTH, e.getReason());
+            assertEquals(51, e.getMaxDepth());
+            assertEquals(meter.getSteps(), e.getSteps());
+            assertTrue(e.getSteps() >= 51);
+        }
+    }
+
+    @Test
+    public void stackOverflowReportedAsDepth() {
+        // ε有向边 组成的环无限递归，线程栈先于递归深度的上限用完
+        NFAGraph graph = graph("(((b)*|(c)+))+");
+        MatchBudget.Meter meter = MatchBudget.create(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE,
+                TimeUnit.NANOSECONDS).start();
+        try {
+            NFARegexUtil.isMatch(graph.getStartState(), "bcbcbcd".toCharArray(), 0,
+                    RecordNFAState.create(graph.getStartState()), meter);
+            fail("没有超过预算");
+        } catch (MatchBudgetExceededException e) {
+            assertEquals(MatchBudgetExceededException.Reason.DEPTH, e.getReason());
+            assertTrue(e.getMaxDepth() > 0);
+            assertEquals(meter.getMaxDepth(), e.getMaxDepth());
+            assertEquals(meter.getSteps(), e.getSteps());
+        }
+    }
+
+    @Test
+    public void deadlineExceeded() {
+        MatchBudget.Meter meter = MatchBudget.create(Long.MAX_VALUE, Integer.MAX_VALUE, 1,
+                TimeUnit.MILLISECONDS).start();
+        MatchBudgetExceededException e = backtrackExponential(60, meter);
+        assertEquals(MatchBudgetExceededException.Reason.DEADLINE, e.getReason());
+        assertTrue(e.getElapsedNanos() > TimeUnit.MILLISECONDS.toNanos(1));
+        // 时间每 1024 步检查一次
+        assertTrue(e.getSteps() > 0);
+        assertEquals(0L, e.getSteps() % 1024);
+        assertEquals(meter.getSteps(), e.getSteps());
+    }
+
+    @Test
+    public void interruptedAtStart() {
+        Thread.currentThread().interrupt();
+        try {
+            MatchBudget.UNLIMITED.start();
+            fail("没有检查中断");
+        } catch (MatchBudgetExceededException e) {
+            assertEquals(MatchBudgetExceededException.Reason.INTERRUPTED, e.getReason());
+            assertEquals(0L, e.getSteps());
+            // 不清除中断标志
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void interruptedWhileMatching() throws InterruptedException {
+        final MatchBudgetExceededException[] thrown = new MatchBudgetExceededException[1];
+        final MatchBudget.Meter[] meters = new MatchBudget.Meter[1];
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                meters[0] = MatchBudget.UNLIMITED.start();
+                thrown[0] = backtrackExponential(60, meters[0]);
+            }
+        });
+        worker.start();
+        Thread.sleep(50);
+        worker.interrupt();
+        worker.join(10000);
+        assertEquals(MatchBudgetExceededException.Reason.INTERRUPTED, thrown[0].getReason());
+        assertTrue(thrown[0].getSteps() > 0);
+        assertEquals(0L, thrown[0].getSteps() % 1024);
+        assertEquals(meters[0].getSteps(), thrown[0].getSteps());
+    }
+
+    @Test
+    public void cancelledAtStart() {
+        CancellationToken token = CancellationToken.create();
+        token.cancel();
+        try {
+            MatchBudget.create(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, TimeUnit.NANOSECONDS, token)
+                    .start();
+            fail("没有检查取消");
+        } catch (MatchBudgetExceededException e) {
+            assertEquals(MatchBudgetExceededException.Reason.CANCELLED, e.getReason());
+            assertEquals(0L, e.getSteps());
+        }
+    }
+
+    @Test
+    public void cancelledWhileMatching() throws InterruptedException {
+        final CancellationToken token = CancellationToken.create();
+        final MatchBudget budget = MatchBudget.create(Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE,
+                TimeUnit.NANOSECONDS, token);
+        final MatchBudgetExceededException[] thrown = new MatchBudgetExceededException[1];
+        final MatchBudget.Meter[] meters = new MatchBudget.Meter[1];
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                meters[0] = budget.start();
+                thrown[0] = backtrackExponential(60, meters[0]);
+            }
+        });
+        worker.start();
+        Thread.sleep(50);
+        token.cancel();
+        worker.join(10000);
+        assertEquals(MatchBudgetExceededException.Reason.CANCELLED, thrown[0].getReason());
+        assertTrue(thrown[0].getSteps() > 0);
+        assertEquals(0L, thrown[0].getSteps() % 1024);
+        assertEquals(meters[0].getSteps(), thrown[0].getSteps());
+    }
+
+    @Test
+    public void listenerBacktrackIgnoresInterrupt() {
+        NFAGraph graph = graph("a(b|c)*d");
+        final long[] reported = new long[2];
+        MatchListener listener = new MatchListener() {
+            @Override
+            public void backtracked(String pattern, int length, long calls, long backtracks, boolean matched) {
+                reported[0] = calls;
+                reported[1] = matched ? 1 : 0;
+            }
+        };
+        Thread.currentThread().interrupt();
+        try {
+            // 没有预算的匹配不检查中断
+            assertTrue(NFARegexUtil.isMatch("a(b|c)*d", graph.getStartState(), "abcd".toCharArray(),
+                    RecordNFAState.create(graph.getStartState()), listener));
+            // 中断标志保留给调用者
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(reported[0] > 0);
+        assertEquals(1L, reported[1]);
+    }
+}
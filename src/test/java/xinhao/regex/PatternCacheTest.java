@@ -0,0 +1,68 @@
+package xinhao.regex;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author by xinhao  2021/9/7
+ */
+public class PatternCacheTest {
+
+    // 8 个字符的字面量，最小化之后的 DFA 有 10 个状态 (包括 DEAD 状态)
+    private static String literal(int i) {
+        return "pattern" + (char) ('a' + i);
+    }
+
+    @Test
+    public void evictsDownToLowWeight() {
+        PatternCache cache = PatternCache.create(100);
+        for (int i = 0; i < 10; i++) {
+            cache.get(literal(i));
+        }
+        assertEquals(100, cache.getWeight());
+        assertEquals(0, cache.getEvictionCount());
+        // 再次使用第一个，最久没有使用的变成第二个
+        cache.get(literal(0));
+
+        cache.get(literal(10));
+        // 移除两个，总权重降到上限的 90%
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(90, cache.getWeight());
+        assertEquals(9, cache.size());
+        long misses = cache.getMissCount();
+        cache.get(literal(0));
+        cache.get(literal(3));
+        assertEquals(misses, cache.getMissCount());
+        cache.get(literal(1));
+        assertEquals(misses + 1, cache.getMissCount());
+
+        // 上一次移除腾出了空间，这次不需要再移除
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(100, cache.getWeight());
+    }
+
+    @Test
+    public void oversizedPatternIsNotCached() {
+        PatternCache cache = PatternCache.create(100);
+        for (int i = 0; i < 5; i++) {
+            cache.get(literal(i));
+        }
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            regex.append('a');
+        }
+        Pattern pattern = cache.get(regex.toString());
+        assertTrue(pattern.matches(regex));
+        assertFalse(pattern.matches("a"));
+        // 没有挤掉其他缓存项，自己也不在缓存中
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(5, cache.size());
+        assertEquals(50, cache.getWeight());
+        cache.get(regex.toString());
+        assertEquals(7, cache.getMissCount());
+        assertEquals(5, cache.size());
+    }
+}
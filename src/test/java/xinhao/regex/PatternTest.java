@@ -0,0 +1,68 @@
+package xinhao.regex;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author by xinhao  2021/9/7
+ */
+public class PatternTest {
+
+    @Test
+    public void lazyMatchesReusesThreadCache() {
+        MatchStatistics statistics = new MatchStatistics();
+        // 超过 64 个位置，不能使用位并行模拟
+        StringBuilder regex = new StringBuilder("(a|b)*a");
+        for (int i = 0; i < 70; i++) {
+            regex.append("(a|b)");
+        }
+        Pattern pattern = Pattern.compile(regex.toString(), Pattern.LAZY_DFA, statistics);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            input.append(i % 3 == 0 ? 'a' : 'b');
+        }
+        assertFalse(pattern.matches(input));
+        long lazyStates = statistics.get(regex.toString()).getLazyStates();
+        assertTrue(lazyStates > 0);
+        for (int i = 0; i < 49; i++) {
+            assertFalse(pattern.matches(input));
+        }
+        MatchStatistics.Stats stats = statistics.get(regex.toString());
+        assertEquals(50, stats.getMatchCount());
+        // 第一次调用之后不再生成新的状态
+        assertEquals(lazyStates, stats.getLazyStates());
+    }
+
+    @Test
+    public void lazyPatternIsCollectedAfterUse() throws InterruptedException {
+        StringBuilder regex = new StringBuilder("(a|b)*a");
+        for (int i = 0; i < 70; i++) {
+            regex.append("(a|b)");
+        }
+        Pattern pattern = Pattern.compile(regex.toString(), Pattern.LAZY_DFA);
+        assertTrue(pattern.matches("a" + repeat('b', 70)));
+        assertEquals(MatchRange.create(0, 71), pattern.find("a" + repeat('b', 70)));
+        WeakReference<Pattern> reference = new WeakReference<>(pattern);
+        pattern = null;
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        // 当前线程还活着，线程中保存的惰性 DFA 不能让 Pattern 无法回收
+        assertNull(reference.get());
+    }
+
+    private static String repeat(char ch, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(ch);
+        }
+        return builder.toString();
+    }
+}
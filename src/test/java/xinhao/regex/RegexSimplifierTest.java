@@ -0,0 +1,170 @@
+package xinhao.regex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author by xinhao  2021/9/7
+ * 化简之后的语法树要和原来的匹配相同的字符串: 最小化之后的 DFA 状态数相同，
+ * 并且长度不超过 MAX_LENGTH 的所有字符串的匹配结果都相同
+ */
+public class RegexSimplifierTest {
+
+    private static final String ALPHABET = "abc";
+    // 穷举的输入长度上限
+    private static final int MAX_LENGTH = 6;
+
+    // 正则表达式 ==> 化简之后的 toString()。CHAR_CLASS 输出成只有一个字符的分支
+    private static final String[][] CASES = {
+            // 重复的叠加
+            {"(a*)*", "a*"},
+            {"(a+)*", "a*"},
+            {"(a?)*", "a*"},
+            {"(a*)+", "a*"},
+            {"(a+)?", "a*"},
+            {"(a?)+", "a*"},
+            {"(a*)?", "a*"},
+            {"(a+)+", "a+"},
+            {"(a?)?", "a?"},
+            // 分支中的重复在外层的 * 中是多余的
+            {"(a*|b)*", "(a|b)*"},
+            {"((a|b)*|c)*d", "(a|b|c)*d"},
+            {"(ab*|c)*", "(ab*|c)*"},
+            // 嵌套的连接和并展开
+            {"(ab)c", "abc"},
+            {"((a))", "a"},
+            {"(a|b)|c", "(a|b|c)"},
+            // 提取公共前缀，相同的分支只保留一个
+            {"abc|abd", "ab(c|d)"},
+            {"abc|abd|abe|aef", "a(b(c|d|e)|ef)"},
+            {"if|in|int", "i(nt?|f)"},
+            {"abc|abc", "abc"},
+            // 空的分支变成 ?
+            {"(a|)", "a?"},
+            {"(|a)b", "a?b"},
+            {"(ab|)c", "(ab)?c"},
+            {"(x|)(y|)(z|)w", "x?y?z?w"},
+            {"(|)", ""},
+            // 不能化简
+            {"a(b|c)*d", "a(b|c)*d"},
+    };
+
+    @Test
+    public void simplifiedToString() {
+        for (String[] c : CASES) {
+            assertEquals(c[0], c[1], RegexSimplifier.simplify(RegexParser.parse(c[0])).toString());
+        }
+    }
+
+    @Test
+    public void tableCasesKeepLanguage() {
+        List<String> inputs = allInputs("abcdefintwxyz", 4);
+        for (String[] c : CASES) {
+            assertSameLanguage(c[0], inputs);
+        }
+    }
+
+    @Test
+    public void randomPatternsKeepLanguage() {
+        Random random = new Random(20210907L);
+        List<String> inputs = allInputs(ALPHABET + "d", MAX_LENGTH);
+        for (int i = 0; i < 500; i++) {
+            assertSameLanguage(randomRegex(random, 4), inputs);
+        }
+    }
+
+    @Test
+    public void addSerialCopiesEdges() {
+        NFAGraph graph = NFAGraph.createByPath('a');
+        graph.addSerial(NFAGraph.createByPath('b'));
+        graph.getEndState().setEnd(true);
+        NFATable nfaTable = NFATable.create(graph);
+        // b 的开始状态没有指向它的有向边，不再能被访问到；也没有 ε有向边
+        assertEquals(3, nfaTable.getStateCount());
+        assertTrue(nfaTable.isEpsilonFree());
+        NFASimulator simulator = NFASimulator.create(nfaTable);
+        assertTrue(simulator.isMatch("ab"));
+        assertFalse(simulator.isMatch("a"));
+        assertFalse(simulator.isMatch("abb"));
+
+        // 下一个转换图的开始状态有 ε有向边 时，ε有向边 也被复制
+        NFAGraph plus = NFAGraph.createByPath('a');
+        NFAGraph b = NFAGraph.createByPath('b');
+        b.repeatPlus();
+        plus.addSerial(b);
+        plus.addSerial(NFAGraph.createByPath('c'));
+        plus.getEndState().setEnd(true);
+        simulator = NFASimulator.create(NFATable.create(plus));
+        java.util.regex.Pattern jdkPattern = java.util.regex.Pattern.compile("ab+c");
+        for (String input : allInputs(ALPHABET, MAX_LENGTH)) {
+            assertEquals(input, jdkPattern.matcher(input).matches(), simulator.isMatch(input));
+        }
+    }
+
+    private static void assertSameLanguage(String regex, List<String> inputs) {
+        RegexNode node = RegexParser.parse(regex);
+        RegexNode simplified = RegexSimplifier.simplify(node);
+        DFATable before = DFAMinimizer.minimize(DFARegexUtil.NFAToDFA(endGraph(node))).toTable();
+        DFATable after = DFAMinimizer.minimize(DFARegexUtil.NFAToDFA(endGraph(simplified))).toTable();
+        String message = regex + " ==> " + simplified;
+        // 最小化的 DFA 是唯一的
+        assertEquals(message, before.getStateCount(), after.getStateCount());
+        java.util.regex.Pattern jdkPattern = java.util.regex.Pattern.compile(regex);
+        for (String input : inputs) {
+            boolean expected = jdkPattern.matcher(input).matches();
+            assertEquals(message + " on " + input, expected, before.isMatch(input));
+            assertEquals(message + " on " + input, expected, after.isMatch(input));
+        }
+    }
+
+    private static NFAGraph endGraph(RegexNode node) {
+        NFAGraph graph = NFARegexUtil.createNFAGraph(node);
+        graph.getEndState().setEnd(true);
+        return graph;
+    }
+
+    // alphabet 组成的所有长度不超过 maxLength 的字符串
+    private static List<String> allInputs(String alphabet, int maxLength) {
+        List<String> inputs = new ArrayList<>();
+        inputs.add("");
+        int from = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            int to = inputs.size();
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < alphabet.length(); j++) {
+                    inputs.add(inputs.get(i) + alphabet.charAt(j));
+                }
+            }
+            from = to;
+        }
+        return inputs;
+    }
+
+    /**
+     * 只使用 RegexParser 支持的语法: 字面量、|、*、+、?、空的分支和括号
+     */
+    private static String randomRegex(Random random, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return String.valueOf(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        switch (random.nextInt(5)) {
+            case 0:
+                return randomRegex(random, depth - 1) + randomRegex(random, depth - 1);
+            case 1:
+                return "(" + randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1) + ")";
+            case 2:
+                return "(" + randomRegex(random, depth - 1) + ")" + "*+?".charAt(random.nextInt(3));
+            case 3:
+                return "(" + randomRegex(random, depth - 1) + "|)";
+            default:
+                return randomRegex(random, depth - 1) + "|" + randomRegex(random, depth - 1);
+        }
+    }
+}